@@ -0,0 +1,240 @@
+package DataViewer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A local file of partial statistics per sensor and time bucket, so that repeated or sliding-window reports
+// only have to read the buckets they have not seen before from GridDB.
+// Only buckets that ended more than LATE_MS ago are kept, the newer ones may still get readings.
+// The least recently used buckets are dropped once more than maxEntries are held.
+// The cache can be used by several threads, every sensor is expected to be handled by one thread at a time.
+public class AggregateCache {
+
+	private static final int MAGIC = 0x47444243; // "GDBC"
+	private static final int VERSION = 1;
+	// Readings are expected to arrive within this long after their timestamp
+	static final long LATE_MS = 5 * 60 * 1000L;
+
+	private final Path file;
+	private final long bucketMillis;
+	private final Map<String,Partial> entries;
+
+	// Partial statistics of all columns of one sensor for a time range. Partials of adjacent ranges can be
+	// merged into the statistics of the combined range: the mean and variance with Chan's update, and the
+	// time-weighted average from the trapezoid area under the readings, with the gap between two ranges
+	// bridged by their last and first readings. For a single range this is the average where each reading
+	// is weighted by half the time between its neighbours.
+	static class Partial {
+		final int columns;
+		long count;
+		long firstTime;
+		long lastTime;
+		final double[] mean;
+		final double[] squaredDeviations;
+		final double[] min;
+		final double[] max;
+		final double[] area;
+		final double[] first;
+		final double[] last;
+
+		Partial(int columns){
+			this.columns = columns;
+			mean = new double[columns];
+			squaredDeviations = new double[columns];
+			min = new double[columns];
+			max = new double[columns];
+			area = new double[columns];
+			first = new double[columns];
+			last = new double[columns];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		}
+
+		// Add a reading, readings have to be added in time order
+		void add(long time, double[] values){
+			count++;
+			for(int i = 0; i < columns; i++){
+				double value = values[i];
+				double delta = value - mean[i];
+				mean[i] += delta / count;
+				squaredDeviations[i] += delta * (value - mean[i]);
+				min[i] = Math.min(min[i], value);
+				max[i] = Math.max(max[i], value);
+				if(count == 1)
+					first[i] = value;
+				else
+					area[i] += (time - lastTime) / 2.0 * (last[i] + value);
+				last[i] = value;
+			}
+			if(count == 1)
+				firstTime = time;
+			lastTime = time;
+		}
+
+		// Add the statistics of a range that starts after this one
+		void merge(Partial next){
+			if(next.count == 0)
+				return;
+			if(count == 0){
+				copy(next);
+				return;
+			}
+			long total = count + next.count;
+			for(int i = 0; i < columns; i++){
+				double delta = next.mean[i] - mean[i];
+				mean[i] += delta * next.count / total;
+				squaredDeviations[i] += next.squaredDeviations[i] + delta * delta * count / total * next.count;
+				area[i] += (next.firstTime - lastTime) / 2.0 * (last[i] + next.first[i]) + next.area[i];
+				min[i] = Math.min(min[i], next.min[i]);
+				max[i] = Math.max(max[i], next.max[i]);
+				last[i] = next.last[i];
+			}
+			lastTime = next.lastTime;
+			count = total;
+		}
+
+		private void copy(Partial other){
+			count = other.count;
+			firstTime = other.firstTime;
+			lastTime = other.lastTime;
+			System.arraycopy(other.mean, 0, mean, 0, columns);
+			System.arraycopy(other.squaredDeviations, 0, squaredDeviations, 0, columns);
+			System.arraycopy(other.min, 0, min, 0, columns);
+			System.arraycopy(other.max, 0, max, 0, columns);
+			System.arraycopy(other.area, 0, area, 0, columns);
+			System.arraycopy(other.first, 0, first, 0, columns);
+			System.arraycopy(other.last, 0, last, 0, columns);
+		}
+
+		// A single reading, or readings that all share a timestamp, have no time weights
+		double weightedAverage(int column){
+			return lastTime > firstTime ? area[column] / (lastTime - firstTime) : mean[column];
+		}
+
+		double standardDeviation(int column){
+			return count == 0 ? 0 : Math.sqrt(squaredDeviations[column] / count);
+		}
+	}
+
+	AggregateCache(Path file, long bucketMillis, int maxEntries){
+		this.file = file;
+		this.bucketMillis = bucketMillis;
+		this.entries = new LinkedHashMap<String,Partial>(16, 0.75f, true){
+			@Override protected boolean removeEldestEntry(Map.Entry<String,Partial> eldest){
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	// Open the cache kept in the given file, an unreadable file or one written with another bucket size
+	// is ignored and replaced on save()
+	static AggregateCache open(String file, long bucketMillis, int maxEntries){
+		AggregateCache cache = new AggregateCache(Paths.get(file), bucketMillis, maxEntries);
+		if(Files.exists(cache.file)){
+			try {
+				cache.load();
+			} catch (IOException ex) {
+				System.err.println("Ignoring aggregate cache " + file + ": " + ex);
+				cache.entries.clear();
+			}
+		}
+		return cache;
+	}
+
+	long bucketMillis(){
+		return bucketMillis;
+	}
+
+	// Buckets that end within LATE_MS of now may still get readings and are never cached
+	boolean isClosed(long bucketStart){
+		return bucketStart + bucketMillis <= System.currentTimeMillis() - LATE_MS;
+	}
+
+	private static String key(String id, long bucketStart){
+		return id + '@' + bucketStart;
+	}
+
+	synchronized Partial get(String id, long bucketStart, int columns){
+		Partial partial = entries.get(key(id, bucketStart));
+		// A sensor whose schema changed is read again
+		return partial != null && partial.columns == columns ? partial : null;
+	}
+
+	synchronized void put(String id, long bucketStart, Partial partial){
+		if(isClosed(bucketStart))
+			entries.put(key(id, bucketStart), partial);
+	}
+
+	// Drop the buckets of a sensor between from and to, e.g. because readings arrived late
+	synchronized void invalidate(String id, long from, long to){
+		for(long bucketStart = from; bucketStart < to; bucketStart += bucketMillis)
+			entries.remove(key(id, bucketStart));
+	}
+
+	synchronized int size(){
+		return entries.size();
+	}
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("not an aggregate cache file");
+			if(in.readLong() != bucketMillis)
+				throw new IOException("written with another bucket size");
+			int size = in.readInt();
+			for(int n = 0; n < size; n++){
+				String id = in.readUTF();
+				long bucketStart = in.readLong();
+				Partial partial = new Partial(in.readInt());
+				partial.count = in.readLong();
+				partial.firstTime = in.readLong();
+				partial.lastTime = in.readLong();
+				for(double[] values : new double[][] {partial.mean, partial.squaredDeviations, partial.min,
+						partial.max, partial.area, partial.first, partial.last}){
+					for(int i = 0; i < partial.columns; i++)
+						values[i] = in.readDouble();
+				}
+				entries.put(key(id, bucketStart), partial);
+			}
+		}
+	}
+
+	// Write the cache to its file, least recently used entries first so they are the first to go when it is
+	// read back with a smaller maxEntries. The file is replaced in one step, a failed save keeps the old one.
+	synchronized void save() throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(bucketMillis);
+			out.writeInt(entries.size());
+			for(Map.Entry<String,Partial> entry : entries.entrySet()){
+				String key = entry.getKey();
+				int at = key.lastIndexOf('@');
+				Partial partial = entry.getValue();
+				out.writeUTF(key.substring(0, at));
+				out.writeLong(Long.parseLong(key.substring(at + 1)));
+				out.writeInt(partial.columns);
+				out.writeLong(partial.count);
+				out.writeLong(partial.firstTime);
+				out.writeLong(partial.lastTime);
+				for(double[] values : new double[][] {partial.mean, partial.squaredDeviations, partial.min,
+						partial.max, partial.area, partial.first, partial.last}){
+					for(int i = 0; i < partial.columns; i++)
+						out.writeDouble(values[i]);
+				}
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,279 @@
+package DataViewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.FetchOption;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.GridStoreFactory;
+import com.toshiba.mwcloud.gs.Query;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowSet;
+import com.toshiba.mwcloud.gs.TimeSeries;
+import com.toshiba.mwcloud.gs.TimestampUtils;
+
+// Exports the readings of one or many sensors for a time range into a CSV or a compact binary file.
+// Rows are fetched a page at a time (LIMIT) and written through a fixed direct buffer into a FileChannel,
+// so memory use stays the same whatever the number of rows.
+//
+// Usage: DataExporter host port cluster user password file [csv|bin] [start|-] [end|-] [sensor-id ...]
+// start and end are ISO 8601 timestamps (e.g. 2018-06-21T00:00:00.000Z), - for an open end,
+// and every sensor in Sensor_Types is exported when no sensor-ids are given.
+// Sensors the sink packed into <sensor-id>_packed containers (pack.window.ms) are unpacked into a line or
+// record per reading, the same as readings of a data-log container.
+//
+// CSV lines are sensor-id,epoch millis,value... with a "# sensor-id,time,column..." line before each sensor.
+// The binary file starts with "GDBX" and a version byte (1), followed by records that each start with a tag:
+//   'S' a sensor: id (unsigned short length + UTF-8), column count (byte), column names (unsigned short length + UTF-8)
+//   'R' a reading of the last sensor: epoch millis (long), then every column as a double
+// All numbers are big-endian.
+public class DataExporter {
+
+	private static final String SENSOR_TYPE_NAME = "Sensor_Types"; // Sensor-type container name
+	private static final int PAGE_ROWS = 10000; // Rows fetched per query
+	private static final int BUFFER_BYTES = 1 << 20; // Bytes written to the file at a time
+	private static final long REPORT_NANOS = 5_000_000_000L; // Interval between progress reports
+	private static final byte[] MAGIC = {'G', 'D', 'B', 'X', 1};
+
+	private final FileChannel channel;
+	private final boolean binary;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+	// Reused to format CSV lines
+	private final StringBuilder line = new StringBuilder();
+	private long rows = 0;
+	private long bytes = 0;
+	private final long startNanos = System.nanoTime();
+	private long lastReport = startNanos;
+
+	DataExporter(FileChannel channel, boolean binary) throws IOException {
+		this.channel = channel;
+		this.binary = binary;
+		if(binary)
+			buffer.put(MAGIC);
+	}
+
+	public static void main(String[] args) throws GSException, IOException, ParseException {
+		Properties props = new Properties();
+		props.setProperty("notificationAddress", args[0]);
+		props.setProperty("notificationPort", args[1]);
+		props.setProperty("clusterName", args[2]);
+		props.setProperty("user", args[3]);
+		props.setProperty("password", args[4]);
+		String file = args[5];
+		boolean binary = args.length > 6 && args[6].equals("bin");
+		Date start = args.length > 7 ? parseTime(args[7]) : null;
+		Date end = args.length > 8 ? parseTime(args[8]) : null;
+		List<String> ids = new ArrayList<>();
+		for(int i = 9; i < args.length; i++)
+			ids.add(args[i]);
+
+		GridStore store = GridStoreFactory.getInstance().getGridStore(props);
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataExporter exporter = new DataExporter(channel, binary);
+			if(ids.isEmpty())
+				ids = sensorIds(store);
+			for(String id : ids)
+				exporter.export(store, id, start, end);
+			exporter.close();
+			exporter.report("Exported " + ids.size() + " sensors to " + file + ":");
+		} finally {
+			store.close();
+		}
+	}
+
+	private static Date parseTime(String value) throws ParseException {
+		return value.equals("-") ? null : TimestampUtils.parse(value);
+	}
+
+	// Every sensor-id recorded in the sensor-type container
+	private static List<String> sensorIds(GridStore store) throws GSException {
+		List<String> ids = new ArrayList<>();
+		com.toshiba.mwcloud.gs.Collection<String,Row> types = store.getCollection(SENSOR_TYPE_NAME);
+		if(types == null)
+			return ids;
+		RowSet<Row> rowSet = types.query("SELECT *").fetch(false);
+		while(rowSet.hasNext())
+			ids.add(rowSet.next().getString(0));
+		types.close();
+		return ids;
+	}
+
+	// Write every reading of a sensor between start and end. Each page starts just after the last
+	// timestamp of the previous one, timestamps are the row keys so no reading is skipped or repeated.
+	void export(GridStore store, String id, Date start, Date end) throws GSException, IOException {
+		ContainerInfo info = store.getContainerInfo(id);
+		if(info == null){
+			exportPacked(store, id, start, end);
+			return;
+		}
+		int columnCount = info.getColumnCount();
+		String[] columns = new String[columnCount - 1];
+		for(int i = 1; i < columnCount; i++)
+			columns[i - 1] = info.getColumnInfo(i).getName();
+		writeSensor(id, columns);
+		TimeSeries<Row> timeSeries = store.getTimeSeries(id);
+		Date from = start;
+		while(true){
+			Query<Row> query = timeSeries.query(from, end);
+			query.setFetchOption(FetchOption.LIMIT, PAGE_ROWS);
+			RowSet<Row> rowSet = query.fetch(false);
+			int pageRows = 0;
+			long time = 0;
+			while(rowSet.hasNext()){
+				Row row = rowSet.next();
+				time = row.getTimestamp(0).getTime();
+				writeRow(id, row, time, columnCount);
+				pageRows++;
+			}
+			rowSet.close();
+			query.close();
+			if(pageRows < PAGE_ROWS)
+				break;
+			from = new Date(time + 1);
+		}
+		timeSeries.close();
+	}
+
+	// Write every reading of a sensor's packed container between start and end. Packed rows hold a window
+	// of readings each, so there are few enough of them to be read with a single query.
+	private void exportPacked(GridStore store, String id, Date start, Date end) throws GSException, IOException {
+		PackedReader reader = PackedReader.open(store, id, start, end);
+		if(reader == null){
+			System.err.println("No container " + id);
+			return;
+		}
+		String[] columns = reader.columnNames();
+		writeSensor(id, columns);
+		double[] values = new double[columns.length];
+		while(reader.next()){
+			for(int i = 0; i < values.length; i++)
+				values[i] = reader.value(i);
+			writeReading(id, reader.time(), values);
+		}
+		reader.close();
+	}
+
+	private void writeSensor(String id, String[] columns) throws IOException {
+		if(binary){
+			ensure(1);
+			buffer.put((byte) 'S');
+			writeString(id);
+			ensure(1);
+			buffer.put((byte) columns.length);
+			for(String column : columns)
+				writeString(column);
+		} else {
+			line.setLength(0);
+			line.append("# ").append(id).append(",time");
+			for(String column : columns)
+				line.append(',').append(column);
+			writeLine();
+		}
+	}
+
+	private void writeRow(String id, Row row, long time, int columnCount) throws GSException, IOException {
+		if(binary){
+			ensure(1 + 8 * columnCount);
+			buffer.put((byte) 'R');
+			buffer.putLong(time);
+			for(int i = 1; i < columnCount; i++)
+				buffer.putDouble(value(row, i));
+		} else {
+			line.setLength(0);
+			line.append(id).append(',').append(time);
+			for(int i = 1; i < columnCount; i++)
+				line.append(',').append(value(row, i));
+			writeLine();
+		}
+		countRow();
+	}
+
+	private void writeReading(String id, long time, double[] values) throws IOException {
+		if(binary){
+			ensure(9 + 8 * values.length);
+			buffer.put((byte) 'R');
+			buffer.putLong(time);
+			for(double value : values)
+				buffer.putDouble(value);
+		} else {
+			line.setLength(0);
+			line.append(id).append(',').append(time);
+			for(double value : values)
+				line.append(',').append(value);
+			writeLine();
+		}
+		countRow();
+	}
+
+	private void countRow(){
+		rows++;
+		if((rows & 0xFFF) == 0 && System.nanoTime() - lastReport >= REPORT_NANOS)
+			report("");
+	}
+
+	private static double value(Row row, int column) throws GSException {
+		Object value = row.getValue(column);
+		return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+	}
+
+	private void writeString(String value) throws IOException {
+		byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+		ensure(2 + encoded.length);
+		buffer.putShort((short) encoded.length);
+		buffer.put(encoded);
+	}
+
+	// Sensor-ids and column names are written as UTF-8, everything else in a line is ASCII
+	private void writeLine() throws IOException {
+		int length = line.length();
+		for(int i = 0; i < length; i++){
+			char c = line.charAt(i);
+			if(c >= 0x80){
+				ensure(4 * (length - i) + 1);
+				buffer.put(line.substring(i).getBytes(StandardCharsets.UTF_8));
+				break;
+			}
+			ensure(1);
+			buffer.put((byte) c);
+		}
+		ensure(1);
+		buffer.put((byte) '\n');
+	}
+
+	// Make room for the given number of bytes in the buffer
+	private void ensure(int size) throws IOException {
+		if(buffer.remaining() < size)
+			drain();
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			bytes += channel.write(buffer);
+		buffer.clear();
+	}
+
+	void close() throws IOException {
+		drain();
+		channel.force(false);
+	}
+
+	private void report(String prefix){
+		long now = System.nanoTime();
+		lastReport = now;
+		System.err.printf("%s %,d rows, %,d bytes in %.1fs: %,.0f rows/s%n", prefix, rows, bytes + buffer.position(),
+			(now - startNanos) / 1e9, rows * 1e9 / Math.max(1, now - startNanos));
+	}
+}
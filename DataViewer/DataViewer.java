@@ -8,6 +8,14 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.toshiba.mwcloud.gs.Collection;
 import com.toshiba.mwcloud.gs.GSException;
@@ -42,6 +50,23 @@ public class DataViewer {
 
 	private  static Map<String,Map<String,RowKeyPredicate<?>>> typeMap; 
 	private  static Container<String,SensorType> typeContainer; // Container of sensor-types
+	// Interval of the rollup containers (e.g. 1h) statistics are read from, null to aggregate the raw rows
+	private  static String rollupInterval = null;
+	// Whether readings are read from the <sensor-id>_packed containers written by the sink (pack.window.ms)
+	private  static boolean packed = false;
+	// Number of sensors that are aggregated at the same time, each worker has its own GridStore
+	private  static int workerCount = 8;
+	// Sensors with at most this many readings in the range are aggregated by fetching their rows once,
+	// larger ones with server-side aggregations, which cost four round trips per column but move no rows
+	private  static long scanMaxRows = 20000;
+	// Partial statistics of whole hours that earlier runs read from GridDB, null to read every range again
+	private  static AggregateCache cache = null;
+	private  static final long CACHE_BUCKET_MS = 60 * 60 * 1000L;
+	private  static final int CACHE_MAX_ENTRIES = 500000;
+	private  static Properties storeProps;
+	// A GridStore must not be shared between threads, so every worker opens its own on first use
+	private  static final ThreadLocal<GridStore> workerStore = new ThreadLocal<>();
+	private  static final ConcurrentLinkedQueue<GridStore> workerStores = new ConcurrentLinkedQueue<>();
 
 
 	// This class represents the schema for the sensor-type container which records all the sensor Ids and types
@@ -140,6 +165,25 @@ public class DataViewer {
 		props.setProperty("clusterName", args[2]); // Cluster name used for this project was 'defaultCluster'
 		props.setProperty("user", args[3]); // Default is 'admin'
 		props.setProperty("password", args[4]); // Default is 'admin'
+		// Optional: read statistics from the <sensor-id>_<interval> rollup containers kept by the sink
+		// (rollup.intervals in griddb-sink.properties) instead of scanning every reading, 'raw' to scan them,
+		// or 'packed' to read the readings the sink packed into <sensor-id>_packed containers (pack.window.ms)
+		if (args.length > 5 && args[5].equals("packed"))
+			packed = true;
+		else if (args.length > 5 && !args[5].equals("raw"))
+			rollupInterval = args[5];
+		// Optional: number of sensors aggregated in parallel (default 8)
+		if (args.length > 6)
+			workerCount = Integer.parseInt(args[6]);
+		// Optional: largest number of readings aggregated from a single scan (default 20000, 0 to always
+		// aggregate on the server)
+		if (args.length > 7)
+			scanMaxRows = Long.parseLong(args[7]);
+		// Optional: file to keep per-hour statistics in between runs, so a repeated or sliding report only
+		// reads the hours it has not seen before
+		if (args.length > 8)
+			cache = AggregateCache.open(args[8], CACHE_BUCKET_MS, CACHE_MAX_ENTRIES);
+		storeProps = props;
 		store = GridStoreFactory.getInstance().getGridStore(props); // Initiate GridDB connection
 		Date start = new Date("2018/06/21"); // Set a start date, can set to "null" to start at earliest record
 		Date end = new Date("2018/06/27"); // Set an end date, can set to "null" to end at latest record
@@ -164,16 +208,41 @@ public class DataViewer {
 
 		// Execute the multiget query
 		executeMultiGet(start,end); 
+		if(cache != null){
+			try {
+				cache.save();
+			} catch (java.io.IOException ex) {
+				System.err.println("Failed to save the aggregate cache: " + ex);
+			}
+		}
 		// Close connection to GridDB
 		if(store != null)
 			store.close();
 	}
 
-	// Retrieve statistical information for all columns for an inputted TimeSeries
-	public static HashMap<String,Double> getRowCounts(TimeSeries timeSeries, Date start, Date end, String id,String type) throws GSException {
+	// GridStore of the calling worker thread, opened with the same properties as the main connection
+	private static GridStore workerStore() throws GSException {
+		GridStore gridStore = workerStore.get();
+		if(gridStore == null){
+			gridStore = GridStoreFactory.getInstance().getGridStore(storeProps);
+			workerStore.set(gridStore);
+			workerStores.add(gridStore);
+		}
+		return gridStore;
+	}
+
+	// Retrieve statistical information for all columns for an inputted TimeSeries, the statistics
+	// are appended to out so that sensors aggregated in parallel are still printed one after another
+	public static HashMap<String,Double> getRowCounts(GridStore store, TimeSeries timeSeries, Date start, Date end, String id,String type, StringBuilder out) throws GSException {
 		ContainerInfo containerInfo = store.getContainerInfo(id); // Get container's schema
 		int columnCount = containerInfo.getColumnCount(); // Get container's column count
 		AggregationResult count = timeSeries.aggregate(start,end,type,Aggregation.COUNT);
+		// The count tells how many rows a scan would fetch, small ranges are cheaper to fetch once
+		// than to aggregate with four requests per column
+		if(count.getDouble() <= scanMaxRows){
+			timeSeries.close();
+			return scanRowCounts(store,containerInfo,start,end,id,out);
+		}
 		HashMap<String,Double> sensorAggregationMap = new HashMap<>();
 		for(int i = 1; i < columnCount; i++){ //Skip over the timestamp column
 			String fieldId = containerInfo.getColumnInfo(i).getName(); // Get column name
@@ -185,43 +254,329 @@ public class DataViewer {
 			columnResult += String.format(" Min: %s %f",fieldId,minSet.getDouble());
 			columnResult += String.format(" Max: %s %f",fieldId,maxSet.getDouble());
 			columnResult += String.format(" Std.Dev: %s output is: %f",fieldId,stdDev.getDouble()); // Get individual statistics (average,min,max) on each column
-			System.out.print(columnResult + "\t");
+			out.append(columnResult).append('\t');
 			sensorAggregationMap.put(fieldId,averageSet.getDouble() * count.getDouble());
 		}
-		System.out.println();
+		out.append('\n');
 		sensorAggregationMap.put("count",count.getDouble());
 		timeSeries.close(); // Close container connection and release resources
 		return sensorAggregationMap;
 	}
 
+	// Running statistics of one column. The mean and variance use Welford's update and the time-weighted
+	// average is updated incrementally as well, so no sums of large or squared values are ever kept.
+	private static class ColumnStats {
+		long count;
+		double mean;
+		double squaredDeviations;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		double totalWeight;
+		double weightedMean;
+
+		void add(double value){
+			count++;
+			double delta = value - mean;
+			mean += delta / count;
+			squaredDeviations += delta * (value - mean);
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+
+		void addWeighted(double value, double weight){
+			if(weight <= 0)
+				return;
+			totalWeight += weight;
+			weightedMean += weight / totalWeight * (value - weightedMean);
+		}
+
+		// A single reading, or readings that all share a timestamp, have no time weights
+		double weightedAverage(){
+			return totalWeight > 0 ? weightedMean : mean;
+		}
+
+		double standardDeviation(){
+			return count == 0 ? 0 : Math.sqrt(squaredDeviations / count);
+		}
+	}
+
+	// Retrieve the same statistics as getRowCounts with a single query, computing them for every column
+	// while the rows are streamed in. Like WEIGHTED_AVERAGE, every reading is weighted by half the time
+	// between its previous and next reading (the first and last by half the time to their only neighbour).
+	public static HashMap<String,Double> scanRowCounts(GridStore store, ContainerInfo containerInfo, Date start, Date end, String id, StringBuilder out) throws GSException {
+		int columnCount = containerInfo.getColumnCount();
+		ColumnStats[] stats = new ColumnStats[columnCount];
+		for(int i = 1; i < columnCount; i++)
+			stats[i] = new ColumnStats();
+		// The weight of a reading is known once the next one has been read, so the last reading is held back
+		double[] heldValues = new double[columnCount];
+		long heldTime = 0;
+		long beforeHeldTime = 0;
+		long rows = 0;
+
+		TimeSeries<Row> timeSeries = store.getTimeSeries(id);
+		RowSet<Row> rowSet = timeSeries.query(start,end).fetch(false);
+		while(rowSet.hasNext()){
+			Row row = rowSet.next();
+			long time = row.getTimestamp(0).getTime();
+			if(rows > 0){
+				double weight = (time - (rows > 1 ? beforeHeldTime : heldTime)) / 2.0;
+				for(int i = 1; i < columnCount; i++)
+					stats[i].addWeighted(heldValues[i], weight);
+			}
+			for(int i = 1; i < columnCount; i++){
+				heldValues[i] = ((Number) row.getValue(i)).doubleValue();
+				stats[i].add(heldValues[i]);
+			}
+			beforeHeldTime = heldTime;
+			heldTime = time;
+			rows++;
+		}
+		if(rows > 1){
+			for(int i = 1; i < columnCount; i++)
+				stats[i].addWeighted(heldValues[i], (heldTime - beforeHeldTime) / 2.0);
+		}
+		rowSet.close();
+		timeSeries.close();
+
+		HashMap<String,Double> sensorAggregationMap = new HashMap<>();
+		for(int i = 1; i < columnCount; i++){
+			String fieldId = containerInfo.getColumnInfo(i).getName();
+			double average = stats[i].weightedAverage();
+			String columnResult = String.format("Avg: %s %f",fieldId,average);
+			columnResult += String.format(" Min: %s %f",fieldId,rows == 0 ? 0 : stats[i].min);
+			columnResult += String.format(" Max: %s %f",fieldId,rows == 0 ? 0 : stats[i].max);
+			columnResult += String.format(" Std.Dev: %s output is: %f",fieldId,stats[i].standardDeviation());
+			out.append(columnResult).append('\t');
+			sensorAggregationMap.put(fieldId,average * rows);
+		}
+		out.append('\n');
+		sensorAggregationMap.put("count",(double) rows);
+		return sensorAggregationMap;
+	}
+
+	// Retrieve the same statistics as getRowCounts, combined from the statistics of every whole bucket
+	// (hour) in the range and of the partial buckets at both ends. Only the partial buckets, the buckets
+	// that are not in the aggregate cache yet and the ones that may still get readings are read from GridDB.
+	public static HashMap<String,Double> getCachedCounts(GridStore store, String id, Date start, Date end, StringBuilder out) throws GSException {
+		HashMap<String,Double> sensorAggregationMap = new HashMap<>();
+		ContainerInfo containerInfo = store.getContainerInfo(id); // Get container's schema
+		if(containerInfo == null){
+			out.append("No container ").append(id).append('\n');
+			sensorAggregationMap.put("count",0.0);
+			return sensorAggregationMap;
+		}
+		int columns = containerInfo.getColumnCount() - 1; // Skip over the timestamp column
+		long bucketMillis = cache.bucketMillis();
+		long from = start.getTime();
+		long to = end.getTime() + 1; // The range includes its end
+		long firstBucket = -Math.floorDiv(-from, bucketMillis) * bucketMillis;
+		long lastBucketEnd = Math.floorDiv(to, bucketMillis) * bucketMillis;
+		if(firstBucket >= lastBucketEnd)
+			firstBucket = lastBucketEnd = to; // No whole bucket in the range
+
+		TimeSeries<Row> timeSeries = store.getTimeSeries(id);
+		AggregateCache.Partial[] buckets = new AggregateCache.Partial[(int) ((lastBucketEnd - firstBucket) / bucketMillis)];
+		boolean cached = false;
+		for(int b = 0; b < buckets.length; b++){
+			buckets[b] = cache.get(id, firstBucket + b * bucketMillis, columns);
+			cached |= buckets[b] != null;
+		}
+		scanMissing(timeSeries, buckets, firstBucket, bucketMillis, columns);
+		// Readings that arrived late in a cached bucket change the sensor's count, read all its buckets again then
+		if(cached){
+			long count = 0;
+			for(AggregateCache.Partial bucket : buckets)
+				count += bucket.count;
+			AggregationResult stored = timeSeries.aggregate(new Date(firstBucket), new Date(lastBucketEnd - 1),
+				containerInfo.getColumnInfo(1).getName(), Aggregation.COUNT);
+			if(stored.getLong() != count){
+				cache.invalidate(id, firstBucket, lastBucketEnd);
+				Arrays.fill(buckets, null);
+				scanMissing(timeSeries, buckets, firstBucket, bucketMillis, columns);
+			}
+		}
+		for(int b = 0; b < buckets.length; b++)
+			cache.put(id, firstBucket + b * bucketMillis, buckets[b]);
+
+		AggregateCache.Partial total = new AggregateCache.Partial(columns);
+		scan(timeSeries, from, firstBucket, new AggregateCache.Partial[] {total}, 0, Long.MAX_VALUE, columns);
+		for(AggregateCache.Partial bucket : buckets)
+			total.merge(bucket);
+		AggregateCache.Partial tail = new AggregateCache.Partial(columns);
+		scan(timeSeries, lastBucketEnd, to, new AggregateCache.Partial[] {tail}, 0, Long.MAX_VALUE, columns);
+		total.merge(tail);
+		timeSeries.close();
+
+		String[] fieldIds = new String[columns];
+		for(int i = 0; i < columns; i++)
+			fieldIds[i] = containerInfo.getColumnInfo(i + 1).getName();
+		return partialCounts(total, fieldIds, out);
+	}
+
+	// Retrieve the same statistics as getRowCounts from the packed container of a sensor, unpacking its
+	// windows one reading at a time. The average is time-weighted like the one of getCachedCounts.
+	public static HashMap<String,Double> getPackedCounts(GridStore store, String id, Date start, Date end, StringBuilder out) throws GSException {
+		PackedReader reader = PackedReader.open(store, id, start, end);
+		if(reader == null){
+			out.append("No packed container ").append(id).append(PackedReader.SUFFIX).append('\n');
+			HashMap<String,Double> sensorAggregationMap = new HashMap<>();
+			sensorAggregationMap.put("count",0.0);
+			return sensorAggregationMap;
+		}
+		String[] fieldIds = reader.columnNames();
+		AggregateCache.Partial total = new AggregateCache.Partial(fieldIds.length);
+		double[] values = new double[fieldIds.length];
+		while(reader.next()){
+			for(int i = 0; i < values.length; i++)
+				values[i] = reader.value(i);
+			total.add(reader.time(), values);
+		}
+		reader.close();
+		return partialCounts(total, fieldIds, out);
+	}
+
+	// Print the statistics of every column and return them like getRowCounts does
+	private static HashMap<String,Double> partialCounts(AggregateCache.Partial total, String[] fieldIds, StringBuilder out){
+		HashMap<String,Double> sensorAggregationMap = new HashMap<>();
+		for(int i = 0; i < fieldIds.length; i++){
+			String fieldId = fieldIds[i];
+			double average = total.weightedAverage(i);
+			String columnResult = String.format("Avg: %s %f",fieldId,average);
+			columnResult += String.format(" Min: %s %f",fieldId,total.count == 0 ? 0 : total.min[i]);
+			columnResult += String.format(" Max: %s %f",fieldId,total.count == 0 ? 0 : total.max[i]);
+			columnResult += String.format(" Std.Dev: %s output is: %f",fieldId,total.standardDeviation(i));
+			out.append(columnResult).append('\t');
+			sensorAggregationMap.put(fieldId,average * total.count);
+		}
+		out.append('\n');
+		sensorAggregationMap.put("count",(double) total.count);
+		return sensorAggregationMap;
+	}
+
+	// Read every run of buckets that has no statistics yet with a single query
+	private static void scanMissing(TimeSeries<Row> timeSeries, AggregateCache.Partial[] buckets, long firstBucket, long bucketMillis, int columns) throws GSException {
+		for(int b = 0; b < buckets.length; b++){
+			if(buckets[b] != null)
+				continue;
+			int runEnd = b;
+			while(runEnd < buckets.length && buckets[runEnd] == null)
+				buckets[runEnd++] = new AggregateCache.Partial(columns);
+			scan(timeSeries, firstBucket + b * bucketMillis, firstBucket + runEnd * bucketMillis, buckets, b, bucketMillis, columns);
+			b = runEnd;
+		}
+	}
+
+	// Add every reading from 'from' up to (but not including) 'to' to the partial statistics of its bucket,
+	// partials[firstIndex] being the bucket that starts at 'from'
+	private static void scan(TimeSeries<Row> timeSeries, long from, long to, AggregateCache.Partial[] partials, int firstIndex, long bucketMillis, int columns) throws GSException {
+		if(from >= to)
+			return;
+		double[] values = new double[columns];
+		RowSet<Row> rowSet = timeSeries.query(new Date(from), new Date(to - 1)).fetch(false);
+		while(rowSet.hasNext()){
+			Row row = rowSet.next();
+			long time = row.getTimestamp(0).getTime();
+			for(int i = 0; i < columns; i++)
+				values[i] = ((Number) row.getValue(i + 1)).doubleValue();
+			partials[firstIndex + (int) ((time - from) / bucketMillis)].add(time, values);
+		}
+		rowSet.close();
+	}
+
+	// Retrieve the same statistics as getRowCounts from the rollup container of a sensor. It holds one row
+	// per time bucket with the count and the sum, sum of squares, min and max of every column, so the cost
+	// grows with the number of buckets in the range rather than the number of readings.
+	// Buckets are selected by their start time, so the range is effectively rounded to whole buckets,
+	// and the average is the plain mean of the readings rather than a time-weighted one.
+	public static HashMap<String,Double> getRollupCounts(GridStore store, String id, Date start, Date end, StringBuilder out) throws GSException {
+		String rollupName = id + "_" + rollupInterval;
+		HashMap<String,Double> sensorAggregationMap = new HashMap<>();
+		ContainerInfo containerInfo = store.getContainerInfo(rollupName); // Get rollup container's schema
+		if(containerInfo == null){
+			out.append("No rollup container ").append(rollupName).append('\n');
+			sensorAggregationMap.put("count",0.0);
+			return sensorAggregationMap;
+		}
+		// Columns are the bucket start, the count, then <column>_sum, _sumsq, _min and _max per column,
+		// and last the topic, partition and offset the sink uses to skip records it has counted already
+		int fieldCount = (containerInfo.getColumnCount() - 5) / 4;
+		double count = 0;
+		double[] sum = new double[fieldCount];
+		double[] sumOfSquares = new double[fieldCount];
+		double[] min = new double[fieldCount];
+		double[] max = new double[fieldCount];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+
+		TimeSeries<Row> timeSeries = store.getTimeSeries(rollupName);
+		RowSet<Row> rowSet = timeSeries.query(start,end).fetch();
+		while(rowSet.hasNext()){
+			Row row = rowSet.next();
+			count += row.getLong(1);
+			for(int i = 0; i < fieldCount; i++){
+				int column = 2 + i * 4;
+				sum[i] += row.getDouble(column);
+				sumOfSquares[i] += row.getDouble(column + 1);
+				min[i] = Math.min(min[i], row.getDouble(column + 2));
+				max[i] = Math.max(max[i], row.getDouble(column + 3));
+			}
+		}
+		for(int i = 0; i < fieldCount; i++){
+			String sumColumn = containerInfo.getColumnInfo(2 + i * 4).getName();
+			String fieldId = sumColumn.substring(0, sumColumn.length() - "_sum".length());
+			double average = count == 0 ? 0 : sum[i] / count;
+			double stdDev = count == 0 ? 0 : Math.sqrt(Math.max(0, sumOfSquares[i] / count - average * average));
+			String columnResult = String.format("Avg: %s %f",fieldId,average);
+			columnResult += String.format(" Min: %s %f",fieldId,count == 0 ? 0 : min[i]);
+			columnResult += String.format(" Max: %s %f",fieldId,count == 0 ? 0 : max[i]);
+			columnResult += String.format(" Std.Dev: %s output is: %f",fieldId,stdDev);
+			out.append(columnResult).append('\t');
+			sensorAggregationMap.put(fieldId,sum[i]);
+		}
+		out.append('\n');
+		sensorAggregationMap.put("count",count);
+		timeSeries.close(); // Close container connection and release resources
+		return sensorAggregationMap;
+	}
+
 	
 	// Determine which schema, depending on the sensor_id and sensor-type a sensor falls into and 
 	// Get data for the right corresponding container (i.e. volt sensor goes to TimeSeries<ElectricitySensor>)
-	public static HashMap<String,Double> getSensorData(String sensorType, String id, Date start, Date end) throws GSException{
-		System.out.println("Sensor Readings from " + sensorType + " Sensor with ID: " + id);
+	public static HashMap<String,Double> getSensorData(GridStore store, String sensorType, String id, Date start, Date end, StringBuilder out) throws GSException{
+		out.append("Sensor Readings from ").append(sensorType).append(" Sensor with ID: ").append(id).append('\n');
 		// Get and display all records and statistical information for a container with the LightSensor schema
 		TimeSeries<?> ts;
 		HashMap<String,Double> sensorAggregationMap = new HashMap<>();
-		if(sensorType.equals("light")){
+		if(rollupInterval != null){
+			sensorAggregationMap = getRollupCounts(store,id,start,end,out);
+		}
+		else if(packed){
+			sensorAggregationMap = getPackedCounts(store,id,start,end,out);
+		}
+		else if(cache != null && start != null && end != null){
+			sensorAggregationMap = getCachedCounts(store,id,start,end,out);
+		}
+		else if(sensorType.equals("light")){
 			ts = store.putTimeSeries(id,Sensor.class);
-			sensorAggregationMap = getRowCounts(ts,start,end,id,sensorType);
+			sensorAggregationMap = getRowCounts(store,ts,start,end,id,sensorType,out);
 		}
 
 		// Get and display all records and statistical information for a container with the WattSensor schema
 		else if (sensorType.equals("watts")){
 			ts = store.putTimeSeries(id,WattSensor.class);
-			sensorAggregationMap = getRowCounts(ts,start,end,id,sensorType);
+			sensorAggregationMap = getRowCounts(store,ts,start,end,id,sensorType,out);
 		}
 
 		// Get and display all records and statistical information for a container with the ElectricitySensor schema
 		else if(sensorType.equals("volts")){
 			ts = store.putTimeSeries(id,ElectricitySensor.class);
-			sensorAggregationMap = getRowCounts(ts,start,end,id,sensorType);
+			sensorAggregationMap = getRowCounts(store,ts,start,end,id,sensorType,out);
 		}
 		return sensorAggregationMap;
 	}
 
-	private static void displayAverages(HashMap<String,Double> sensorAggregationMap){
+	private static void displayAverages(Map<String,Double> sensorAggregationMap){
 		Double count = sensorAggregationMap.get("count");
 		for(Entry<String, Double> averagePair : sensorAggregationMap.entrySet()){
 			if(!(averagePair.getKey().equals("count"))){
@@ -257,37 +612,86 @@ public class DataViewer {
 		}
 	}
 
+	// Statistics of one sensor: the lines to print and the per-column totals to add to its type's totals
+	private static class SensorResult {
+		final StringBuilder out = new StringBuilder();
+		HashMap<String,Double> totals;
+	}
+
+	// Add the totals of one sensor into the totals of its type
+	private static void reduce(Map<String,Double> typeTotals, Map<String,Double> sensorTotals){
+		for(Entry<String,Double> pair : sensorTotals.entrySet())
+			typeTotals.merge(pair.getKey(), pair.getValue(), Double::sum);
+	}
+
 	private static void executeMultiGet(Date start, Date end) throws GSException{
 		// Get all rows that correspond to a certain type and get all the records in the cluster that 
 		// match that type and fall in the date-range. The multi-get can search through different containers
 		// such that the container-names are specified
-		
-		for( Entry<String, Map<String,RowKeyPredicate<?>>> entry : typeMap.entrySet()){ 
-			String type = entry.getKey(); // Get sensor-type
-			Map<String, List<Row>> multiGetResults = store.multiGet(entry.getValue()); 
-			// Get a map corresponding to the all the rows that match that type and fit the query
-			System.out.println(type + " Sensors.");
-			// For all sensor-id's that match that type
-			HashMap<String,Double> typeAveragesMap = new HashMap<>();
-			for(Entry<String, List<Row>> getResult : multiGetResults.entrySet()){
-				String id = getResult.getKey(); // Get the sensor-id
-				HashMap<String,Double> sensorAverages = getSensorData(type,id,start,end);
-				if(typeAveragesMap.isEmpty())
-					typeAveragesMap = sensorAverages;
-				else {
-					for(Entry<String,Double> pair : sensorAverages.entrySet()){
-						String key = pair.getKey();
-						Double value = pair.getValue();
-						typeAveragesMap.put(key,typeAveragesMap.get(key) + value);
-					}
+		// Every sensor is independent, so their statistics are computed by a pool of workers, each with its
+		// own GridStore. Results are printed and reduced in type and sensor-id order once they are done,
+		// so the report is the same whatever order the workers finish in.
+		ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+		Map<String,Map<String,Future<SensorResult>>> results = new HashMap<>();
+		try {
+			for(String type : TYPE_NAMES){
+				// Every sensor of the type is aggregated, a multiGet would fetch all of their readings in the
+				// range only to find out which sensors have any, the per-sensor COUNT tells that as well
+				Map<String,Future<SensorResult>> sensors = new TreeMap<>();
+				for(String id : new TreeSet<>(typeMap.get(type).keySet())){
+					sensors.put(id, workers.submit(() -> {
+						SensorResult result = new SensorResult();
+						result.totals = getSensorData(workerStore(),type,id,start,end,result.out);
+						// Without rollups only sensors with readings in the range are reported
+						if(rollupInterval == null && result.totals.getOrDefault("count",0.0) == 0)
+							return null;
+						return result;
+					}));
 				}
+				results.put(type, sensors);
+			}
+
+			for(String type : TYPE_NAMES){
+				// Get a map corresponding to the all the rows that match that type and fit the query
+				System.out.println(type + " Sensors.");
+				// For all sensor-id's that match that type
+				Map<String,Double> typeAveragesMap = new TreeMap<>();
+				for(Future<SensorResult> sensor : results.get(type).values()){
+					SensorResult result = sensor.get();
+					if(result == null)
+						continue;
+					System.out.print(result.out);
+					reduce(typeAveragesMap, result.totals);
+				}
+				System.out.print("\n\nAll: " + type + "sensors");
+				System.out.println();
+				displayAverages(typeAveragesMap);
+				System.out.println();
+				System.out.println();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GSException("Interrupted while aggregating sensors", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof GSException)
+				throw (GSException) ex.getCause();
+			throw new GSException("Failed to aggregate sensor", ex.getCause());
+		} finally {
+			// After a failure the sensors that have not started are dropped, but a worker only stops between
+			// sensors, so let the running ones finish before their GridStores are closed
+			for(Map<String,Future<SensorResult>> sensors : results.values()){
+				for(Future<SensorResult> sensor : sensors.values())
+					sensor.cancel(false);
+			}
+			workers.shutdown();
+			try {
+				workers.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
 			}
-			System.out.print("\n\nAll: " + type + "sensors");
-			System.out.println();
-			displayAverages(typeAveragesMap);
-			System.out.println();
-			System.out.println();
-			 
+			for(GridStore gridStore : workerStores)
+				gridStore.close();
+			workerStores.clear();
 		}
 	}
 }
@@ -0,0 +1,129 @@
+package DataViewer;
+
+import java.util.Date;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.FetchOption;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Query;
+import com.toshiba.mwcloud.gs.QueryOrder;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowSet;
+import com.toshiba.mwcloud.gs.TimeSeries;
+
+// Reads the readings of a sensor back from its <sensor-id>_packed container, which the sink writes instead of
+// a row per reading when pack.window.ms is set. Every packed row holds one window: its start (the RowKey),
+// its length, the offsets in milliseconds of the readings from the start, and an array of values per column.
+// Readings are returned one at a time in time order, the windows are fetched as they are needed.
+public class PackedReader {
+
+	static final String SUFFIX = "_packed";
+	private static final int VALUE_COLUMN = 3; // Columns before the value arrays: time, window, offsets
+
+	private final TimeSeries<Row> timeSeries;
+	private final RowSet<Row> rowSet;
+	private final String[] names;
+	private final boolean[] integral;
+	private final long start;
+	private final long end;
+	// The window being read and the index of the current reading in it
+	private long windowStart;
+	private long[] offsets = new long[0];
+	private final double[][] values;
+	private int index;
+
+	private PackedReader(ContainerInfo info, TimeSeries<Row> timeSeries, RowSet<Row> rowSet, Date start, Date end){
+		this.timeSeries = timeSeries;
+		this.rowSet = rowSet;
+		this.start = start == null ? Long.MIN_VALUE : start.getTime();
+		this.end = end == null ? Long.MAX_VALUE : end.getTime();
+		int columns = info.getColumnCount() - VALUE_COLUMN;
+		names = new String[columns];
+		integral = new boolean[columns];
+		values = new double[columns][];
+		for(int i = 0; i < columns; i++){
+			names[i] = info.getColumnInfo(VALUE_COLUMN + i).getName();
+			integral[i] = info.getColumnInfo(VALUE_COLUMN + i).getType() == GSType.LONG_ARRAY;
+		}
+	}
+
+	// Open the packed readings of a sensor between start and end (null for an open end),
+	// or return null if the sensor has no packed container
+	static PackedReader open(GridStore store, String id, Date start, Date end) throws GSException {
+		ContainerInfo info = store.getContainerInfo(id + SUFFIX);
+		if(info == null)
+			return null;
+		TimeSeries<Row> timeSeries = store.getTimeSeries(id + SUFFIX);
+		// The window holding the first readings may start before the range does, it is the last one starting up to 'start'
+		Date from = start;
+		if(start != null){
+			Query<Row> query = timeSeries.query(null, start, QueryOrder.DESCENDING);
+			query.setFetchOption(FetchOption.LIMIT, 1);
+			RowSet<Row> first = query.fetch(false);
+			if(first.hasNext())
+				from = first.next().getTimestamp(0);
+			first.close();
+			query.close();
+		}
+		return new PackedReader(info, timeSeries, timeSeries.query(from, end).fetch(false), start, end);
+	}
+
+	// Names of the value columns, those of the sensor's data-log columns
+	String[] columnNames(){
+		return names;
+	}
+
+	// Move to the next reading in the range, false once there is none
+	boolean next() throws GSException {
+		while(true){
+			if(++index >= offsets.length){
+				if(!rowSet.hasNext())
+					return false;
+				load(rowSet.next());
+				continue;
+			}
+			long time = time();
+			if(time > end){
+				offsets = new long[0];
+				return false;
+			}
+			if(time >= start)
+				return true;
+		}
+	}
+
+	private void load(Row row) throws GSException {
+		windowStart = row.getTimestamp(0).getTime();
+		offsets = row.getLongArray(2);
+		for(int i = 0; i < values.length; i++){
+			if(integral[i]){
+				long[] longs = row.getLongArray(VALUE_COLUMN + i);
+				double[] doubles = new double[longs.length];
+				for(int n = 0; n < longs.length; n++)
+					doubles[n] = longs[n];
+				values[i] = doubles;
+			} else {
+				values[i] = row.getDoubleArray(VALUE_COLUMN + i);
+			}
+		}
+		// The current reading is the one before the first of the window until next() moves on
+		index = -1;
+	}
+
+	// Epoch millis of the current reading
+	long time(){
+		return windowStart + offsets[index];
+	}
+
+	// Value of the given column (0 for the first value column) of the current reading
+	double value(int column){
+		return values[column][index];
+	}
+
+	void close() throws GSException {
+		rowSet.close();
+		timeSeries.close();
+	}
+}
@@ -3,6 +3,7 @@ import java.util.Arrays;
 import java.util.Properties;
 
 import com.toshiba.mwcloud.gs.Collection;
+import com.toshiba.mwcloud.gs.FetchOption;
 import com.toshiba.mwcloud.gs.GSException;
 import com.toshiba.mwcloud.gs.GridStore;
 import com.toshiba.mwcloud.gs.GridStoreFactory;
@@ -14,6 +15,8 @@ import java.util.Date;
 
 public class SimpleDataViewer {
 
+	private static final int PAGE_ROWS = 10000; // Rows fetched per query
+
 	static class Sensor{
 		@RowKey Date time;
 		double light;
@@ -49,13 +52,23 @@ public class SimpleDataViewer {
 		Date start = new Date("2018/01/01");
 		Date end = new Date();
 
-		Query<Sensor> query = logTs.query(start, end);
-		// fetch row
-		RowSet<Sensor> rowSet = query.fetch();
-		while (rowSet.hasNext()) {
-			Sensor sensor= rowSet.next();
-			System.out.println(sensor);
-		}
+		// fetch rows a page at a time, each page starts just after the last timestamp of the previous one
+		Date from = start;
+		int pageRows;
+		do {
+			Query<Sensor> query = logTs.query(from, end);
+			query.setFetchOption(FetchOption.LIMIT, PAGE_ROWS);
+			RowSet<Sensor> rowSet = query.fetch(false);
+			pageRows = 0;
+			while (rowSet.hasNext()) {
+				Sensor sensor= rowSet.next();
+				System.out.println(sensor);
+				from = new Date(sensor.time.getTime() + 1);
+				pageRows++;
+			}
+			rowSet.close();
+			query.close();
+		} while (pageRows == PAGE_ROWS);
 
 		// Release the resource
 		store.close();
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowKey;
+
+import net.arnx.jsonic.JSON;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages GridDBSinkTask.put goes through for a single record: taking the payload out
+ * of the HashMap value, decoding it, finding the kind of sensor and building the GridDB row.
+ * The jsonic/contains variants are the decoding and classification the task did before
+ * SensorPayloadDecoder, kept for comparison, and decodeBinary reads the same messages in the binary encoding
+ * that SensorMessageSerializer produces from them.
+ * Every invocation handles the next record of a pre-generated batch, so all sensor kinds are exercised.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordStagesBenchmark {
+	private static final int RECORDS = 4096;
+
+	// Share of light/watts/volts sensors
+	@Param({"100/0/0", "60/25/15"})
+	public String mix;
+
+	private SinkRecord[] records;
+	private String[] payloads;
+	private byte[][] messages;
+	private String[] typeNames;
+	private final SensorPayloadDecoder decoder = new SensorPayloadDecoder();
+	private final SensorReading reading = new SensorReading();
+	private final SensorBinaryCodec binaryDecoder = new SensorBinaryCodec();
+	private SensorKind[] kinds;
+	private double[] firsts;
+	private double[] seconds;
+	private final StubGridStore stub = new StubGridStore();
+	// Rows are reused once written, the way GridDBWriter builds them
+	private final RowPool rows = new RowPool(stub.store, 1);
+	private final List<Row> written = new ArrayList<>(1);
+	private final PendingRow pending = new PendingRow();
+	private int next;
+
+	@Setup public void setup() {
+		List<SinkRecord> batch = SensorPayloads.records(mix, RECORDS, 1000, 42);
+		records = batch.toArray(new SinkRecord[RECORDS]);
+		payloads = new String[RECORDS];
+		messages = new byte[RECORDS][];
+		SensorMessageSerializer serializer = new SensorMessageSerializer();
+		typeNames = new String[RECORDS];
+		kinds = new SensorKind[RECORDS];
+		firsts = new double[RECORDS];
+		seconds = new double[RECORDS];
+		for (int i = 0; i < RECORDS; i++) {
+			payloads[i] = (String) ((HashMap) records[i].value()).get("payload");
+			messages[i] = serializer.serialize(SensorPayloads.TOPIC, payloads[i]);
+			decoder.decode(payloads[i], reading);
+			kinds[i] = reading.kind;
+			typeNames[i] = reading.kind.typeName;
+			firsts[i] = reading.value(reading.kind.firstField);
+			seconds[i] = reading.value(reading.kind.secondField);
+		}
+	}
+
+	private int nextIndex() {
+		int i = next;
+		next = (i + 1) & (RECORDS - 1);
+		return i;
+	}
+
+	@Benchmark public String extractPayload() {
+		SinkRecord record = records[nextIndex()];
+		if (record.value().getClass() != HashMap.class)
+			return null;
+		return (String) ((HashMap) record.value()).get("payload");
+	}
+
+	@Benchmark public Object decodeJsonic() {
+		String payload = payloads[nextIndex()];
+		GridDBSinkTask.SensorType sensorType = JSON.decode(payload, GridDBSinkTask.SensorType.class);
+		if (payload.contains("light"))
+			return JSON.decode(payload, LightSensor.class);
+		else if (payload.contains("watts"))
+			return JSON.decode(payload, WattSensor.class);
+		return sensorType.id == null ? null : JSON.decode(payload, ElectricitySensor.class);
+	}
+
+	@Benchmark public SensorReading decodeSinglePass() {
+		decoder.decode(payloads[nextIndex()], reading);
+		return reading;
+	}
+
+	@Benchmark public SensorReading decodeBinary() {
+		binaryDecoder.decode(messages[nextIndex()], reading);
+		return reading;
+	}
+
+	@Benchmark public int classifyContains() {
+		String payload = payloads[nextIndex()];
+		if (payload.contains("light"))
+			return 0;
+		else if (payload.contains("watts"))
+			return 1;
+		return 2;
+	}
+
+	@Benchmark public SensorKind classifyKind() {
+		return SensorKind.of(typeNames[nextIndex()]);
+	}
+
+	@Benchmark public Row buildRow() throws Exception {
+		int i = nextIndex();
+		SensorKind kind = kinds[i];
+		pending.timestamp = records[i].timestamp();
+		Row row = rows.take(kind.containerInfo);
+		row.setTimestamp(0, pending.time());
+		row.setDouble(1, firsts[i]);
+		row.setDouble(2, seconds[i]);
+		written.add(row);
+		rows.release(kind.containerInfo, written);
+		written.clear();
+		return row;
+	}
+
+	// The data-log schemas the task decoded payloads into with jsonic before SensorPayloadDecoder
+
+	// Measures light and sound
+	static class LightSensor{
+		@RowKey Date time;
+		double light;
+		double sound;
+		public void setTime(Date time){
+			this.time = time;
+		}
+		public void setLight(double light){
+			this.light = light;
+		}
+		public void setSound(double sound){
+			this.sound = sound;
+		}
+		public String toString() {
+			return "Timestamp: "+time +" Light: "+ light +" Sound: "+sound;
+		}
+	}
+	
+	// Measures power (watts) and heat
+	static class WattSensor {
+		@RowKey Date time;
+		double watts;
+		double heat;
+		public void setTime(Date time){
+			this.time = time;
+		}
+		public void setWatts(double watts){
+			this.watts = watts;
+		}
+		public void setHeat(double heat){
+			this.heat = heat;
+		}
+		public String toString() {
+			return "Timestamp: "+time +" Watts: "+watts + " Heat: " + heat;
+		}
+	}
+
+	// Measures volts and amps
+	static class ElectricitySensor {
+		@RowKey Date time;
+		double volts;
+		double amps;
+		public void setTime(Date time){
+			this.time = time;
+		}
+		public void setVolts(double volts){
+			this.volts = volts;
+		}
+		public void setAmps(double amps){
+			this.amps = amps;
+		}
+		public String toString(){
+			return "Timestamp: "+time +" Volts: " + volts + " Amps: " + amps;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SensorPayloads generates the records the MQTT source produces: a HashMap value whose "payload"
+ * entry is the sensor message as a JSON string, e.g. {"id":"...","type":"light","light":..,"sound":..}.
+ * With the struct format the same readings are Struct values with one schema per sensor kind, as a
+ * converter with schemas enabled produces them, and with the binary format they are byte[] values of
+ * SensorBinaryCodec, as SensorBinaryConverter hands them over.
+ * The mix names the share of light/watts/volts sensors, e.g. "60/25/15".
+ */
+final class SensorPayloads {
+	static final String TOPIC = "mqtt";
+	private static final long START_TIMESTAMP = 1500000000000L;
+
+	static final String JSON = "json";
+	static final String STRUCT = "struct";
+	static final String BINARY = "binary";
+
+	private final SensorKind[] sensorKinds;
+	private final Schema[] schemas = new Schema[SensorKind.values().length];
+	private final boolean structs;
+	private final boolean binary;
+	private final Random random;
+
+	SensorPayloads(String mix, int sensors, long seed) {
+		this(mix, sensors, seed, JSON);
+	}
+
+	SensorPayloads(String mix, int sensors, long seed, String format) {
+		String[] shares = mix.split("/");
+		int[] cumulative = new int[SensorKind.values().length];
+		int total = 0;
+		for (int k = 0; k < cumulative.length; k++) {
+			total += k < shares.length ? Integer.parseInt(shares[k].trim()) : 0;
+			cumulative[k] = total;
+		}
+		// The kind of a sensor is fixed by its id, as it is for real devices
+		Random kinds = new Random(seed);
+		sensorKinds = new SensorKind[sensors];
+		for (int s = 0; s < sensors; s++)
+			sensorKinds[s] = kindOf(kinds.nextInt(total), cumulative);
+		random = new Random(seed + 1);
+		structs = format.equals(STRUCT);
+		binary = format.equals(BINARY);
+		for (SensorKind kind : SensorKind.values()) {
+			schemas[kind.ordinal()] = SchemaBuilder.struct().name("sensor." + kind.typeName)
+				.field("id", Schema.STRING_SCHEMA).field("type", Schema.STRING_SCHEMA)
+				.field(SensorReading.FIELDS[kind.firstField], Schema.FLOAT64_SCHEMA)
+				.field(SensorReading.FIELDS[kind.secondField], Schema.FLOAT64_SCHEMA).build();
+		}
+	}
+
+	// Pre-generated batch of records with offsets 0 to count - 1
+	static List<SinkRecord> records(String mix, int count, int sensors, long seed) {
+		return records(mix, count, sensors, seed, JSON);
+	}
+
+	static List<SinkRecord> records(String mix, int count, int sensors, long seed, String format) {
+		SensorPayloads payloads = new SensorPayloads(mix, sensors, seed, format);
+		List<SinkRecord> records = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			records.add(payloads.next(0, i));
+		return records;
+	}
+
+	// Record of a random sensor, 10ms of event time after the previous offset
+	SinkRecord next(int partition, long offset) {
+		int sensor = random.nextInt(sensorKinds.length);
+		SensorKind kind = sensorKinds[sensor];
+		String id = "sensor-" + kind.typeName + "-" + sensor;
+		long timestamp = START_TIMESTAMP + offset * 10;
+		if (structs) {
+			Schema schema = schemas[kind.ordinal()];
+			double[] readings = readings(kind);
+			Struct value = new Struct(schema).put("id", id).put("type", kind.typeName)
+				.put(SensorReading.FIELDS[kind.firstField], readings[0])
+				.put(SensorReading.FIELDS[kind.secondField], readings[1]);
+			return new SinkRecord(TOPIC, partition, null, null, schema, value, offset, timestamp, null);
+		}
+		if (binary) {
+			double[] readings = readings(kind);
+			byte[] value = SensorBinaryCodec.encode(id, kind, SensorBinaryCodec.NO_TIMESTAMP, readings[0], readings[1]);
+			return new SinkRecord(TOPIC, partition, null, null, null, value, offset, timestamp, null);
+		}
+		HashMap<String, Object> value = new HashMap<>();
+		value.put("payload", payload(kind, id));
+		return new SinkRecord(TOPIC, partition, null, null, null, value, offset, timestamp, null);
+	}
+
+	private static SensorKind kindOf(int draw, int[] cumulative) {
+		for (int k = 0; k < cumulative.length; k++) {
+			if (draw < cumulative[k])
+				return SensorKind.values()[k];
+		}
+		return SensorKind.LIGHT;
+	}
+
+	private String payload(SensorKind kind, String id) {
+		double[] readings = readings(kind);
+		return "{\"id\":\"" + id + "\",\"type\":\"" + kind.typeName + "\",\""
+			+ SensorReading.FIELDS[kind.firstField] + "\":" + readings[0] + ",\""
+			+ SensorReading.FIELDS[kind.secondField] + "\":" + readings[1] + "}";
+	}
+
+	private double[] readings(SensorKind kind) {
+		double first;
+		double second;
+		switch (kind) {
+		case WATTS:
+			first = round(random.nextDouble() * 3000, 2);
+			second = round(20 + random.nextDouble() * 60, 1);
+			break;
+		case VOLTS:
+			first = round(220 + random.nextGaussian() * 5, 2);
+			second = round(random.nextDouble() * 16, 3);
+			break;
+		default:
+			first = round(random.nextDouble() * 1000, 1);
+			second = round(30 + random.nextDouble() * 70, 1);
+		}
+		return new double[] { first, second };
+	}
+
+	private static double round(double value, int digits) {
+		double scale = Math.pow(10, digits);
+		return Math.round(value * scale) / scale;
+	}
+}
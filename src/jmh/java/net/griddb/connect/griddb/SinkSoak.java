@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SinkSoak drives a GridDBSinkTask with synthetic records against an InMemoryGridStore for a long run,
+ * and reports the sustained throughput, put() and flush() latency percentiles and heap usage.
+ *
+ * Settings are given as key=value arguments (gradle soak -Psoak.args="records=10000000 sensors=100000"):
+ *   records, sensors, mix (light/watts/volts shares), format (json, struct or binary), batch (records per put), flush.every (records between flushes),
+ *   latency.us and jitter.us (per GridDB round trip), failure.rate, retain (keep TimeSeries rows),
+ *   outage.at and outage.ms (the store is unavailable for outage.ms once outage.at records have been put),
+ *   spill.dir (rows the writers cannot take are spilled into a journal there instead of blocking put()),
+ *   backpressure.pause.ratio and backpressure.latency.ms (the task pauses its partition while the writers are behind),
+ *   report.seconds, and any connector setting such as writer.count or batch.max.rows.
+ */
+public class SinkSoak {
+	private static final double MICROS = 1000.0;
+	private static final double MB = 1024.0 * 1024.0;
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> settings = new HashMap<>();
+		settings.put("records", "5000000");
+		settings.put("sensors", "10000");
+		settings.put("mix", "60/25/15");
+		settings.put("format", SensorPayloads.JSON);
+		settings.put("batch", "500");
+		settings.put("flush.every", "100000");
+		settings.put("latency.us", "200");
+		settings.put("jitter.us", "100");
+		settings.put("failure.rate", "0");
+		settings.put("retain", "false");
+		settings.put("outage.at", "-1");
+		settings.put("outage.ms", "0");
+		settings.put("report.seconds", "5");
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq <= 0)
+				throw new IllegalArgumentException("Expected key=value, got " + arg);
+			settings.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+
+		long records = Long.parseLong(settings.get("records"));
+		int batchSize = Integer.parseInt(settings.get("batch"));
+		long flushEvery = Long.parseLong(settings.get("flush.every"));
+		long reportNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(settings.get("report.seconds")));
+		long outageAt = Long.parseLong(settings.get("outage.at"));
+		long outageMs = Long.parseLong(settings.get("outage.ms"));
+
+		InMemoryGridStore store = new InMemoryGridStore()
+			.setLatency(Long.parseLong(settings.get("latency.us")), Long.parseLong(settings.get("jitter.us")),
+				TimeUnit.MICROSECONDS)
+			.setFailureRate(Double.parseDouble(settings.get("failure.rate")))
+			.setRetainTimeSeriesRows(Boolean.parseBoolean(settings.get("retain")));
+		SensorPayloads payloads = new SensorPayloads(settings.get("mix"), Integer.parseInt(settings.get("sensors")), 42,
+			settings.get("format"));
+
+		Map<String, String> props = new HashMap<>();
+		props.put(GridDBSinkConnector.HOST_CONFIG, "239.0.0.1");
+		props.put(GridDBSinkConnector.PORT_CONFIG, "31999");
+		props.put(GridDBSinkConnector.CLUSTERNAME_CONFIG, "soak");
+		props.put(GridDBSinkConnector.USER_CONFIG, "admin");
+		props.put(GridDBSinkConnector.PASSWORD_CONFIG, "admin");
+		props.put(GridDBSinkConnector.NAME_CONFIG, "soak");
+		for (String name : GridDBSinkConnector.CONFIG_DEF.names()) {
+			if (settings.containsKey(name))
+				props.put(name, settings.get(name));
+		}
+		System.out.println("Soak settings " + settings);
+
+		GridDBSinkTask task = new GridDBSinkTask(store.provider());
+		SoakContext context = new SoakContext();
+		task.initialize(context);
+		task.start(props);
+		task.open(context.assignment());
+
+		Histogram putLatency = new Histogram();
+		Histogram flushLatency = new Histogram();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		Map<TopicPartition, OffsetAndMetadata> offsets = Collections.emptyMap();
+		List<SinkRecord> batch = new ArrayList<>(batchSize);
+		long maxHeap = 0;
+		long flushFailures = 0;
+		long putRetries = 0;
+		long pausedPuts = 0;
+
+		long start = System.nanoTime();
+		long lastReport = start;
+		long lastReportOffset = 0;
+		long sinceFlush = 0;
+		for (long offset = 0; offset < records; ) {
+			// Like the Connect framework, fetch no records while the task has paused its partition but keep calling put()
+			while (!context.paused.isEmpty()) {
+				task.put(Collections.<SinkRecord>emptyList());
+				pausedPuts++;
+				Thread.sleep(1);
+			}
+			batch.clear();
+			for (int i = 0; i < batchSize && offset < records; i++)
+				batch.add(payloads.next(0, offset++));
+
+			if (outageAt >= 0 && offset >= outageAt) {
+				outageAt = -1;
+				outage(store, outageMs);
+			}
+
+			long putStart = System.nanoTime();
+			// Like the Connect framework, wait and deliver the same records again when the task asks for it
+			while (true) {
+				try {
+					task.put(batch);
+					break;
+				} catch (RetriableException ex) {
+					putRetries++;
+					Thread.sleep(context.timeoutMs);
+				}
+			}
+			long now = System.nanoTime();
+			putLatency.record(now - putStart);
+
+			sinceFlush += batch.size();
+			if (sinceFlush >= flushEvery || offset == records) {
+				sinceFlush = 0;
+				if (!flush(task, offsets, flushLatency, offset == records))
+					flushFailures++;
+				now = System.nanoTime();
+			}
+
+			if (now - lastReport >= reportNanos) {
+				long heap = memory.getHeapMemoryUsage().getUsed();
+				maxHeap = Math.max(maxHeap, heap);
+				SinkTaskMetrics metrics = task.metrics();
+				System.out.printf("%,d records  %,.0f records/s  put(us) p50=%.0f p99=%.0f p999=%.0f  heap=%.0fMB"
+					+ "  batch rows=%.0f linger=%.1fms  spill=%,d%n",
+					offset, (offset - lastReportOffset) * 1e9 / (now - lastReport),
+					putLatency.percentile(0.5) / MICROS, putLatency.percentile(0.99) / MICROS,
+					putLatency.percentile(0.999) / MICROS, heap / MB, metrics.getBatchRowLimit(),
+					metrics.getBatchLingerMs(), metrics.getSpillDepth());
+				lastReport = now;
+				lastReportOffset = offset;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		task.stop();
+
+		maxHeap = Math.max(maxHeap, memory.getHeapMemoryUsage().getUsed());
+		System.gc();
+		long liveHeap = memory.getHeapMemoryUsage().getUsed();
+		System.out.println();
+		System.out.printf("records=%,d in %.1fs: %,.0f records/s sustained%n", records, elapsed / 1e9,
+			records * 1e9 / elapsed);
+		System.out.println("put(us)   " + putLatency.snapshot(MICROS) + " retried=" + putRetries + " pauses="
+			+ task.metrics().getBackpressurePauses() + " paused(ms)=" + task.metrics().getBackpressurePausedMs()
+			+ " paused puts=" + pausedPuts);
+		System.out.println("flush(us) " + flushLatency.snapshot(MICROS) + " failed=" + flushFailures + " spilled="
+			+ task.metrics().getRecordsSpilled());
+		System.out.println("write(us) " + task.metrics().getWriteLatency() + " batch limit decreases="
+			+ task.metrics().getBatchLimitDecreases());
+		System.out.printf("heap max=%.0fMB live after stop=%.0fMB%n", maxHeap / MB, liveHeap / MB);
+		System.out.println(store);
+	}
+
+	// The part of the Connect framework's context the task uses: the retry timeout and pausing its partition
+	private static final class SoakContext implements SinkTaskContext {
+		final Set<TopicPartition> assignment = Collections.singleton(new TopicPartition(SensorPayloads.TOPIC, 0));
+		final Set<TopicPartition> paused = new HashSet<>();
+		long timeoutMs = 10;
+
+		@Override public void offset(Map<TopicPartition, Long> offsets) {
+		}
+
+		@Override public void offset(TopicPartition partition, long offset) {
+		}
+
+		@Override public void timeout(long timeoutMs) {
+			this.timeoutMs = timeoutMs;
+		}
+
+		@Override public Set<TopicPartition> assignment() {
+			return assignment;
+		}
+
+		@Override public void pause(TopicPartition... partitions) {
+			paused.addAll(Arrays.asList(partitions));
+		}
+
+		@Override public void resume(TopicPartition... partitions) {
+			paused.removeAll(Arrays.asList(partitions));
+		}
+
+		@Override public void requestCommit() {
+		}
+	}
+
+	// Take the store down for the given time in the background
+	private static void outage(InMemoryGridStore store, long millis) {
+		System.out.println("Store unavailable for " + millis + " ms");
+		store.setUnavailable(true);
+		Thread restore = new Thread(() -> {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			store.setUnavailable(false);
+			System.out.println("Store available again");
+		});
+		restore.setDaemon(true);
+		restore.start();
+	}
+
+	// Commit like the Connect framework does, a failed commit would make it redeliver the records.
+	// The last one flushes, so that every record has been written when the throughput is taken.
+	private static boolean flush(GridDBSinkTask task, Map<TopicPartition, OffsetAndMetadata> offsets,
+			Histogram flushLatency, boolean last) {
+		long flushStart = System.nanoTime();
+		try {
+			if (last)
+				task.flush(offsets);
+			else
+				task.preCommit(offsets);
+			return true;
+		} catch (ConnectException ex) {
+			System.out.println("Flush failed: " + ex.getCause());
+			return false;
+		} finally {
+			flushLatency.record(System.nanoTime() - flushStart);
+		}
+	}
+}
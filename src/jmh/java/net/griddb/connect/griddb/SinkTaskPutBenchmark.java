@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks whole put() calls of both sink tasks against a StubGridStore, reported per record.
+ * GridDBSinkTask is flushed after every batch, so a result includes the background writers
+ * building and writing the rows, not only the hand-off into their buffers.
+ * The gc profiler counts the allocations of every thread, so gc.alloc.rate.norm is what the task
+ * and its writers allocate per record. For GridDBSinkTask it should stay near zero; what is left is
+ * per container of a batch (the multiPut map entry) rather than per record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SinkTaskPutBenchmark {
+	private static final int BATCH = 500;
+
+	@State(Scope.Thread)
+	public static class Records {
+		// Share of light/watts/volts sensors
+		@Param({"100/0/0", "60/25/15"})
+		public String mix;
+
+		// JSON payload strings, Struct values or binary messages
+		@Param({SensorPayloads.JSON, SensorPayloads.STRUCT, SensorPayloads.BINARY})
+		public String format;
+
+		List<SinkRecord> batch;
+
+		@Setup public void setup() {
+			batch = SensorPayloads.records(mix, BATCH, 1000, 42, format);
+		}
+	}
+
+	// SimpleGridDBSinkTask only understands JSON payloads
+	@State(Scope.Thread)
+	public static class JsonRecords {
+		@Param({"100/0/0", "60/25/15"})
+		public String mix;
+
+		List<SinkRecord> batch;
+
+		@Setup public void setup() {
+			batch = SensorPayloads.records(mix, BATCH, 1000, 42);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Task {
+		@Param({"1", "4"})
+		public int writers;
+
+		GridDBSinkTask task;
+
+		@Setup public void setup() {
+			Map<String, String> props = taskProps();
+			props.put(GridDBSinkConnector.WRITER_COUNT_CONFIG, Integer.toString(writers));
+			// Every batch is flushed, so lingering for more rows would only measure batch.linger.ms
+			props.put(GridDBSinkConnector.BATCH_LINGER_MS_CONFIG, "0");
+			task = new GridDBSinkTask(new StubGridStore().provider());
+			task.start(props);
+		}
+
+		@TearDown public void tearDown() {
+			task.stop();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class SimpleTask {
+		SimpleGridDBSinkTask task;
+
+		@Setup public void setup() {
+			task = new SimpleGridDBSinkTask(new StubGridStore().provider());
+			task.start(taskProps());
+		}
+
+		@TearDown public void tearDown() {
+			task.stop();
+		}
+	}
+
+	static Map<String, String> taskProps() {
+		Map<String, String> props = new HashMap<>();
+		props.put(GridDBSinkConnector.HOST_CONFIG, "239.0.0.1");
+		props.put(GridDBSinkConnector.PORT_CONFIG, "31999");
+		props.put(GridDBSinkConnector.CLUSTERNAME_CONFIG, "benchmark");
+		props.put(GridDBSinkConnector.USER_CONFIG, "admin");
+		props.put(GridDBSinkConnector.PASSWORD_CONFIG, "admin");
+		props.put(GridDBSinkConnector.NAME_CONFIG, "benchmark");
+		return props;
+	}
+
+	@Benchmark @OperationsPerInvocation(BATCH) public void gridDBSinkTask(Records records, Task task) {
+		task.task.put(records.batch);
+		task.task.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+	}
+
+	@Benchmark @OperationsPerInvocation(BATCH) public void simpleGridDBSinkTask(JsonRecords records, SimpleTask task) {
+		task.task.put(records.batch);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.griddb.connect.griddb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backpressure decides when a task pauses its partitions because the writers fall behind, so that Connect
+ * stops fetching records instead of put() blocking on full write-behind buffers, and when it resumes them.
+ * The task is paused when the rows waiting in the buffers and the spill journal reach pauseRows, or the
+ * smoothed write latency of a writer reaches pauseLatencyMs. It is resumed once the rows are down to resumeRows
+ * and the latency is under half of pauseLatencyMs; the gap between the thresholds keeps it from pausing and
+ * resuming on every put(). A threshold of 0 is not checked.
+ * Updated by the task thread only, the state can be read from any thread.
+ */
+class Backpressure {
+	private final int pauseRows;
+	private final int resumeRows;
+	private final long pauseLatencyNanos;
+
+	private volatile boolean paused;
+	private volatile long pauses;
+	private volatile long pausedNanos;
+	private long pausedSince;
+	// Latency when the task was last resumed without rows waiting, it is only measured again once rows are written
+	private long staleLatencyNanos = -1;
+
+	Backpressure(int pauseRows, int resumeRows, long pauseLatencyMs) {
+		this.pauseRows = pauseRows;
+		this.resumeRows = Math.min(resumeRows, pauseRows);
+		this.pauseLatencyNanos = TimeUnit.MILLISECONDS.toNanos(pauseLatencyMs);
+	}
+
+	boolean isEnabled() {
+		return pauseRows > 0 || pauseLatencyNanos > 0;
+	}
+
+	boolean isPaused() {
+		return paused;
+	}
+
+	long pauses() {
+		return pauses;
+	}
+
+	// Time spent paused so far, including the current pause
+	long pausedMillis() {
+		long nanos = pausedNanos;
+		if (paused)
+			nanos += System.nanoTime() - pausedSince;
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	// Update the state from the rows waiting to be written and the write latency, returns whether it changed
+	boolean update(int waitingRows, long latencyNanos) {
+		if (!paused) {
+			boolean rows = pauseRows > 0 && waitingRows >= pauseRows;
+			boolean slow = pauseLatencyNanos > 0 && latencyNanos >= pauseLatencyNanos
+				&& latencyNanos != staleLatencyNanos;
+			if (!rows && !slow)
+				return false;
+			paused = true;
+			pauses++;
+			pausedSince = System.nanoTime();
+			return true;
+		}
+		if (pauseRows > 0 && waitingRows > resumeRows)
+			return false;
+		// Without rows waiting nothing is written that could bring the latency down, so it is tried again
+		if (pauseLatencyNanos > 0 && latencyNanos >= pauseLatencyNanos / 2 && waitingRows > 0)
+			return false;
+		staleLatencyNanos = waitingRows == 0 ? latencyNanos : -1;
+		paused = false;
+		pausedNanos += System.nanoTime() - pausedSince;
+		return true;
+	}
+
+	@Override public String toString() {
+		return (paused ? "paused" : "running") + " pauses=" + pauses + " paused(ms)=" + pausedMillis();
+	}
+}
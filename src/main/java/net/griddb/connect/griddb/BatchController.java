@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BatchController picks the row limit and linger time of a GridDBWriter's batches from the observed
+ * multiPut latency, additive-increase/multiplicative-decrease style:
+ * while the smoothed latency stays under the target, batches that filled up get more rows and batches
+ * that were cut short by the linger time get a longer linger; a batch over the target, or a failed one,
+ * halves both. The row limit stays within [minRows, maxRows] and the linger time within [0, maxLingerMs].
+ * With a target of 0 the configured maximums are used unchanged.
+ * Updated by the writer thread only, the current limits can be read from any thread.
+ */
+class BatchController {
+	// Weight of the latest batch in the smoothed latency
+	private static final double ALPHA = 0.25;
+	// Rows added per increase, as a share of the range between minRows and maxRows
+	private static final int ROW_STEPS = 20;
+
+	private final int minRows;
+	private final int maxRows;
+	private final long maxLingerMs;
+	private final long targetNanos;
+	private final int rowStep;
+
+	private volatile int rowLimit;
+	private volatile long lingerMs;
+	// Smoothed multiPut latency, negative until the first batch after a decrease
+	private double latencyNanos = -1;
+	// Smoothed multiPut latency of all batches, also kept when adaptive batching is off (see Backpressure)
+	private volatile long recentNanos;
+	private volatile long decreases;
+	// Set by a failed batch until a batch is written again, a run of failures only halves the limits once
+	private boolean failing;
+
+	BatchController(int minRows, int maxRows, long maxLingerMs, long targetMs) {
+		this.minRows = Math.min(minRows, maxRows);
+		this.maxRows = maxRows;
+		this.maxLingerMs = maxLingerMs;
+		this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+		this.rowStep = Math.max(1, (maxRows - this.minRows) / ROW_STEPS);
+		// Start from the configured batch settings and back off from there
+		this.rowLimit = maxRows;
+		this.lingerMs = maxLingerMs;
+	}
+
+	boolean isAdaptive() {
+		return targetNanos > 0;
+	}
+
+	int rowLimit() {
+		return rowLimit;
+	}
+
+	long lingerMs() {
+		return lingerMs;
+	}
+
+	long decreases() {
+		return decreases;
+	}
+
+	long recentLatencyNanos() {
+		return recentNanos;
+	}
+
+	// A batch was written in the given time, full when it reached the row limit
+	void written(long nanos, boolean full) {
+		recentNanos = recentNanos == 0 ? nanos : recentNanos + (long) (ALPHA * (nanos - recentNanos));
+		if (!isAdaptive())
+			return;
+		failing = false;
+		latencyNanos = latencyNanos < 0 ? nanos : latencyNanos + ALPHA * (nanos - latencyNanos);
+		if (latencyNanos > targetNanos) {
+			decrease();
+		} else if (full) {
+			rowLimit = Math.min(maxRows, rowLimit + rowStep);
+		} else if (lingerMs < maxLingerMs && latencyNanos + TimeUnit.MILLISECONDS.toNanos(lingerMs + 1) <= targetNanos) {
+			// Rows wait up to the linger time before they are written, so it counts towards the target as well
+			lingerMs++;
+		}
+	}
+
+	// A batch failed to be written, GridDB may be overloaded
+	void failed() {
+		if (isAdaptive() && !failing)
+			decrease();
+		failing = true;
+	}
+
+	private void decrease() {
+		rowLimit = Math.max(minRows, rowLimit / 2);
+		lingerMs = lingerMs / 2;
+		// The latency of the smaller batches is measured afresh, so one slow batch does not halve them again
+		latencyNanos = -1;
+		decreases++;
+	}
+
+	@Override public String toString() {
+		return "rows=" + rowLimit + " linger(ms)=" + lingerMs;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ConsistentHashRing maps keys (sensor-ids) to one of a list of nodes (GridDB clusters).
+ * Every node is placed on the ring at many points, so keys are spread evenly and adding or
+ * removing a node only moves the keys of the ring segments it takes over or gives back.
+ * Nodes are identified by name, so the mapping does not depend on the order they are listed in.
+ */
+class ConsistentHashRing {
+	static final int VIRTUAL_NODES = 160;
+
+	private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+	ConsistentHashRing(List<String> nodes) {
+		for (int node = 0; node < nodes.size(); node++) {
+			for (int i = 0; i < VIRTUAL_NODES; i++)
+				ring.put(hash(nodes.get(node) + "#" + i), node);
+		}
+	}
+
+	// Index (in the list given to the constructor) of the node that owns the key
+	int nodeFor(String key) {
+		if (ring.size() == 0)
+			throw new IllegalStateException("No nodes in the hash ring");
+		Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(key));
+		if (entry == null)
+			entry = ring.firstEntry();
+		return entry.getValue();
+	}
+
+	// 64-bit FNV-1a followed by a finalizer mix, so similar ids land far apart
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.toshiba.mwcloud.gs.Collection;
+import com.toshiba.mwcloud.gs.Container;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.TimeSeries;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ContainerCache keeps the Container and TimeSeries handles opened through a GridStore so that
+ * the schema-check round trip of putTimeSeries/putCollection is only paid once per container.
+ * The cache is bounded in size and closes handles that are evicted or left idle for too long.
+ * It is not thread-safe, it is meant to be owned by the thread that owns the GridStore.
+ */
+class ContainerCache {
+	private static final Logger log = LoggerFactory.getLogger(ContainerCache.class);
+
+	// Handles are keyed by the container name and the schema they were opened with, either a row class
+	// or a ContainerInfo (compared by identity, the callers keep one ContainerInfo per schema)
+	static final class Key {
+		String name;
+		Object schema;
+
+		Key(String name, Object schema) {
+			this.name = name;
+			this.schema = schema;
+		}
+
+		Key set(String name, Object schema) {
+			this.name = name;
+			this.schema = schema;
+			return this;
+		}
+
+		@Override public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return name.equals(other.name) && schema == other.schema;
+		}
+
+		@Override public int hashCode() {
+			return name.hashCode() * 31 + System.identityHashCode(schema);
+		}
+	}
+
+	private static final class Entry {
+		final Container<?, ?> container;
+		long lastAccess;
+
+		Entry(Container<?, ?> container, long lastAccess) {
+			this.container = container;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private GridStore store;
+	private final int maxSize;
+	private final long maxIdleMs;
+	// Access-ordered so that the eldest entry is always the least recently used one
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// Reused for lookups so that a cache hit does not allocate, entries get a Key of their own
+	private final Key probe = new Key(null, null);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	ContainerCache(GridStore store, int maxSize, long maxIdleMs) {
+		this.store = store;
+		this.maxSize = maxSize;
+		this.maxIdleMs = maxIdleMs;
+	}
+
+	// Get (or create) the TimeSeries with the given name and row class
+	@SuppressWarnings("unchecked")
+	<R> TimeSeries<R> timeSeries(String name, Class<R> rowClass) throws GSException {
+		Entry entry = lookup(probe.set(name, rowClass));
+		if (entry == null) {
+			entry = insert(new Key(name, rowClass), store.putTimeSeries(name, rowClass));
+		}
+		return (TimeSeries<R>) entry.container;
+	}
+
+	// Get (or create) the TimeSeries with the given name and column layout, written with generic Rows
+	TimeSeries<Row> timeSeries(String name, ContainerInfo info) throws GSException {
+		Entry entry = lookup(probe.set(name, info));
+		if (entry == null) {
+			entry = insert(new Key(name, info), store.putTimeSeries(name, info, false));
+		}
+		@SuppressWarnings("unchecked")
+		TimeSeries<Row> timeSeries = (TimeSeries<Row>) entry.container;
+		return timeSeries;
+	}
+
+	// Get (or create) the Collection with the given name and row class
+	@SuppressWarnings("unchecked")
+	<K, R> Collection<K, R> collection(String name, Class<R> rowClass) throws GSException {
+		Entry entry = lookup(probe.set(name, rowClass));
+		if (entry == null) {
+			entry = insert(new Key(name, rowClass), store.<K, R>putCollection(name, rowClass));
+		}
+		return (Collection<K, R>) entry.container;
+	}
+
+	// Get (or create) the Collection with the given name and column layout, written with generic Rows
+	Collection<Object, Row> collection(String name, ContainerInfo info) throws GSException {
+		Entry entry = lookup(probe.set(name, info));
+		if (entry == null) {
+			entry = insert(new Key(name, info), store.putCollection(name, info, false));
+		}
+		@SuppressWarnings("unchecked")
+		Collection<Object, Row> collection = (Collection<Object, Row>) entry.container;
+		return collection;
+	}
+
+	// Drop a handle that can no longer be trusted (e.g. after a failed write)
+	void invalidate(String name, Object schema) {
+		Entry entry = entries.remove(probe.set(name, schema));
+		if (entry != null)
+			closeQuietly(entry.container);
+	}
+
+	private Entry lookup(Key key) {
+		long now = System.currentTimeMillis();
+		evictIdle(now);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		entry.lastAccess = now;
+		return entry;
+	}
+
+	private Entry insert(Key key, Container<?, ?> container) {
+		Entry entry = new Entry(container, System.currentTimeMillis());
+		entries.put(key, entry);
+		// Keep the cache bounded by closing the least recently used handles
+		Iterator<Entry> it = entries.values().iterator();
+		while (entries.size() > maxSize && it.hasNext()) {
+			Entry eldest = it.next();
+			it.remove();
+			evict(eldest);
+		}
+		return entry;
+	}
+
+	// The eldest entries are the least recently used, so stop at the first one that is still fresh
+	private void evictIdle(long now) {
+		if (maxIdleMs <= 0)
+			return;
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry eldest = it.next().getValue();
+			if (now - eldest.lastAccess < maxIdleMs)
+				break;
+			it.remove();
+			evict(eldest);
+		}
+	}
+
+	private void evict(Entry entry) {
+		evictions.incrementAndGet();
+		closeQuietly(entry.container);
+	}
+
+	private static void closeQuietly(Container<?, ?> container) {
+		try {
+			container.close();
+		} catch (GSException ex) {
+			log.debug("Failed to close container handle", ex);
+		}
+	}
+
+	// Close every cached handle
+	void clear() {
+		for (Entry entry : entries.values())
+			closeQuietly(entry.container);
+		entries.clear();
+	}
+
+	// Drop every cached handle and open containers through the given GridStore from now on (e.g. after a reconnect)
+	void reset(GridStore store) {
+		clear();
+		this.store = store;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	long hits() {
+		return hits.get();
+	}
+
+	long misses() {
+		return misses.get();
+	}
+
+	long evictions() {
+		return evictions.get();
+	}
+
+	@Override public String toString() {
+		return "ContainerCache(size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+			+ ", evictions=" + evictions + ")";
+	}
+}
@@ -59,14 +59,107 @@ public class GridDBSinkConnector extends SinkConnector {
     public static final String CLUSTERNAME_CONFIG = "clusterName";
     public static final String USER_CONFIG = "user";
     public static final String PASSWORD_CONFIG = "password";
-    private static final ConfigDef CONFIG_DEF = new ConfigDef()
-    .define(HOST_CONFIG, Type.STRING, Importance.HIGH, "GridDB Host") 
-    .define(PORT_CONFIG, Type.STRING, Importance.HIGH, "GridDB Port")
-    .define(CLUSTERNAME_CONFIG, Type.STRING, Importance.HIGH, "GridDB clusterName")
+
+    // Batching configurations: each put() call groups rows by container and writes them with one multiPut,
+    // a batch is sent early once it reaches either of these limits
+    public static final String BATCH_MAX_ROWS_CONFIG = "batch.max.rows";
+    public static final String BATCH_MAX_BYTES_CONFIG = "batch.max.bytes";
+    // Write-behind buffer: put() hands rows to a background writer through a buffer of this many rows,
+    // the writer waits up to the linger time for a batch to fill up, flush() up to flush.timeout.ms for the writers
+    public static final String BUFFER_MAX_ROWS_CONFIG = "buffer.max.rows";
+    public static final String BATCH_LINGER_MS_CONFIG = "batch.linger.ms";
+    public static final String FLUSH_TIMEOUT_MS_CONFIG = "flush.timeout.ms";
+    // Adaptive batching: with a latency target every writer adjusts its batch row limit (between batch.min.rows and
+    // batch.max.rows) and linger time (up to batch.linger.ms) to the multiPut latency it observes, 0 keeps them fixed
+    public static final String BATCH_LATENCY_TARGET_MS_CONFIG = "batch.latency.target.ms";
+    public static final String BATCH_MIN_ROWS_CONFIG = "batch.min.rows";
+    // Rows of a container are written in timestamp order; rows of one batch that share a timestamp are merged,
+    // keeping the last one or averaging their numeric columns
+    public static final String BATCH_DUPLICATE_POLICY_CONFIG = "batch.duplicate.policy";
+    // Number of writers per task, each with its own GridDB connection; rows are routed to them by sensor-id
+    public static final String WRITER_COUNT_CONFIG = "writer.count";
+    // Per-record debug logging is off by default, set to n to log every n-th record at debug level
+    public static final String LOG_SAMPLE_INTERVAL_CONFIG = "log.sample.interval";
+    // Set by the connector in each task configuration, they name the task's metrics MBean
+    static final String NAME_CONFIG = "name";
+    static final String TASK_ID_CONFIG = "task.id";
+    // Container handle cache: bounds the number of open Container/TimeSeries handles kept by a task
+    public static final String CONTAINER_CACHE_SIZE_CONFIG = "container.cache.size";
+    public static final String CONTAINER_CACHE_IDLE_MS_CONFIG = "container.cache.idle.ms";
+    // Several GridDB clusters can be listed as host:port/clusterName instead of the single host, port and clusterName.
+    // Sensor-ids are spread over them with consistent hashing, so adding a cluster only moves a small share of them
+    public static final String CLUSTERS_CONFIG = "clusters";
+    // Struct values (e.g. from a converter with schemas enabled) are written column by column: the id field names
+    // the container, the type field goes to Sensor_Types and the timestamp field, if set, is the RowKey
+    public static final String STRUCT_ID_FIELD_CONFIG = "struct.id.field";
+    public static final String STRUCT_TYPE_FIELD_CONFIG = "struct.type.field";
+    public static final String STRUCT_TIMESTAMP_FIELD_CONFIG = "struct.timestamp.field";
+    // Rollups: per-bucket count, sum, sum of squares, min and max of every numeric column, kept by the sink in
+    // companion TimeSeries named <container>_<interval> (e.g. sensor-1_1m) so dashboards do not scan raw rows
+    public static final String ROLLUP_INTERVALS_CONFIG = "rollup.intervals";
+    // Packing: the readings of every sensor are written as one row per window of pack.window.ms into a companion
+    // TimeSeries named <container>_packed, with the offsets and values of the readings in array columns
+    // A window row is written once the window has closed or its readings have waited pack.linger.ms
+    public static final String PACK_WINDOW_MS_CONFIG = "pack.window.ms";
+    public static final String PACK_LINGER_MS_CONFIG = "pack.linger.ms";
+    // Offset tracking: every writer stores the offset per topic-partition up to which it has written its rows in the
+    // Sink_Offsets collection, so records delivered again after a restart or rebalance are skipped instead of rewritten
+    public static final String OFFSET_TRACKING_CONFIG = "offset.tracking";
+    // Connection handling: a failed multiPut is retried write.retries times, lost connections are reopened, and
+    // connection attempts back off exponentially with jitter from retry.backoff.ms up to retry.backoff.max.ms
+    public static final String WRITE_RETRIES_CONFIG = "write.retries";
+    public static final String RETRY_BACKOFF_MS_CONFIG = "retry.backoff.ms";
+    public static final String RETRY_BACKOFF_MAX_MS_CONFIG = "retry.backoff.max.ms";
+    // Spill journal: rows the writers cannot take yet are appended to memory-mapped segment files under spill.dir
+    // instead of blocking put(), and handed to the writers in order once they catch up
+    public static final String SPILL_DIR_CONFIG = "spill.dir";
+    public static final String SPILL_SEGMENT_BYTES_CONFIG = "spill.segment.bytes";
+    public static final String SPILL_MAX_BYTES_CONFIG = "spill.max.bytes";
+    public static final String SPILL_DRAIN_TIMEOUT_MS_CONFIG = "spill.drain.timeout.ms";
+    // Backpressure: the task pauses its partitions while the rows waiting to be written or the write latency
+    // cross the pause thresholds, and resumes them once both are back under the resume thresholds
+    public static final String BACKPRESSURE_PAUSE_RATIO_CONFIG = "backpressure.pause.ratio";
+    public static final String BACKPRESSURE_RESUME_RATIO_CONFIG = "backpressure.resume.ratio";
+    public static final String BACKPRESSURE_LATENCY_MS_CONFIG = "backpressure.latency.ms";
+    static final ConfigDef CONFIG_DEF = new ConfigDef()
+    .define(HOST_CONFIG, Type.STRING, null, Importance.HIGH, "GridDB Host") 
+    .define(PORT_CONFIG, Type.STRING, null, Importance.HIGH, "GridDB Port")
+    .define(CLUSTERNAME_CONFIG, Type.STRING, null, Importance.HIGH, "GridDB clusterName")
+    .define(CLUSTERS_CONFIG, Type.LIST, "", Importance.HIGH, "GridDB clusters as a list of host:port/clusterName, replaces host, port and clusterName")
     .define(USER_CONFIG, Type.STRING, Importance.HIGH, "GridDB Username")
-    .define(PASSWORD_CONFIG, Type.STRING, Importance.HIGH, "GridDB Password");
+    .define(PASSWORD_CONFIG, Type.STRING, Importance.HIGH, "GridDB Password")
+    .define(BATCH_MAX_ROWS_CONFIG, Type.INT, 1000, ConfigDef.Range.atLeast(1), Importance.MEDIUM, "Maximum number of rows written to GridDB in one multiPut")
+    .define(BATCH_MAX_BYTES_CONFIG, Type.LONG, 1048576L, ConfigDef.Range.atLeast(1), Importance.MEDIUM, "Maximum estimated size in bytes of the rows written to GridDB in one multiPut")
+    .define(BUFFER_MAX_ROWS_CONFIG, Type.INT, 10000, ConfigDef.Range.atLeast(1), Importance.MEDIUM, "Maximum number of rows waiting to be written to GridDB (shared by the writers of a task), put() blocks when it is full")
+    .define(BATCH_LINGER_MS_CONFIG, Type.LONG, 10L, ConfigDef.Range.atLeast(0), Importance.LOW, "Time the writer waits for more rows before writing a batch that is not full")
+    .define(FLUSH_TIMEOUT_MS_CONFIG, Type.LONG, 60000L, ConfigDef.Range.atLeast(1), Importance.LOW, "Longest time flush() waits for the writers to write the rows handed to them, the records are then delivered again")
+    .define(BATCH_LATENCY_TARGET_MS_CONFIG, Type.LONG, 0L, ConfigDef.Range.atLeast(0), Importance.LOW, "Target latency of a GridDB write, the writers shrink their batches when it is exceeded and grow them while it is met, 0 disables adaptive batching")
+    .define(BATCH_MIN_ROWS_CONFIG, Type.INT, 100, ConfigDef.Range.atLeast(1), Importance.LOW, "Smallest row limit adaptive batching shrinks a batch to")
+    .define(BATCH_DUPLICATE_POLICY_CONFIG, Type.STRING, RowCoalescer.LAST, ConfigDef.ValidString.in(RowCoalescer.LAST, RowCoalescer.AVERAGE), Importance.LOW, "How rows of a batch with the same container and timestamp are merged: 'last' keeps the last record, 'average' averages the numeric columns")
+    .define(WRITE_RETRIES_CONFIG, Type.INT, 3, ConfigDef.Range.atLeast(0), Importance.LOW, "Number of times a failed GridDB write is retried before the records are delivered again by Connect")
+    .define(RETRY_BACKOFF_MS_CONFIG, Type.LONG, 100L, ConfigDef.Range.atLeast(1), Importance.LOW, "Initial time to wait before retrying a GridDB write or connection, doubled per attempt")
+    .define(RETRY_BACKOFF_MAX_MS_CONFIG, Type.LONG, 5000L, ConfigDef.Range.atLeast(1), Importance.LOW, "Maximum time to wait before retrying a GridDB write or connection")
+    .define(SPILL_DIR_CONFIG, Type.STRING, "", Importance.LOW, "Directory of the spill journal that takes the rows the writers cannot keep up with, empty disables spilling")
+    .define(SPILL_SEGMENT_BYTES_CONFIG, Type.INT, 64 * 1024 * 1024, ConfigDef.Range.atLeast(4096), Importance.LOW, "Size of a memory-mapped spill journal segment file")
+    .define(SPILL_MAX_BYTES_CONFIG, Type.LONG, 1024L * 1024 * 1024, ConfigDef.Range.atLeast(4096), Importance.LOW, "Maximum size of the spill journal of a task, put() waits while it is full")
+    .define(SPILL_DRAIN_TIMEOUT_MS_CONFIG, Type.LONG, 60000L, ConfigDef.Range.atLeast(1), Importance.LOW, "Longest time put() and flush() wait for room in the spill journal or for it to drain, the records are then delivered again")
+    .define(BACKPRESSURE_PAUSE_RATIO_CONFIG, Type.DOUBLE, 0.8, ConfigDef.Range.atLeast(0), Importance.LOW, "Rows waiting to be written (in the buffers and the spill journal), as a share of buffer.max.rows, at which the task pauses its partitions, 0 disables")
+    .define(BACKPRESSURE_RESUME_RATIO_CONFIG, Type.DOUBLE, 0.5, ConfigDef.Range.atLeast(0), Importance.LOW, "Rows waiting to be written, as a share of buffer.max.rows, at which paused partitions are resumed, at most backpressure.pause.ratio")
+    .define(BACKPRESSURE_LATENCY_MS_CONFIG, Type.LONG, 0L, ConfigDef.Range.atLeast(0), Importance.LOW, "Smoothed GridDB write latency at which the task pauses its partitions, they are resumed once it is under half of it, 0 disables")
+    .define(WRITER_COUNT_CONFIG, Type.INT, 1, ConfigDef.Range.atLeast(1), Importance.MEDIUM, "Number of parallel writers (and GridDB connections) per task")
+    .define(LOG_SAMPLE_INTERVAL_CONFIG, Type.INT, 0, ConfigDef.Range.atLeast(0), Importance.LOW, "Log every n-th record at debug level, 0 disables per-record logging")
+    .define(STRUCT_ID_FIELD_CONFIG, Type.STRING, "id", Importance.MEDIUM, "Field of Struct values that names the container of a record")
+    .define(STRUCT_TYPE_FIELD_CONFIG, Type.STRING, "type", Importance.LOW, "Field of Struct values recorded as the sensor type in Sensor_Types, the schema name is used when it is missing")
+    .define(STRUCT_TIMESTAMP_FIELD_CONFIG, Type.STRING, "", Importance.LOW, "Timestamp field of Struct values used as the RowKey, empty to use the record timestamp")
+    .define(OFFSET_TRACKING_CONFIG, Type.BOOLEAN, true, Importance.LOW, "Store the offsets of the written records in GridDB and skip records that were written before a restart or rebalance")
+    .define(ROLLUP_INTERVALS_CONFIG, Type.LIST, "", Importance.LOW, "Bucket intervals of the rollup containers kept next to every data-log container (e.g. 1m,1h), empty disables rollups")
+    .define(PACK_WINDOW_MS_CONFIG, Type.LONG, 0L, ConfigDef.Range.atLeast(0), Importance.LOW, "Window in milliseconds of the packed rows that replace the data-log rows of sensors with only numeric columns, 0 writes a row per reading")
+    .define(PACK_LINGER_MS_CONFIG, Type.LONG, 1000L, ConfigDef.Range.atLeast(0), Importance.LOW, "Longest time the readings of an open window wait in memory before its packed row is written, their records are committed once it has been")
+    .define(CONTAINER_CACHE_SIZE_CONFIG, Type.INT, 10000, ConfigDef.Range.atLeast(1), Importance.LOW, "Maximum number of open data-log container handles cached by a task, their rollup containers are cached in addition")
+    .define(CONTAINER_CACHE_IDLE_MS_CONFIG, Type.LONG, 600000L, ConfigDef.Range.atLeast(0), Importance.LOW, "Cached container handles unused for this long are closed, 0 disables idle eviction");
 
     String host, port, clusterName, database, user, password;
+    Map<String, String> configProps;
 
     @Override
     public String version() {
@@ -81,6 +174,7 @@ public class GridDBSinkConnector extends SinkConnector {
         clusterName = props.get(CLUSTERNAME_CONFIG);
         user = props.get(USER_CONFIG);
         password = props.get(PASSWORD_CONFIG);
+        configProps = props;
         System.out.println("Connector starting");
     }
 
@@ -104,6 +198,14 @@ public class GridDBSinkConnector extends SinkConnector {
                 config.put(USER_CONFIG, user);
             if (password != null)
                 config.put(PASSWORD_CONFIG, password);
+            // Pass the remaining (optional) settings through unchanged, the task falls back to their defaults
+            for (String name : CONFIG_DEF.names()) {
+                if (!config.containsKey(name) && configProps.containsKey(name))
+                    config.put(name, configProps.get(name));
+            }
+            if (configProps.containsKey(NAME_CONFIG))
+                config.put(NAME_CONFIG, configProps.get(NAME_CONFIG));
+            config.put(TASK_ID_CONFIG, Integer.toString(i));
             configs.add(config);
         }
 
@@ -27,34 +27,35 @@
 package net.griddb.connect.griddb;
 
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.Collection;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 import com.toshiba.mwcloud.gs.RowKey;
-import com.toshiba.mwcloud.gs.GridStore;
-import com.toshiba.mwcloud.gs.GridStoreFactory;
-import com.toshiba.mwcloud.gs.TimeSeries;
-import com.toshiba.mwcloud.gs.TimeSeriesProperties;
-import com.toshiba.mwcloud.gs.Container;
-import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.ColumnInfo;
 import com.toshiba.mwcloud.gs.GSType;
 
-import java.util.EnumSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Properties;
 import java.util.Date;
-import net.arnx.jsonic.JSON;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GridDBSinkTask writes records to a GridDB TimeSeries Container
@@ -62,9 +63,57 @@ import net.arnx.jsonic.JSON;
 public class GridDBSinkTask extends SinkTask {
 	private static final Logger log = LoggerFactory.getLogger(GridDBSinkTask.class);
 
-	private GridStore store;
+	// Decoded rows are handed to background writers through their write-behind buffers,
+	// each writer owns a GridStore connection and the containers of a share of the sensor-ids
+	private GridDBWriterPool writers;
+	private final GridStoreProvider stores;
+	private final SinkTaskMetrics metrics = new SinkTaskMetrics();
+	// Log every n-th record at debug level, 0 disables the per-record logging
+	private int logSampleInterval;
+	private long recordCount;
+	// How long Connect waits before delivering records again while GridDB cannot be reached
+	private long retryBackoffMs;
+	// Longest time to wait for room in the spill journal or for it to drain
+	private long spillDrainTimeoutMs;
+	private long flushTimeoutMs;
 	private static final String CONTAINER_NAME = "sample";
-	private static final String SENSOR_TYPE_NAME = "Sensor_Types"; // Default name of sensor-type container
+	static final String SENSOR_TYPE_NAME = "Sensor_Types"; // Default name of sensor-type container
+
+	// Decoder and reusable holder for the JSON payload of each record
+	private final SensorPayloadDecoder decoder = new SensorPayloadDecoder();
+	private final SensorReading reading = new SensorReading();
+	// Decoder of the binary sensor messages handed over by SensorBinaryConverter
+	private final SensorBinaryCodec binaryDecoder = new SensorBinaryCodec();
+	// Compiled column mappings of the Struct schemas seen so far
+	private StructRowMapping.Cache structMappings;
+	// Per topic, the offset of every assigned partition up to which all writers have written their rows
+	private final Map<String, long[]> writtenOffsets = new HashMap<>();
+	// Rows the writers cannot take yet are spilled here instead of blocking put(), null when spilling is disabled
+	private SpillJournal journal;
+	// While rows are in the journal: the offsets that can be committed once the writers have released the rows
+	// published up to a point, oldest first
+	private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<>();
+	// Pauses the assigned partitions while the writers are behind
+	private Backpressure backpressure;
+
+	private static final class Checkpoint {
+		final long[] published;
+		final Map<TopicPartition, OffsetAndMetadata> offsets;
+
+		Checkpoint(long[] published, Map<TopicPartition, OffsetAndMetadata> offsets) {
+			this.published = published;
+			this.offsets = offsets;
+		}
+	}
+
+	// Row schema used to build the generic sensor-type Rows handed to GridStore.multiPut
+	// It matches the column layout of the SensorType class below
+	static final ContainerInfo SENSOR_TYPE_INFO = new ContainerInfo(null, ContainerType.COLLECTION,
+		Arrays.asList(new ColumnInfo("id", GSType.STRING), new ColumnInfo("time", GSType.TIMESTAMP),
+			new ColumnInfo("type", GSType.STRING)), true);
+
+	// Rough size of a data-log row (timestamp and two doubles), used for the batch byte limit
+	static final int SENSOR_ROW_BYTES = 24;
 
 	// This class represents the schema for the sensor-type container which records all the sensor Ids and types
 	// of sensor devices that have made and submitted readings to GridDB through Kafka
@@ -92,174 +141,426 @@ public class GridDBSinkTask extends SinkTask {
 		}
 	}
 
+	public GridDBSinkTask() {
+		this(GridStoreProvider.FACTORY);
+	}
 
-	// The following three classes represent different schemas for Data-log containers
-	// These data-log containers are named or identified by their sensor-id  
-	// and have Timestamp RowKeys
+	GridDBSinkTask(GridStoreProvider stores) {
+		this.stores = stores;
+	}
 
-	// Measures light and sound
-	static class LightSensor{
-		@RowKey Date time;
-		double light;
-		double sound;
-		public void setTime(Date time){
-			this.time = time;
-		}
-		public void setLight(double light){
-			this.light = light;
+	@Override public String version() {
+		return new GridDBSinkConnector().version();
+	}
+
+	@Override public void start(Map<String, String> props) {
+		log.info("Starting Task....");
+		Properties gsprops = new Properties();
+
+		AbstractConfig config = new AbstractConfig(GridDBSinkConnector.CONFIG_DEF, props);
+		// The single host/port/clusterName target is only needed when no cluster list is given
+		if (config.getList(GridDBSinkConnector.CLUSTERS_CONFIG).isEmpty()) {
+			gsprops.setProperty("notificationAddress", requireString(config, GridDBSinkConnector.HOST_CONFIG));
+			gsprops.setProperty("notificationPort", requireString(config, GridDBSinkConnector.PORT_CONFIG));
+			gsprops.setProperty("clusterName", requireString(config, GridDBSinkConnector.CLUSTERNAME_CONFIG));
 		}
-		public void setSound(double sound){
-			this.sound = sound;
+		gsprops.setProperty("user", props.get(GridDBSinkConnector.USER_CONFIG));
+		gsprops.setProperty("password", props.get(GridDBSinkConnector.PASSWORD_CONFIG));
+
+		// Adaptive batching shrinks the batches from batch.max.rows down to batch.min.rows
+		if (config.getLong(GridDBSinkConnector.BATCH_LATENCY_TARGET_MS_CONFIG) > 0)
+			requireAtMost(config, GridDBSinkConnector.BATCH_MIN_ROWS_CONFIG, GridDBSinkConnector.BATCH_MAX_ROWS_CONFIG);
+		// Partitions paused on the row count are resumed once it falls to the resume ratio
+		if (config.getDouble(GridDBSinkConnector.BACKPRESSURE_PAUSE_RATIO_CONFIG) > 0)
+			requireAtMost(config, GridDBSinkConnector.BACKPRESSURE_RESUME_RATIO_CONFIG,
+				GridDBSinkConnector.BACKPRESSURE_PAUSE_RATIO_CONFIG);
+		logSampleInterval = config.getInt(GridDBSinkConnector.LOG_SAMPLE_INTERVAL_CONFIG);
+		retryBackoffMs = config.getLong(GridDBSinkConnector.RETRY_BACKOFF_MS_CONFIG);
+		spillDrainTimeoutMs = config.getLong(GridDBSinkConnector.SPILL_DRAIN_TIMEOUT_MS_CONFIG);
+		flushTimeoutMs = config.getLong(GridDBSinkConnector.FLUSH_TIMEOUT_MS_CONFIG);
+		structMappings = new StructRowMapping.Cache(config.getString(GridDBSinkConnector.STRUCT_ID_FIELD_CONFIG),
+			config.getString(GridDBSinkConnector.STRUCT_TYPE_FIELD_CONFIG),
+			config.getString(GridDBSinkConnector.STRUCT_TIMESTAMP_FIELD_CONFIG));
+		metrics.register(GridDBSinkTask.class.getSimpleName(), props.get(GridDBSinkConnector.NAME_CONFIG),
+			props.get(GridDBSinkConnector.TASK_ID_CONFIG));
+		writers = new GridDBWriterPool(config, gsprops, stores, metrics, props.get(GridDBSinkConnector.NAME_CONFIG));
+		String spillDir = config.getString(GridDBSinkConnector.SPILL_DIR_CONFIG);
+		if (!spillDir.isEmpty()) {
+			// Every task has a directory of its own
+			String task = props.get(GridDBSinkConnector.NAME_CONFIG) + "-" + props.get(GridDBSinkConnector.TASK_ID_CONFIG);
+			try {
+				journal = new SpillJournal(Paths.get(spillDir, task),
+					config.getInt(GridDBSinkConnector.SPILL_SEGMENT_BYTES_CONFIG),
+					config.getLong(GridDBSinkConnector.SPILL_MAX_BYTES_CONFIG), writers, metrics);
+			} catch (IOException ex) {
+				throw new ConnectException("Failed to open the spill journal in " + spillDir, ex);
+			}
 		}
-		public String toString() {
-			return "Timestamp: "+time +" Light: "+ light +" Sound: "+sound;
+		int capacity = writers.capacity();
+		backpressure = new Backpressure(
+			(int) (config.getDouble(GridDBSinkConnector.BACKPRESSURE_PAUSE_RATIO_CONFIG) * capacity),
+			(int) (config.getDouble(GridDBSinkConnector.BACKPRESSURE_RESUME_RATIO_CONFIG) * capacity),
+			config.getLong(GridDBSinkConnector.BACKPRESSURE_LATENCY_MS_CONFIG));
+		metrics.setBackpressure(backpressure);
+		writers.start();
+		if (journal != null)
+			journal.start();
+	}
+
+	private static String requireString(AbstractConfig config, String name) {
+		String value = config.getString(name);
+		if (value == null)
+			throw new ConfigException(name, null, "Either " + name + " or "
+				+ GridDBSinkConnector.CLUSTERS_CONFIG + " must be set");
+		return value;
+	}
+
+	// Reject a lower bound that is set above its upper bound
+	private static void requireAtMost(AbstractConfig config, String name, String limitName) {
+		Number value = (Number) config.values().get(name);
+		Number limit = (Number) config.values().get(limitName);
+		if (value.doubleValue() > limit.doubleValue())
+			throw new ConfigException(name, value, name + " must not be greater than " + limitName + " (" + limit + ")");
+	}
+
+	// Look up the offsets the writers have stored for the newly assigned partitions
+	@Override public void open(Collection<TopicPartition> partitions) {
+		if (writers == null)
+			return;
+		// Partitions assigned while the task is paused wait like the others
+		if (context != null && backpressure.isPaused())
+			context.pause(partitions.toArray(new TopicPartition[0]));
+		for (Map.Entry<TopicPartition, Long> entry : writers.open(partitions).entrySet()) {
+			TopicPartition partition = entry.getKey();
+			long[] offsets = writtenOffsets.get(partition.topic());
+			if (offsets == null || offsets.length <= partition.partition()) {
+				long[] grown = new long[partition.partition() + 1];
+				Arrays.fill(grown, -1);
+				if (offsets != null)
+					System.arraycopy(offsets, 0, grown, 0, offsets.length);
+				writtenOffsets.put(partition.topic(), grown);
+				offsets = grown;
+			}
+			offsets[partition.partition()] = entry.getValue();
+			if (entry.getValue() >= 0)
+				log.info("Records of {} up to offset {} have been written already", partition, entry.getValue());
 		}
 	}
-	
-	// Measures power (watts) and heat
-	static class WattSensor {
-		@RowKey Date time;
-		double watts;
-		double heat;
-		public void setTime(Date time){
-			this.time = time;
+
+	@Override public void close(Collection<TopicPartition> partitions) {
+		if (writers == null)
+			return;
+		writers.revoke(partitions);
+		for (TopicPartition partition : partitions) {
+			long[] offsets = writtenOffsets.get(partition.topic());
+			if (offsets != null && partition.partition() < offsets.length)
+				offsets[partition.partition()] = -1;
 		}
-		public void setWatts(double watts){
-			this.watts = watts;
+	}
+
+	// Whether every writer has written the rows of this record before a restart or rebalance
+	private boolean isWritten(SinkRecord record) {
+		if (writtenOffsets.isEmpty() || record.kafkaPartition() == null)
+			return false;
+		long[] offsets = writtenOffsets.get(record.topic());
+		int partition = record.kafkaPartition();
+		return offsets != null && partition < offsets.length && record.kafkaOffset() <= offsets[partition];
+	}
+
+	@Override public void put(Collection<SinkRecord> sinkRecords) {
+		// A writer whose thread has died would never take the rows handed to it
+		writers.checkRunning();
+		applyBackpressure();
+		// While a writer is reconnecting its rows could not be written, have Connect back off and deliver
+		// the records again instead of filling the buffers (unless they can be spilled)
+		if (journal == null && !writers.isConnected())
+			throw retry("Not connected to GridDB");
+		metrics.recordRecords(sinkRecords.size());
+		for (SinkRecord record : sinkRecords) {
+			if (isWritten(record)) {
+				metrics.recordSkipped(1);
+				continue;
+			}
+			Object value = record.value();
+			try {
+				// Fault tolerance: Do not parse any record message that does not have a HashMap or Struct value
+				if (value instanceof byte[])
+					putBinary(record, (byte[]) value);
+				else if (value instanceof Struct)
+					putStruct(record, (Struct) value);
+				else if (value != null && value.getClass() == HashMap.class)
+					putPayload(record, (Map<?, ?>) value);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new ConnectException("Interrupted while waiting for space in the write-behind buffer", ex);
+			} catch (DataException ex) {
+				// Only records that cannot be decoded are skipped, anything else fails the task
+				decodeFailed(record, ex);
+			}
 		}
-		public void setHeat(double heat){
-			this.heat = heat;
+	}
+
+	// A record that cannot be decoded is skipped
+	private void decodeFailed(SinkRecord record, DataException ex) {
+		log.error("Failed to decode record {}-{}@{}", record.topic(), record.kafkaPartition(), record.kafkaOffset(), ex);
+		metrics.recordError("decode");
+	}
+
+	// A schemaless record whose "payload" is the sensor message as a JSON string
+	private void putPayload(SinkRecord record, Map<?, ?> value) throws InterruptedException {
+		// Attempt to retrieve and decode message content ("payload") in a single pass
+		Object field = value.get("payload");
+		if (field != null && !(field instanceof String))
+			throw new DataException("Sensor payload is a " + field.getClass().getName() + ", not a String");
+		String payload = (String) field;
+		long start = System.nanoTime();
+		decoder.decode(payload, reading);
+		metrics.decode.record(System.nanoTime() - start);
+
+		// The "type" field determines which kind of schema the sensor-data falls into
+		SensorKind kind = reading.kind;
+		if (kind == null || reading.id == null) {
+			log.error("Skipping record {}-{}@{} with unknown sensor id or type: {}", record.topic(),
+				record.kafkaPartition(), record.kafkaOffset(), payload);
+			metrics.recordError("unknown-type");
+			return;
 		}
-		public String toString() {
-			return "Timestamp: "+time +" Watts: "+watts + " Heat: " + heat;
+		putReading(record, record.timestamp());
+	}
+
+	// A record of the binary sensor encoding (SensorBinaryConverter), its fields are read straight from the bytes
+	private void putBinary(SinkRecord record, byte[] value) throws InterruptedException {
+		long start = System.nanoTime();
+		long timestamp = binaryDecoder.decode(value, reading);
+		metrics.decode.record(System.nanoTime() - start);
+
+		if (reading.kind == null || reading.id == null) {
+			log.error("Skipping record {}-{}@{} with unknown sensor id or type: {}", record.topic(),
+				record.kafkaPartition(), record.kafkaOffset(), reading);
+			metrics.recordError("unknown-type");
+			return;
 		}
+		putReading(record, timestamp == SensorBinaryCodec.NO_TIMESTAMP ? record.timestamp() : timestamp);
 	}
 
-	// Measures volts and amps
-	static class ElectricitySensor {
-		@RowKey Date time;
-		double volts;
-		double amps;
-		public void setTime(Date time){
-			this.time = time;
+	// Hand the timestamp and the two readings of the decoded reading over to the writer of its sensor,
+	// which inserts them into a container with a name that matches the sensor id
+	private void putReading(SinkRecord record, long timestamp) throws InterruptedException {
+		SensorKind kind = reading.kind;
+		if (logSampleInterval > 0 && ++recordCount % logSampleInterval == 0 && log.isDebugEnabled())
+			log.debug("Putting {} into {}", reading, reading.id);
+		double first = reading.value(kind.firstField);
+		double second = reading.value(kind.secondField);
+		PendingRow row = null;
+		// Once the writer is behind, its rows and all that follow go into the journal until it has caught up
+		if (journal != null && (!journal.isEmpty() || (row = writers.tryClaim(reading.id)) == null)) {
+			spill(record, reading.id, timestamp, kind, first, second);
+			return;
 		}
-		public void setVolts(double volts){
-			this.volts = volts;
+		if (row == null)
+			row = writers.claim(reading.id);
+		row.container = reading.id;
+		row.timestamp = timestamp;
+		row.kind = kind;
+		row.first = first;
+		row.second = second;
+		row.mapping = null;
+		row.struct = null;
+		row.type = null;
+		claimed(row, record);
+	}
+
+	// A record with a schema: its fields are written as columns through the compiled mapping of its schema
+	private void putStruct(SinkRecord record, Struct struct) throws InterruptedException {
+		long start = System.nanoTime();
+		StructRowMapping mapping = structMappings.get(struct.schema());
+		String id = mapping.id(struct);
+		long timestamp = mapping.timestamp(struct, record.timestamp());
+		metrics.decode.record(System.nanoTime() - start);
+		if (id == null) {
+			log.error("Skipping record {}-{}@{} without a sensor id", record.topic(), record.kafkaPartition(),
+				record.kafkaOffset());
+			metrics.recordError("unknown-type");
+			return;
 		}
-		public void setAmps(double amps){
-			this.amps = amps;
+		if (logSampleInterval > 0 && ++recordCount % logSampleInterval == 0 && log.isDebugEnabled())
+			log.debug("Putting {} into {}", struct, id);
+		// Struct values are not spilled, they are handed over once the rows before them have left the journal
+		if (journal != null)
+			awaitJournal();
+		PendingRow row = writers.claim(id);
+		row.container = id;
+		row.timestamp = timestamp;
+		row.kind = null;
+		row.mapping = mapping;
+		row.struct = struct;
+		row.type = mapping.type(struct);
+		claimed(row, record);
+	}
+
+	// Append a row to the journal, waiting while it is full. While the writers cannot reach GridDB, or once
+	// spill.drain.timeout.ms has passed, a full journal has Connect back off and deliver the records again.
+	private void spill(SinkRecord record, String id, long timestamp, SensorKind kind, double first, double second)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(spillDrainTimeoutMs);
+		try {
+			while (!journal.append(id, timestamp, kind, first, second, record.topic(), record.kafkaPartition(),
+					record.kafkaOffset(), retryBackoffMs)) {
+				if (!writers.isConnected())
+					throw retry("The spill journal is full and GridDB cannot be reached");
+				if (System.nanoTime() - deadline >= 0)
+					throw retry("The spill journal has been full for " + spillDrainTimeoutMs + " ms");
+			}
+		} catch (IOException ex) {
+			throw new ConnectException("Failed to spill record " + record.topic() + "-" + record.kafkaPartition() + "@"
+				+ record.kafkaOffset(), ex);
 		}
-		public String toString(){
-			return "Timestamp: "+time +" Volts: " + volts + " Amps: " + amps;
+	}
+
+	// Wait until every row in the journal has been handed to the writers. While the writers cannot reach GridDB,
+	// or once spill.drain.timeout.ms has passed, Connect backs off and delivers the records again.
+	private void awaitJournal() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(spillDrainTimeoutMs);
+		while (!journal.awaitDrained(retryBackoffMs)) {
+			if (!writers.isConnected())
+				throw retry("Rows are waiting in the spill journal and GridDB cannot be reached");
+			if (System.nanoTime() - deadline >= 0)
+				throw retry("The spill journal has not drained within " + spillDrainTimeoutMs + " ms");
 		}
 	}
-	public GridDBSinkTask() {
+
+	// Wait for the journal to drain before flushing, the way the writers' buffers are waited for, but give up
+	// once a writer or the journal's drainer has failed or spill.drain.timeout.ms has passed
+	private void drainJournal() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(spillDrainTimeoutMs);
+		while (!journal.awaitDrained(retryBackoffMs)) {
+			checkFailures();
+			if (System.nanoTime() - deadline >= 0)
+				throw new RetriableException("The spill journal has not drained within " + spillDrainTimeoutMs + " ms");
+		}
 	}
 
-	@Override public String version() {
-		return new GridDBSinkConnector().version();
+	// Have Connect deliver the records again once the writers try to reconnect, but not sooner than retry.backoff.ms
+	private RetriableException retry(String message) {
+		long backoffMs = Math.max(retryBackoffMs, writers.millisUntilReconnect());
+		if (context != null)
+			context.timeout(backoffMs);
+		return new RetriableException(message + ", the records are delivered again in " + backoffMs + " ms");
 	}
 
-	@Override public void start(Map<String, String> props) {
-		System.out.println("Starting Task....");
-		Properties gsprops = new Properties();
+	// Pause or resume the assigned partitions as the writers fall behind or catch up. Connect keeps calling
+	// put() while they are paused, without records, so this is where they are resumed as well.
+	private void applyBackpressure() {
+		if (context == null || !backpressure.isEnabled())
+			return;
+		int waiting = writers.depth() + (journal == null ? 0 : journal.size());
+		if (!backpressure.update(waiting, writers.writeLatencyNanos()))
+			return;
+		TopicPartition[] partitions = context.assignment().toArray(new TopicPartition[0]);
+		if (backpressure.isPaused()) {
+			log.debug("Pausing {} partitions with {} rows waiting to be written", partitions.length, waiting);
+			context.pause(partitions);
+		} else {
+			log.debug("Resuming {} partitions with {} rows waiting to be written", partitions.length, waiting);
+			context.resume(partitions);
+		}
+	}
 
-		gsprops.setProperty("notificationAddress", props.get(GridDBSinkConnector.HOST_CONFIG));
-		gsprops.setProperty("notificationPort", props.get(GridDBSinkConnector.PORT_CONFIG));
-		gsprops.setProperty("clusterName", props.get(GridDBSinkConnector.CLUSTERNAME_CONFIG));
-		gsprops.setProperty("user", props.get(GridDBSinkConnector.USER_CONFIG));
-		gsprops.setProperty("password", props.get(GridDBSinkConnector.PASSWORD_CONFIG));
+	// Record where a claimed row came from and hand it over to its writer
+	private void claimed(PendingRow row, SinkRecord record) {
+		row.topic = record.topic();
+		row.partition = record.kafkaPartition();
+		row.offset = record.kafkaOffset();
+		writers.publish();
+	}
 
+	// Block until every row handed to the writer so far has been written to GridDB, so that Connect
+	// never commits offsets ahead of the data. A failed write, a stopped writer or flush.timeout.ms passing
+	// fails the flush, Connect then rewinds to the last committed offsets and the records are delivered again.
+	@Override public void flush(Map<TopicPartition, OffsetAndMetadata> offsets) {
+		log.trace("Flushing output stream");
+		if (writers == null)
+			return;
 		try {
-			store=GridStoreFactory.getInstance().getGridStore(gsprops);
-		} catch (Exception ex) {
-			System.out.println("Failed to get GS instance\n" + ex);
+			if (journal != null)
+				drainJournal();
+			writers.flush(flushTimeoutMs);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectException("Interrupted while flushing rows into GridDB", ex);
+		} catch (ConnectException ex) {
+			if (journal != null) {
+				// Connect delivers the records since its last commit again, including those of the rows in the journal
+				journal.discard();
+				checkpoints.clear();
+			}
+			throw ex;
 		}
-
 	}
 
-	@Override public void put(Collection<SinkRecord> sinkRecords) {
-		
-		for (SinkRecord record : sinkRecords) {
-			// Fault tolerance: Do not parse any record message that does not have a HashMap value
-			if (record.value().getClass() == HashMap.class) {
-			//HashMap simpleMap = (HashMap) ((HashMap)record.value()).get("payload");
-				try {
-					// Connect to sensor-type container
-					Container<String,SensorType> typeContainer = store.putCollection(SENSOR_TYPE_NAME,SensorType.class); 
-					// Attempt to retrieve and decode message content ("payload")
-					String payload = (String) ((HashMap)record.value()).get("payload");
-					// Create a sensor-type record that will correspond to the "id" and "type" fields of the JSON message
-					SensorType sensorType = JSON.decode(payload,SensorType.class);
-
-					// To determine which kind of schema the sensor-data should fall into and what kind of object the
-					// rest of the message should be parsed we check "type" field of sensor type.
-					if(payload.contains("light")){
-						// For a record of type : light
-						// Decode the last two fields of the JSON message into a LightSensor object
-						LightSensor sensor = JSON.decode(payload, LightSensor.class);
-						// Add the records timestamp as the time field
-						sensor.time = new Date(record.timestamp());
-						System.out.println(sensor.light);
-						System.out.println("Putting "+ sensor + " into " + sensorType.id);
-						// Insert into a container with a name that matches its corresponding sensor id
-						TimeSeries<LightSensor> ts = store.putTimeSeries(sensorType.id, LightSensor.class);
-						ts.put(sensor);
-
-					} else if(payload.contains("watts")) {
-						// For a record of type : watts
-						// Decode the last two fields of the JSON message into a WattSensor object
-					 	WattSensor sensor = JSON.decode(payload, WattSensor.class);
-					 	// Add the records timestamp as the time field
-						sensor.time = new Date(record.timestamp());
-						System.out.println("Putting " + sensor + " into " + sensorType.id);
-						// Insert into a container with a name that matches its corresponding sensor id
-						TimeSeries<WattSensor> ts = store.putTimeSeries(sensorType.id, WattSensor.class);
-						ts.put(sensor);
-
-					} else {
-						// For a record of type : volts
-						// Decode the last two fields of the JSON message into a ElectricitySensor object
-						ElectricitySensor sensor = JSON.decode(payload,ElectricitySensor.class);
-						// Add the records timestamp as the time field
-						sensor.time = new Date(record.timestamp());
-						System.out.println("Putting "+ sensor + " into " + sensorType.id);
-						// Insert into a container with a name that matches its corresponding sensor id
-						TimeSeries<ElectricitySensor> ts = store.putTimeSeries(sensorType.id, ElectricitySensor.class);
-						ts.put(sensor); 
-
-					}
-
-					// If sensor-type container does not have an record of a certain sensor-id
-					if(typeContainer.get(sensorType.id) == null){
-						System.out.println("Need to insert into container");
-						System.out.println("Putting sensor "  + sensorType + " into " + SENSOR_TYPE_NAME);
-						// Add the record time
-						sensorType.time = new Date(record.timestamp());
-						// Insert the sensor-type record into container, with the sensor-id as the Key
-						typeContainer.put(sensorType.id,sensorType);
-
-					} else {
-						System.out.println("Ignore this duplicate");
-					}
-					
-				} catch (Exception ex) {
-					System.out.println("Failed to append TSRecord");
-				}
-			}
+	// Without rows in the spill journal this flushes. While there are, waiting for them could take as long as
+	// GridDB is slow, so the offsets are committed up to the rows the writers have written by now instead:
+	// every call records how far the rows of each partition have been handed to the writers, and returns the
+	// latest such checkpoint whose rows have all been released by the writers.
+	@Override public Map<TopicPartition, OffsetAndMetadata> preCommit(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+		if (journal == null || journal.isEmpty()) {
+			flush(currentOffsets);
+			checkpoints.clear();
+			return currentOffsets;
 		}
+		checkFailures();
+		// Read how far the journal has been drained before the buffers' sequence numbers, a row drained in between
+		// is then covered by the sequence numbers
+		Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+		for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : currentOffsets.entrySet()) {
+			TopicPartition partition = entry.getKey();
+			long offset = journal.committable(partition.topic(), partition.partition(), entry.getValue().offset());
+			if (offset >= 0)
+				offsets.put(partition, new OffsetAndMetadata(offset));
+		}
+		checkpoints.addLast(new Checkpoint(writers.publishedSeqs(), offsets));
+		Map<TopicPartition, OffsetAndMetadata> committable = Collections.emptyMap();
+		while (!checkpoints.isEmpty() && writers.isReleased(checkpoints.peekFirst().published))
+			committable = checkpoints.pollFirst().offsets;
+		// A writer records a failed batch before it releases its rows, so a batch that failed since the check
+		// above and counts as released here is caught now, the same way GridDBWriterPool.flush() does
+		checkFailures();
+		return committable;
 	}
 
-	@Override public void flush(Map<TopicPartition, OffsetAndMetadata> offsets) {
-		log.trace("Flushing output stream");
+	// Throw if a writer or the journal's drainer failed since the last check. Connect then delivers the records
+	// since its last commit again, so the rows in the journal are dropped.
+	private void checkFailures() {
+		Exception failure = writers.takeFailure();
+		if (failure == null)
+			failure = journal.takeFailure();
+		if (failure != null) {
+			journal.discard();
+			checkpoints.clear();
+			throw new ConnectException("Failed to write rows into GridDB", failure);
+		}
 	}
 
+	// Drain the buffers into GridDB before closing the connections
 	@Override public void stop() {
+		if (writers == null)
+			return;
 		try {
-			store.close();
-		} catch (Exception ex) {
+			// Rows still in the journal are delivered again by Connect, their offsets have not been committed
+			if (journal != null)
+				journal.close();
+			writers.close();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while draining rows into GridDB");
+		} finally {
+			log.info("Task metrics: {}", metrics);
+			metrics.unregister();
 		}
+	}
 
+	SinkTaskMetrics metrics() {
+		return metrics;
 	}
 
 }
@@ -0,0 +1,554 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * GridDBWriter is the background thread that drains a WriteBehindBuffer into GridDB.
+ * It owns the GridStore and everything bound to it (container handles, the sensor catalog),
+ * so the task thread never has to wait for GridDB I/O while Kafka is being polled.
+ * Rows are grouped by container and written with one multiPut per batch. A failed multiPut is retried
+ * with backoff, over a new connection if the old one broke, before the batch is reported as failed.
+ */
+class GridDBWriter implements Runnable {
+	private static final Logger log = LoggerFactory.getLogger(GridDBWriter.class);
+
+	// How long the writer waits for rows before checking whether it has been stopped
+	private static final long POLL_MS = 100;
+	// Bounds the rejected Struct layouts kept per writer
+	private static final int MAX_REJECTED_LAYOUTS = 1024;
+
+	private final String name;
+	private final GridStoreConnection connection;
+	// GridStore of the current connection, the container handles and rows are bound to it
+	private GridStore store;
+	private final ContainerCache containers;
+	private final SensorCatalog catalog;
+	// Whether this writer (re)loads the catalog it shares with the other writers of its cluster
+	private final boolean loadsCatalog;
+	private final WriteBehindBuffer buffer;
+	private final SinkTaskMetrics metrics;
+	private final SinkBatch batch;
+	// Rows are filled in again once their batch has been written
+	private final RowPool rows;
+	// Orders the rows of each container by timestamp and merges those that share one
+	private final RowCoalescer coalescer;
+	// Aggregates of the written rows per time bucket, null when no rollup intervals are configured
+	private final Rollups rollups;
+	// Packs the readings of each sensor into a row per time window, null when packing is disabled
+	private final WindowPacker packer;
+	// Offsets of the rows written so far per topic-partition, null when offset tracking is disabled
+	private final OffsetTracker offsets;
+	// Row limit and linger time of the batches
+	private final BatchController controller;
+	// Times a failed multiPut is tried again before the batch fails
+	private final int writeRetries;
+
+	// Sensors seen in the current batch that are not known to be in the sensor-type container
+	private final Map<String, PendingRow> batchSensors = new LinkedHashMap<>();
+	private final List<PendingRow> pending = new ArrayList<>();
+	// Sensor-ids whose Sensor_Types entry is part of the current batch
+	private final Set<String> newSensors = new HashSet<>();
+	// Struct layouts rejected by the existing container of that name, see acceptsLayout()
+	private final Map<String, ContainerInfo> rejectedLayouts = new HashMap<>();
+	// First write failure since the task last flushed
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	// Rows taken from the buffer whose readings wait in open packed windows, released once those are written
+	private int held;
+	// Set by flush() to have the open packed windows written without waiting for pack.linger.ms
+	// until every row up to this sequence number has been released
+	private volatile long flushSeq;
+
+	private volatile boolean running = true;
+	private Thread thread;
+	// Why the thread stopped before close(), the rows left in the buffer are then never written
+	private volatile Throwable stopped;
+
+	GridDBWriter(String name, GridStoreConnection connection, ContainerCache containers, SensorCatalog catalog,
+			boolean loadsCatalog, WriteBehindBuffer buffer, SinkTaskMetrics metrics, Rollups rollups,
+			WindowPacker packer, OffsetTracker offsets, BatchController controller, int maxBatchRows, long maxBatchBytes,
+			int writeRetries, String duplicatePolicy) {
+		this.name = name;
+		this.connection = connection;
+		this.containers = containers;
+		this.catalog = catalog;
+		this.loadsCatalog = loadsCatalog;
+		this.buffer = buffer;
+		this.metrics = metrics;
+		this.batch = new SinkBatch(maxBatchRows, maxBatchBytes);
+		this.rows = new RowPool(null, maxBatchRows);
+		this.coalescer = new RowCoalescer(duplicatePolicy, rows);
+		this.rollups = rollups;
+		this.packer = packer;
+		this.offsets = offsets;
+		this.controller = controller;
+		this.writeRetries = writeRetries;
+	}
+
+	// Connect to GridDB unless already connected, and bind the container handles and rows to a new connection.
+	// Called by the writer thread, or before it is started.
+	boolean connect() {
+		GridStore connected = connection.connect();
+		if (connected == null)
+			return false;
+		if (connected != store) {
+			store = connected;
+			containers.reset(connected);
+			rows.reset(connected);
+			// Load the known sensor-ids once per connection, so the write path does not have to read Sensor_Types per record
+			if (loadsCatalog) {
+				try {
+					catalog.load(connected);
+					log.info("Loaded {} sensor-ids from {} for {}", catalog.size(), GridDBSinkTask.SENSOR_TYPE_NAME, name);
+				} catch (Exception ex) {
+					log.warn("Failed to load the sensor-ids from {}, they are looked up per batch",
+						GridDBSinkTask.SENSOR_TYPE_NAME, ex);
+				}
+			}
+		}
+		return true;
+	}
+
+	boolean isConnected() {
+		return connection.isConnected();
+	}
+
+	// Time until the writer tries to reconnect, 0 while it is connected
+	long millisUntilReconnect() {
+		return connection.isConnected() ? 0 : connection.millisUntilDue();
+	}
+
+	void start() {
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override public void run() {
+		try {
+			// Keep going after stop() until every published row has been written
+			while (running || buffer.size() > 0) {
+				int n;
+				try {
+					batch.setMaxRows(controller.rowLimit());
+					n = buffer.take(pending, controller.rowLimit(), controller.lingerMs(), POLL_MS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					if (running)
+						stopped = ex;
+					break;
+				}
+				if (n == 0) {
+					// Reconnect while there is nothing to write, so that the task can take records again
+					if (!connection.isConnected() && connection.isDue())
+						connect();
+					// Write the open packed windows once they are due, and release the rows of their readings
+					if (held > 0) {
+						schedulePacked(0);
+						writeBatch();
+						releaseHeld();
+					}
+					// Store the offsets of the last batch while there is nothing else to write
+					writeOffsets();
+					continue;
+				}
+				try {
+					write(pending);
+				} catch (RuntimeException | Error ex) {
+					// Set before the rows are released, so that flush() does not take them as written
+					stopped = ex;
+					throw ex;
+				} finally {
+					pending.clear();
+					held += n;
+					releaseHeld();
+				}
+			}
+			// Store the offsets of the last batch before the connection is closed
+			writeOffsets();
+		} catch (RuntimeException | Error ex) {
+			// put() and flush() fail from now on, see checkRunning()
+			log.error("{} stopped", name, ex);
+			stopped = ex;
+		}
+	}
+
+	// Turn the pending rows into GridDB Rows and write them, in as many batches as the batch limits need
+	private void write(List<PendingRow> pendingRows) {
+		if (offsets != null)
+			offsets.sync();
+		if (rollups != null)
+			rollups.sync();
+		for (PendingRow pending : pendingRows) {
+			// Records delivered again after a restart or a rebalance may have been written already
+			if (offsets != null && offsets.isWritten(pending)) {
+				metrics.recordSkipped(1);
+				continue;
+			}
+			try {
+				ContainerInfo info = pending.kind != null ? pending.kind.containerInfo : pending.mapping.containerInfo;
+				// Readings of layouts with only numeric columns are packed when packing is enabled
+				boolean packed = packer != null && packer.layout(info).packable;
+				if (pending.mapping != null && !acceptsLayout(packed ? pending.container + WindowPacker.SUFFIX
+						: pending.container, packed ? packer.layout(info).info : info)) {
+					log.error("Skipping record {}, the columns of its schema do not match those of container {}",
+						pending, pending.container);
+					metrics.recordError("schema");
+					if (offsets != null)
+						offsets.add(pending);
+					continue;
+				}
+				// Rows of one container must share a layout within a multiPut, write out rows of an older schema first
+				ContainerInfo batched = packed ? packer.containerInfo(pending.container)
+					: batch.containerInfo(pending.container);
+				if (batched != null && batched != info) {
+					if (packed)
+						packer.writeOpenWindows();
+					writeBatch();
+				}
+				Row row = rows.take(info);
+				int bytes;
+				if (pending.kind != null) {
+					row.setTimestamp(0, pending.time());
+					row.setDouble(1, pending.first);
+					row.setDouble(2, pending.second);
+					bytes = GridDBSinkTask.SENSOR_ROW_BYTES;
+				} else {
+					pending.mapping.fill(row, pending.struct, pending.time());
+					bytes = pending.mapping.rowBytes;
+				}
+				if (packed) {
+					// Readings the window already holds are not counted again, the other data-log rows
+					// feed the rollups once duplicates have been merged, see writeBatch()
+					if (packer.add(pending.container, info, row, pending.timestamp) && rollups != null)
+						rollups.add(pending.container, info, row, pending.timestamp, pending);
+					batch.addRecord(pending, bytes);
+				} else {
+					batch.add(pending.container, info, row, pending, bytes);
+				}
+				if (offsets != null)
+					offsets.add(pending);
+				// The packer has copied the reading, so the row is not needed for the multiPut
+				if (packed)
+					rows.release(info, row);
+				if (!catalog.isKnown(pending.container) && !batchSensors.containsKey(pending.container))
+					batchSensors.put(pending.container, pending);
+			} catch (Exception ex) {
+				log.error("Failed to build row for record {}", pending, ex);
+				metrics.recordError("row");
+				failure.compareAndSet(null, ex);
+				if (offsets != null)
+					offsets.failed();
+			}
+			if (batch.isFull())
+				writeBatch();
+		}
+		schedulePacked(pendingRows.size());
+		writeBatch();
+	}
+
+	// Whether the container takes rows of a Struct layout. GridDB does not change the columns of an existing
+	// container, so rows of another schema could never be written and every redelivery would fail again; their
+	// records are skipped like records that cannot be decoded instead. Any other failure is left to multiPut.
+	private boolean acceptsLayout(String container, ContainerInfo info) {
+		if (rejectedLayouts.get(container) == info)
+			return false;
+		if (!connection.isConnected())
+			return true;
+		try {
+			containers.timeSeries(container, info);
+			return true;
+		} catch (GSException ex) {
+			try {
+				ContainerInfo existing = store.getContainerInfo(container);
+				if (existing == null || sameColumns(existing, info))
+					return true;
+			} catch (GSException lookupEx) {
+				return true;
+			}
+			if (rejectedLayouts.size() >= MAX_REJECTED_LAYOUTS)
+				rejectedLayouts.clear();
+			rejectedLayouts.put(container, info);
+			return false;
+		}
+	}
+
+	private static boolean sameColumns(ContainerInfo a, ContainerInfo b) {
+		if (a.getType() != b.getType() || a.getColumnCount() != b.getColumnCount())
+			return false;
+		for (int i = 0; i < a.getColumnCount(); i++) {
+			if (!a.getColumnInfo(i).getName().equalsIgnoreCase(b.getColumnInfo(i).getName())
+					|| a.getColumnInfo(i).getType() != b.getColumnInfo(i).getType())
+				return false;
+		}
+		return true;
+	}
+
+	// Have the next batch write the open packed windows as well, once their readings have waited pack.linger.ms,
+	// the rows held back for them would fill half the buffer, the task flushes or the writer stops
+	private void schedulePacked(int taken) {
+		if (packer == null || !packer.hasUnwritten())
+			return;
+		if (!running || held + taken >= buffer.capacity() / 2 || !buffer.isReleased(flushSeq)
+				|| packer.isDue(System.currentTimeMillis()))
+			packer.writeOpenWindows();
+	}
+
+	// Release the held rows unless some of their readings still wait in an open packed window
+	private void releaseHeld() {
+		if (held > 0 && (packer == null || !packer.hasUnwritten() || stopped != null)) {
+			buffer.release(held);
+			held = 0;
+		}
+	}
+
+	// Write the open packed windows instead of waiting for pack.linger.ms until the rows up to seq are released
+	void requestFlush(long seq) {
+		flushSeq = seq;
+	}
+
+	// Write every row of the current batch, including new sensor-type entries, with a single multiPut
+	private void writeBatch() {
+		if (batch.isEmpty() && (packer == null || packer.isEmpty()))
+			return;
+		// Whether the batch was cut by the row limit rather than by the linger time
+		boolean full = Math.max(batch.rowCount(), batch.recordCount()) >= controller.rowLimit();
+		try {
+			// Rows of a container are appended in timestamp order, rows that would overwrite each other are merged
+			int merged = batch.coalesce(coalescer);
+			if (merged > 0)
+				metrics.recordCoalesced(merged);
+			// The rollups count the rows that are actually written
+			if (rollups != null)
+				batch.addTo(rollups);
+
+			awaitConnection();
+
+			// The packed rows of the windows this batch changes replace its data-log rows
+			if (packer != null && !packer.isEmpty())
+				packer.addTo(batch, rows, containers, store);
+
+			// The rollup rows of the buckets this batch changes are written with the same multiPut
+			if (rollups != null && !rollups.isEmpty())
+				rollups.addTo(batch, rows, containers, store);
+			// So are the offsets up to which the earlier batches have been written
+			if (offsets != null)
+				offsets.addTo(batch, rows, containers);
+
+			// If sensor-type container does not have an record of a certain sensor-id
+			// insert it with the sensor-id as the Key in the same batch.
+			// Only sensor-ids missing from the in-memory catalog are looked up in GridDB, with a single multiGet
+			long start = System.nanoTime();
+			// multiGet needs the sensor-type container to exist as well, it is created once and then cached
+			if (!batchSensors.isEmpty())
+				containers.collection(GridDBSinkTask.SENSOR_TYPE_NAME, GridDBSinkTask.SensorType.class);
+			Set<String> unrecorded = catalog.findUnrecorded(store, batchSensors.keySet());
+			metrics.catalogCheck.record(System.nanoTime() - start);
+			if (!unrecorded.isEmpty()) {
+				for (String id : unrecorded) {
+					PendingRow sensor = batchSensors.get(id);
+					if (log.isDebugEnabled())
+						log.debug("Putting sensor {} of type {} into {}", id, sensor.typeName(),
+							GridDBSinkTask.SENSOR_TYPE_NAME);
+					Row row = rows.take(GridDBSinkTask.SENSOR_TYPE_INFO);
+					row.setString(0, id);
+					row.setTimestamp(1, sensor.time());
+					row.setString(2, sensor.typeName());
+					batch.addRow(GridDBSinkTask.SENSOR_TYPE_NAME, row, GridDBSinkTask.SENSOR_ROW_BYTES + id.length());
+				}
+				newSensors.addAll(unrecorded);
+				catalog.addAll(unrecorded);
+			}
+
+			// Readings that wait in open packed windows may leave nothing to put
+			if (batch.rowCount() > 0) {
+				long writeNanos = multiPut();
+				metrics.write.record(writeNanos);
+				controller.written(writeNanos, full);
+				metrics.batchRows.record(batch.rowCount());
+			}
+			if (packer != null)
+				packer.written();
+			if (rollups != null)
+				rollups.written();
+			// The offsets of readings in open packed windows only count as written once those have been
+			if (offsets != null)
+				offsets.written(packer == null || !packer.hasUnwritten());
+			if (log.isDebugEnabled())
+				log.debug("Wrote {} rows ({} bytes) into {} containers", batch.rowCount(), batch.byteCount(),
+					batch.containerRows().size());
+		} catch (Exception ex) {
+			if (ex instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+			log.error("Failed to write batch of {} rows into GridDB, failed records: [{}]", batch.rowCount(),
+				batch.describeRecords(), ex);
+			metrics.recordError("write:" + ex.getClass().getSimpleName());
+			failure.compareAndSet(null, ex);
+			controller.failed();
+			if (packer != null)
+				packer.discard();
+			if (rollups != null)
+				rollups.discard();
+			if (offsets != null)
+				offsets.discard();
+			// The sensor-type entries were not written either, check them again on the next batch
+			catalog.removeAll(newSensors);
+			invalidateContainers();
+		} finally {
+			// multiPut has serialized the rows (or failed), either way they can be reused
+			for (Map.Entry<String, List<Row>> entry : batch.containerRows().entrySet()) {
+				ContainerInfo info = SinkBatch.containerInfo(entry.getValue());
+				rows.release(info != null ? info : GridDBSinkTask.SENSOR_TYPE_INFO, entry.getValue());
+			}
+			batch.clear();
+			batchSensors.clear();
+			newSensors.clear();
+		}
+	}
+
+	// Wait for a connection, trying up to writeRetries more times with backoff before giving up on the batch
+	private void awaitConnection() throws GSException, InterruptedException {
+		for (int attempt = 1; !connect() && attempt <= writeRetries; attempt++)
+			Thread.sleep(connection.backoffMs(attempt));
+		connection.store();
+	}
+
+	// Create the containers of the batch and write its rows, retrying a failed attempt. Writing the same rows
+	// again is safe, every row is keyed and a repeated put leaves the same values behind. Returns the time
+	// of the successful multiPut.
+	private long multiPut() throws GSException, InterruptedException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				// multiPut only writes into existing containers, so create them first
+				// (only the first use of a container pays for the put round trip)
+				long start = System.nanoTime();
+				for (Map.Entry<String, List<Row>> entry : batch.containerRows().entrySet()) {
+					ContainerInfo info = SinkBatch.containerInfo(entry.getValue());
+					if (info == null)
+						containers.collection(entry.getKey(), GridDBSinkTask.SensorType.class);
+					else if (info.getType() == ContainerType.TIME_SERIES)
+						containers.timeSeries(entry.getKey(), info);
+					else
+						containers.collection(entry.getKey(), info);
+				}
+				metrics.containerLookup.record(System.nanoTime() - start);
+
+				start = System.nanoTime();
+				store.multiPut(batch.containerRows());
+				return System.nanoTime() - start;
+			} catch (GSException ex) {
+				if (attempt > writeRetries)
+					throw ex;
+				log.warn("Failed to write batch of {} rows into GridDB (attempt {}), retrying", batch.rowCount(),
+					attempt, ex);
+				metrics.recordError("retry");
+				controller.failed();
+				invalidateContainers();
+				Thread.sleep(connection.backoffMs(attempt));
+				// A failover breaks the connection, the rows are written over a new one
+				if (!connection.check())
+					awaitConnection();
+			}
+		}
+	}
+
+	// The cached handles used by this batch may be stale, open them again
+	private void invalidateContainers() {
+		for (Map.Entry<String, List<Row>> entry : batch.containerRows().entrySet()) {
+			ContainerInfo info = SinkBatch.containerInfo(entry.getValue());
+			if (info != null)
+				containers.invalidate(entry.getKey(), info);
+		}
+		containers.invalidate(GridDBSinkTask.SENSOR_TYPE_NAME, GridDBSinkTask.SensorType.class);
+	}
+
+	// Write the offsets that have advanced since they were last stored in a multiPut of their own
+	private void writeOffsets() {
+		if (offsets == null || !connection.isConnected())
+			return;
+		offsets.sync();
+		if (!offsets.isDirty())
+			return;
+		try {
+			offsets.addTo(batch, rows, containers);
+		} catch (Exception ex) {
+			log.warn("Failed to open {}", OffsetTracker.OFFSETS_NAME, ex);
+			containers.invalidate(OffsetTracker.OFFSETS_NAME, OffsetTracker.OFFSETS_INFO);
+			return;
+		}
+		writeBatch();
+	}
+
+	// Returns (and clears) the first failure since the last call, or null if every row was written
+	// Connect delivers the records since its last commit again after a failed flush, they may be written again
+	Exception takeFailure() {
+		Exception taken = failure.getAndSet(null);
+		if (taken == null && stopped != null)
+			taken = stoppedException();
+		if (taken != null && offsets != null)
+			offsets.resume();
+		if (taken != null && rollups != null)
+			rollups.resume();
+		return taken;
+	}
+
+	// Throw once the thread has stopped before close(), instead of waiting for rows it will never write
+	void checkRunning() {
+		if (stopped != null)
+			throw stoppedException();
+	}
+
+	private ConnectException stoppedException() {
+		return new ConnectException("Writer " + name + " has stopped", stopped);
+	}
+
+	OffsetTracker offsets() {
+		return offsets;
+	}
+
+	// Stop once the buffer has been drained, then release the GridStore
+	void close() throws InterruptedException {
+		running = false;
+		if (thread != null)
+			thread.join();
+		log.info("Closing {}", containers);
+		containers.clear();
+		connection.close();
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowKeyPredicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GridDBWriterPool shards the rows of a task over several GridDBWriters, each with its own
+ * GridStore connection and write-behind buffer. Rows are routed by a hash of the sensor-id, so
+ * every container is always written by the same writer (keeping its rows in order) while
+ * different containers are written in parallel.
+ * When several GridDB clusters are configured, each sensor-id is first assigned to a cluster
+ * with a consistent hash ring, and every cluster gets its own writers. A sensor's data-log
+ * container and its Sensor_Types entry therefore always live on the same cluster.
+ */
+class GridDBWriterPool {
+	private static final Logger log = LoggerFactory.getLogger(GridDBWriterPool.class);
+
+	// How long flush() waits for the writers before checking whether they are still running
+	private static final long POLL_MS = 100;
+
+	private final GridDBWriter[] writers;
+	private final WriteBehindBuffer[] buffers;
+	private final BatchController[] controllers;
+	// Writers per cluster; the writers of cluster c are at [c * writersPerCluster, (c + 1) * writersPerCluster)
+	private final int writersPerCluster;
+	private final ConsistentHashRing clusters;
+	private final List<String> clusterNames = new ArrayList<>();
+	private final List<Properties> clusterProps = new ArrayList<>();
+	private final GridStoreProvider stores;
+	private final SinkTaskMetrics metrics;
+	// Buffer of the slot returned by the last claim()
+	private WriteBehindBuffer claimed;
+
+	GridDBWriterPool(AbstractConfig config, Properties gsprops, GridStoreProvider stores, SinkTaskMetrics metrics,
+			String connector) {
+		this.metrics = metrics;
+		this.stores = stores;
+		List<String> targets = config.getList(GridDBSinkConnector.CLUSTERS_CONFIG);
+		if (targets.isEmpty()) {
+			clusterNames.add(gsprops.getProperty("clusterName"));
+			clusterProps.add(gsprops);
+		} else {
+			for (String target : targets) {
+				clusterNames.add(target);
+				clusterProps.add(clusterProperties(gsprops, target));
+			}
+		}
+		clusters = new ConsistentHashRing(clusterNames);
+
+		writersPerCluster = config.getInt(GridDBSinkConnector.WRITER_COUNT_CONFIG);
+		int count = writersPerCluster * clusterProps.size();
+		int bufferRows = Math.max(1, config.getInt(GridDBSinkConnector.BUFFER_MAX_ROWS_CONFIG) / count);
+		writers = new GridDBWriter[count];
+		buffers = new WriteBehindBuffer[count];
+		controllers = new BatchController[count];
+		Rollups.Interval[] rollupIntervals = Rollups.intervals(GridDBSinkConnector.ROLLUP_INTERVALS_CONFIG,
+			config.getList(GridDBSinkConnector.ROLLUP_INTERVALS_CONFIG));
+		int cacheSize = config.getInt(GridDBSinkConnector.CONTAINER_CACHE_SIZE_CONFIG);
+		boolean trackOffsets = config.getBoolean(GridDBSinkConnector.OFFSET_TRACKING_CONFIG);
+		int maxBatchRows = config.getInt(GridDBSinkConnector.BATCH_MAX_ROWS_CONFIG);
+		long backoffMs = config.getLong(GridDBSinkConnector.RETRY_BACKOFF_MS_CONFIG);
+		long maxBackoffMs = config.getLong(GridDBSinkConnector.RETRY_BACKOFF_MAX_MS_CONFIG);
+		long packWindowMs = config.getLong(GridDBSinkConnector.PACK_WINDOW_MS_CONFIG);
+		long packLingerMs = config.getLong(GridDBSinkConnector.PACK_LINGER_MS_CONFIG);
+
+		for (int c = 0; c < clusterProps.size(); c++) {
+			// Each cluster has its own Sensor_Types container, so its known sensor-ids are tracked separately
+			SensorCatalog catalog = new SensorCatalog(GridDBSinkTask.SENSOR_TYPE_NAME);
+			for (int w = 0; w < writersPerCluster; w++) {
+				int i = c * writersPerCluster + w;
+				GridStoreConnection connection = new GridStoreConnection(stores, clusterProps.get(c), clusterNames.get(c),
+					GridDBSinkTask.SENSOR_TYPE_NAME, backoffMs, maxBackoffMs, metrics);
+				// Every data-log container has a rollup container per interval and maybe a packed one, kept open as well
+				ContainerCache containers = new ContainerCache(null,
+					cacheSize * (1 + rollupIntervals.length + (packWindowMs > 0 ? 1 : 0)),
+					config.getLong(GridDBSinkConnector.CONTAINER_CACHE_IDLE_MS_CONFIG));
+				metrics.addContainerCache(containers);
+				buffers[i] = new WriteBehindBuffer(bufferRows);
+				// Every sensor is written by a single writer, so each writer keeps the rollups of its own sensors
+				Rollups rollups = rollupIntervals.length == 0 ? null
+					: new Rollups(rollupIntervals, cacheSize * rollupIntervals.length);
+				// So are the latest packed windows
+				WindowPacker packer = packWindowMs > 0 ? new WindowPacker(packWindowMs, packLingerMs, cacheSize) : null;
+				// Every writer adapts its batches to the latency of its own connection
+				BatchController controller = controllers[i] = new BatchController(
+					config.getInt(GridDBSinkConnector.BATCH_MIN_ROWS_CONFIG), maxBatchRows,
+					config.getLong(GridDBSinkConnector.BATCH_LINGER_MS_CONFIG),
+					config.getLong(GridDBSinkConnector.BATCH_LATENCY_TARGET_MS_CONFIG));
+				metrics.addBatchController(controller);
+				writers[i] = new GridDBWriter("griddb-sink-writer-" + i, connection, containers, catalog, w == 0, buffers[i],
+					metrics, rollups, packer, trackOffsets ? new OffsetTracker(connector, i, count) : null, controller, maxBatchRows,
+					config.getLong(GridDBSinkConnector.BATCH_MAX_BYTES_CONFIG),
+					config.getInt(GridDBSinkConnector.WRITE_RETRIES_CONFIG),
+					config.getString(GridDBSinkConnector.BATCH_DUPLICATE_POLICY_CONFIG));
+				// A cluster that cannot be reached yet is connected to by the writer once it is back
+				writers[i].connect();
+			}
+		}
+	}
+
+	// Connection properties for a cluster given as host:port/clusterName, the credentials are shared
+	static Properties clusterProperties(Properties gsprops, String target) {
+		int colon = target.indexOf(':');
+		int slash = target.indexOf('/', colon + 1);
+		if (colon <= 0 || slash <= colon + 1 || slash == target.length() - 1)
+			throw new ConfigException(GridDBSinkConnector.CLUSTERS_CONFIG, target,
+				"Clusters must be given as host:port/clusterName");
+		Properties props = new Properties();
+		props.putAll(gsprops);
+		props.setProperty("notificationAddress", target.substring(0, colon).trim());
+		props.setProperty("notificationPort", target.substring(colon + 1, slash).trim());
+		props.setProperty("clusterName", target.substring(slash + 1).trim());
+		return props;
+	}
+
+	void start() {
+		metrics.setBufferDepth(this::depth);
+		for (GridDBWriter writer : writers)
+			writer.start();
+	}
+
+	// Hand the offsets stored in Sink_Offsets for newly assigned partitions over to the writers. Returns, per
+	// partition, the offset up to which every writer has written its rows, so records up to it can be skipped
+	// without decoding them. A partition that cannot be looked up is written again from Connect's offset.
+	Map<TopicPartition, Long> open(Collection<TopicPartition> partitions) {
+		Map<TopicPartition, Long> written = new HashMap<>();
+		if (writers[0].offsets() == null || partitions.isEmpty())
+			return written;
+		for (TopicPartition partition : partitions)
+			written.put(partition, Long.MAX_VALUE);
+		for (int c = 0; c < clusterProps.size(); c++) {
+			GridStore store = null;
+			Map<String, Long> stored = new HashMap<>();
+			try {
+				// The writers own their GridStores, the offsets are read through a connection of their own
+				store = stores.getGridStore(clusterProps.get(c));
+				if (store.getContainerInfo(OffsetTracker.OFFSETS_NAME) != null) {
+					RowKeyPredicate<String> keys = RowKeyPredicate.create(String.class);
+					for (int i = c * writersPerCluster; i < (c + 1) * writersPerCluster; i++) {
+						for (TopicPartition partition : partitions)
+							keys.add(writers[i].offsets().key(partition.topic(), partition.partition()));
+					}
+					List<Row> rows = store.multiGet(Collections.singletonMap(OffsetTracker.OFFSETS_NAME, keys))
+						.get(OffsetTracker.OFFSETS_NAME);
+					if (rows != null) {
+						for (Row row : rows)
+							stored.put(row.getString(0), row.getLong(1));
+					}
+				}
+			} catch (Exception ex) {
+				log.warn("Failed to read the written offsets from cluster {}, its records are written again",
+					clusterNames.get(c), ex);
+				metrics.recordError("offsets");
+			} finally {
+				if (store != null) {
+					try {
+						store.close();
+					} catch (Exception ex) {
+						log.debug("Failed to close GridStore", ex);
+					}
+				}
+			}
+			for (int i = c * writersPerCluster; i < (c + 1) * writersPerCluster; i++) {
+				OffsetTracker offsets = writers[i].offsets();
+				for (TopicPartition partition : partitions) {
+					Long offset = stored.get(offsets.key(partition.topic(), partition.partition()));
+					long writerOffset = offset == null ? -1 : offset;
+					if (offset != null)
+						offsets.load(partition, writerOffset);
+					written.put(partition, Math.min(written.get(partition), writerOffset));
+				}
+			}
+		}
+		return written;
+	}
+
+	// Forget the offsets of partitions that are no longer assigned to this task
+	void revoke(Collection<TopicPartition> partitions) {
+		for (GridDBWriter writer : writers) {
+			if (writer.offsets() == null)
+				continue;
+			for (TopicPartition partition : partitions)
+				writer.offsets().revoke(partition);
+		}
+	}
+
+	// Whether every writer is connected to its cluster. Records for a writer without a connection could only
+	// be written after it reconnects, so the task does not take any until then.
+	boolean isConnected() {
+		for (GridDBWriter writer : writers) {
+			if (!writer.isConnected())
+				return false;
+		}
+		return true;
+	}
+
+	// Time until every writer without a connection has tried to reconnect, 0 while all are connected
+	long millisUntilReconnect() {
+		long millis = 0;
+		for (GridDBWriter writer : writers)
+			millis = Math.max(millis, writer.millisUntilReconnect());
+		return millis;
+	}
+
+	// Smoothed write latency of the slowest writer
+	long writeLatencyNanos() {
+		long nanos = 0;
+		for (BatchController controller : controllers)
+			nanos = Math.max(nanos, controller.recentLatencyNanos());
+		return nanos;
+	}
+
+	// Index of the writer that owns the container of the given sensor-id
+	int writerFor(String id) {
+		int cluster = writers.length == writersPerCluster ? 0 : clusters.nodeFor(id);
+		return cluster * writersPerCluster + (id.hashCode() & Integer.MAX_VALUE) % writersPerCluster;
+	}
+
+	// Get a free slot in the buffer of the writer that owns the given sensor-id, see WriteBehindBuffer.claim()
+	PendingRow claim(String id) throws InterruptedException {
+		claimed = buffers[writerFor(id)];
+		return claimed.claim();
+	}
+
+	// Like claim(), but returns null instead of waiting while the buffer is full
+	PendingRow tryClaim(String id) {
+		claimed = buffers[writerFor(id)];
+		return claimed.tryClaim();
+	}
+
+	// Buffer of the writer that owns the given sensor-id, for producers other than the task thread (e.g. the
+	// spill journal's drainer) that never claim while the task thread does
+	WriteBehindBuffer bufferFor(String id) {
+		return buffers[writerFor(id)];
+	}
+
+	// Hand the slot returned by the last claim() over to its writer
+	void publish() {
+		claimed.publish();
+	}
+
+	// Wait up to timeoutMs until every row published so far has been written by its writer.
+	// Throws if any writer failed to write a row since the last flush, has stopped, or the time has run out.
+	void flush(long timeoutMs) throws InterruptedException {
+		long[] published = new long[buffers.length];
+		for (int i = 0; i < buffers.length; i++)
+			published[i] = buffers[i].publishedSeq();
+		// The rows of readings in open packed windows are only released once those have been written
+		for (int i = 0; i < writers.length; i++)
+			writers[i].requestFlush(published[i]);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		for (int i = 0; i < buffers.length; i++) {
+			while (!buffers[i].awaitReleased(published[i], POLL_MS)) {
+				writers[i].checkRunning();
+				if (System.nanoTime() - deadline >= 0)
+					throw new RetriableException("The writers have not written their rows within " + timeoutMs + " ms");
+			}
+		}
+		// A writer that stopped while writing has released its rows without writing them
+		checkRunning();
+
+		Exception failure = takeFailure();
+		if (failure != null)
+			throw new ConnectException("Failed to write rows into GridDB", failure);
+	}
+
+	// Throw if any writer thread has stopped before close()
+	void checkRunning() {
+		for (GridDBWriter writer : writers)
+			writer.checkRunning();
+	}
+
+	// Returns (and clears) the first failure of any writer since the last call, or null
+	Exception takeFailure() {
+		Exception failure = null;
+		for (GridDBWriter writer : writers) {
+			Exception writerFailure = writer.takeFailure();
+			if (failure == null)
+				failure = writerFailure;
+		}
+		return failure;
+	}
+
+	// Sequence number of the last row published to every buffer
+	long[] publishedSeqs() {
+		long[] published = new long[buffers.length];
+		for (int i = 0; i < buffers.length; i++)
+			published[i] = buffers[i].publishedSeq();
+		return published;
+	}
+
+	// Whether the writers have released every row up to the given sequence numbers of publishedSeqs()
+	boolean isReleased(long[] published) {
+		for (int i = 0; i < buffers.length; i++) {
+			if (!buffers[i].isReleased(published[i]))
+				return false;
+		}
+		return true;
+	}
+
+	// Number of rows waiting in all buffers
+	int depth() {
+		int depth = 0;
+		for (WriteBehindBuffer buffer : buffers)
+			depth += buffer.size();
+		return depth;
+	}
+
+	int size() {
+		return writers.length;
+	}
+
+	// Rows all buffers can hold
+	int capacity() {
+		int capacity = 0;
+		for (WriteBehindBuffer buffer : buffers)
+			capacity += buffer.capacity();
+		return capacity;
+	}
+
+	// Drain every buffer and close the writers' connections
+	void close() throws InterruptedException {
+		for (GridDBWriter writer : writers)
+			writer.close();
+	}
+}
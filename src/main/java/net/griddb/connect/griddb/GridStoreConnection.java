@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GridStoreConnection owns the GridStore of one writer (or task) and replaces it when it breaks.
+ * A new GridStore is only handed out once a round trip through it has succeeded, failed attempts are
+ * spaced out with exponential backoff with jitter, so a cluster that is failing over is not flooded
+ * with logins by every writer at once. The owner calls check() after a failed operation to find out
+ * whether the connection itself is broken.
+ * Used by a single thread, isConnected() and millisUntilDue() can be called from any thread.
+ */
+class GridStoreConnection {
+	private static final Logger log = LoggerFactory.getLogger(GridStoreConnection.class);
+
+	private final GridStoreProvider stores;
+	private final Properties props;
+	private final String cluster;
+	// Container looked up to test a connection, it does not have to exist
+	private final String probeContainer;
+	private final long backoffMs;
+	private final long maxBackoffMs;
+	private final SinkTaskMetrics metrics;
+
+	private volatile GridStore store;
+	// Failed connection attempts since the last successful one
+	private int attempts;
+	private volatile long nextAttemptNanos = System.nanoTime();
+
+	GridStoreConnection(GridStoreProvider stores, Properties props, String cluster, String probeContainer,
+			long backoffMs, long maxBackoffMs, SinkTaskMetrics metrics) {
+		this.stores = stores;
+		this.props = props;
+		this.cluster = cluster;
+		this.probeContainer = probeContainer;
+		this.backoffMs = backoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+		this.metrics = metrics;
+	}
+
+	boolean isConnected() {
+		return store != null;
+	}
+
+	// The connected GridStore, throws when there is none
+	GridStore store() throws GSException {
+		GridStore current = store;
+		if (current == null)
+			throw new GSException("Not connected to GridDB cluster " + cluster);
+		return current;
+	}
+
+	// Whether the backoff after the last failed attempt has passed
+	boolean isDue() {
+		return System.nanoTime() - nextAttemptNanos >= 0;
+	}
+
+	// Time left until the next connection attempt, 0 once it is due
+	long millisUntilDue() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(nextAttemptNanos - System.nanoTime()));
+	}
+
+	// Open a new GridStore and test it with a round trip. Returns the connected GridStore, or null on failure.
+	GridStore connect() {
+		if (store != null)
+			return store;
+		GridStore opened = null;
+		try {
+			opened = stores.getGridStore(props);
+			opened.getContainerInfo(probeContainer);
+		} catch (Exception ex) {
+			close(opened);
+			attempts++;
+			long delay = backoffMs(attempts);
+			nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+			log.warn("Failed to connect to GridDB cluster {} (attempt {}), retrying in {} ms", cluster, attempts, delay,
+				ex);
+			metrics.recordError("connect");
+			return null;
+		}
+		if (attempts > 0)
+			log.info("Connected to GridDB cluster {} after {} failed attempts", cluster, attempts);
+		attempts = 0;
+		store = opened;
+		return opened;
+	}
+
+	// Test the connection after an operation failed, a broken one is closed. Returns whether it is still connected.
+	boolean check() {
+		GridStore current = store;
+		if (current == null)
+			return false;
+		try {
+			current.getContainerInfo(probeContainer);
+			return true;
+		} catch (Exception ex) {
+			log.warn("Lost the connection to GridDB cluster {}", cluster, ex);
+			metrics.recordError("disconnect");
+			store = null;
+			close(current);
+			return false;
+		}
+	}
+
+	// Time to wait before the given retry: doubles per attempt up to the maximum, half of it randomized so
+	// that the writers of all tasks do not retry in lock step
+	long backoffMs(int attempt) {
+		long delay = backoffMs << Math.min(Math.max(attempt - 1, 0), 30);
+		if (delay <= 0 || delay > maxBackoffMs)
+			delay = maxBackoffMs;
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	void close() {
+		GridStore current = store;
+		store = null;
+		close(current);
+	}
+
+	private static void close(GridStore store) {
+		if (store == null)
+			return;
+		try {
+			store.close();
+		} catch (Exception ex) {
+			log.debug("Failed to close GridStore", ex);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.GridStoreFactory;
+
+import java.util.Properties;
+
+/**
+ * GridStoreProvider opens the GridStore connections of a task.
+ * Tasks use GridStoreFactory, benchmarks and tests can hand in a stub store instead.
+ */
+interface GridStoreProvider {
+	GridStoreProvider FACTORY = new GridStoreProvider() {
+		@Override public GridStore getGridStore(Properties props) throws GSException {
+			return GridStoreFactory.getInstance().getGridStore(props);
+		}
+	};
+
+	GridStore getGridStore(Properties props) throws GSException;
+}
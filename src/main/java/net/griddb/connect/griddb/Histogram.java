@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram is a fixed-size, lock-free histogram of non-negative long values (e.g. nanoseconds).
+ * Values are counted in buckets of 4 sub-buckets per power of two, so recording is a couple of
+ * bit operations and an atomic increment, and percentiles are accurate to within 25%.
+ */
+class Histogram {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value))
+			current = max.get();
+	}
+
+	// Values below SUB_BUCKETS get a bucket each, larger values are bucketed by their
+	// highest bit and the SUB_BUCKET_BITS bits below it
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// Largest value that falls into the given bucket
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lower = (1L << exponent) | (sub << (exponent - SUB_BUCKET_BITS));
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	long count() {
+		return count.sum();
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	double mean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	// Approximate value at the given quantile (0 to 1)
+	long percentile(double quantile) {
+		long n = count.sum();
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(quantile * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	// Snapshot scaled by the given divisor (e.g. 1000 to report nanoseconds as microseconds)
+	HistogramSnapshot snapshot(double scale) {
+		return new HistogramSnapshot(count(), mean() / scale, percentile(0.5) / scale,
+			percentile(0.99) / scale, percentile(0.999) / scale, max() / scale);
+	}
+}
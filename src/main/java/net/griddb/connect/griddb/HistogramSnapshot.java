@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point-in-time view of a Histogram, published over JMX as a composite value
+ */
+public class HistogramSnapshot {
+	private final long count;
+	private final double mean;
+	private final double p50;
+	private final double p99;
+	private final double p999;
+	private final double max;
+
+	@ConstructorProperties({"count", "mean", "p50", "p99", "p999", "max"})
+	public HistogramSnapshot(long count, double mean, double p50, double p99, double p999, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getP999() {
+		return p999;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	@Override public String toString() {
+		return String.format("count=%d mean=%.1f p50=%.1f p99=%.1f p999=%.1f max=%.1f",
+			count, mean, p50, p99, p999, max);
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.common.TopicPartition;
+
+import com.toshiba.mwcloud.gs.ColumnInfo;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * OffsetTracker keeps, for one writer, the highest Kafka offset per topic-partition up to which the writer
+ * has written every row it was given. The offsets are stored in the Sink_Offsets collection by the writer's
+ * own multiPuts, so after a restart or rebalance the records it has already written are skipped instead
+ * of being written again.
+ * A writer only gets the rows of its own sensors, so the offsets are kept per writer under a key that
+ * also holds the number of writers; with another writer.count or cluster list nothing is skipped.
+ * Only load(), revoke() and resume() may be called by other threads, the rest belongs to the writer thread.
+ */
+class OffsetTracker {
+	static final String OFFSETS_NAME = "Sink_Offsets";
+	static final ContainerInfo OFFSETS_INFO = new ContainerInfo(null, ContainerType.COLLECTION,
+		Arrays.asList(new ColumnInfo("key", GSType.STRING), new ColumnInfo("offset", GSType.LONG),
+			new ColumnInfo("time", GSType.TIMESTAMP)), true);
+	// Rough size of an offset row (key, offset and timestamp), used for the batch byte limit
+	private static final int OFFSET_ROW_BYTES = 64;
+	// Offset handed over by revoke()
+	private static final long REVOKED = Long.MIN_VALUE;
+
+	// Offsets of one topic-partition, keyed by topic and partition
+	private static final class Partition {
+		String topic;
+		int partition;
+		String key;
+		// Every row of this partition up to this offset has been written
+		long written = -1;
+		// Highest offset in Sink_Offsets, and the one written by the current batch
+		long stored = -1;
+		long storing = -1;
+		// Highest offset in the current batch
+		long batched = -1;
+
+		Partition set(String topic, int partition) {
+			this.topic = topic;
+			this.partition = partition;
+			return this;
+		}
+
+		@Override public boolean equals(Object o) {
+			if (!(o instanceof Partition))
+				return false;
+			Partition other = (Partition) o;
+			return partition == other.partition && topic.equals(other.topic);
+		}
+
+		@Override public int hashCode() {
+			return topic.hashCode() * 31 + partition;
+		}
+	}
+
+	private static final class Update {
+		final TopicPartition partition;
+		final long offset;
+
+		Update(TopicPartition partition, long offset) {
+			this.partition = partition;
+			this.offset = offset;
+		}
+	}
+
+	private final String connector;
+	private final String writerSuffix;
+	private final Map<Partition, Partition> partitions = new HashMap<>();
+	// Reused for lookups so that checking a record does not allocate
+	private final Partition probe = new Partition();
+	// Partitions with rows in the current batch
+	private final List<Partition> batchPartitions = new ArrayList<>();
+	private final ConcurrentLinkedQueue<Update> updates = new ConcurrentLinkedQueue<>();
+	private final Date now = new Date();
+	// Set after a failed write: rows of the failed batch will be delivered again, so no offset may pass them
+	private boolean frozen;
+	private volatile boolean resumeRequested;
+
+	OffsetTracker(String connector, int writer, int writers) {
+		this.connector = connector == null ? "" : connector;
+		this.writerSuffix = "/" + writer + "of" + writers;
+	}
+
+	// Row key of the offset of a topic-partition written by this tracker's writer
+	String key(String topic, int partition) {
+		return connector + '/' + topic + '/' + partition + writerSuffix;
+	}
+
+	// Hand over the offset stored for a newly assigned partition
+	void load(TopicPartition partition, long offset) {
+		updates.add(new Update(partition, offset));
+	}
+
+	// Forget a partition that is no longer assigned to this task
+	void revoke(TopicPartition partition) {
+		updates.add(new Update(partition, REVOKED));
+	}
+
+	// The failure has been reported by a flush and Connect delivers the records since its last commit again
+	void resume() {
+		resumeRequested = true;
+	}
+
+	// Apply the updates of the other threads, called by the writer before it uses the offsets
+	void sync() {
+		if (resumeRequested) {
+			resumeRequested = false;
+			frozen = false;
+		}
+		Update update;
+		while ((update = updates.poll()) != null) {
+			if (update.offset == REVOKED) {
+				partitions.remove(probe.set(update.partition.topic(), update.partition.partition()));
+			} else {
+				Partition partition = partition(update.partition.topic(), update.partition.partition());
+				partition.written = Math.max(partition.written, update.offset);
+				partition.stored = Math.max(partition.stored, update.offset);
+			}
+		}
+	}
+
+	private Partition partition(String topic, int partition) {
+		Partition found = partitions.get(probe.set(topic, partition));
+		if (found == null) {
+			found = new Partition().set(topic, partition);
+			found.key = key(topic, partition);
+			partitions.put(found, found);
+		}
+		return found;
+	}
+
+	// Whether the row of this record has been written already
+	boolean isWritten(PendingRow row) {
+		if (row.topic == null)
+			return false;
+		Partition partition = partitions.get(probe.set(row.topic, row.partition));
+		return partition != null && row.offset <= partition.written;
+	}
+
+	// The row of this record is part of the current batch
+	void add(PendingRow row) {
+		if (row.topic == null)
+			return;
+		Partition partition = partition(row.topic, row.partition);
+		if (partition.batched < 0)
+			batchPartitions.add(partition);
+		partition.batched = Math.max(partition.batched, row.offset);
+	}
+
+	// A row could not be written
+	void failed() {
+		frozen = true;
+	}
+
+	// Whether there are offsets that are not in Sink_Offsets yet
+	boolean isDirty() {
+		for (Partition partition : partitions.values()) {
+			if (partition.written > partition.stored)
+				return true;
+		}
+		return false;
+	}
+
+	// Add a row to the batch for every offset that has advanced since it was last stored. The offsets only
+	// cover rows of earlier batches, so they are right even if the multiPut only writes some of the containers.
+	void addTo(SinkBatch batch, RowPool rows, ContainerCache containers) throws GSException {
+		boolean created = false;
+		now.setTime(System.currentTimeMillis());
+		for (Partition partition : partitions.values()) {
+			// Skip offsets that are stored already or are part of this batch
+			if (partition.written <= Math.max(partition.stored, partition.storing))
+				continue;
+			if (!created) {
+				containers.collection(OFFSETS_NAME, OFFSETS_INFO);
+				created = true;
+			}
+			Row row = rows.take(OFFSETS_INFO);
+			row.setString(0, partition.key);
+			row.setLong(1, partition.written);
+			row.setTimestamp(2, now);
+			batch.addRow(OFFSETS_NAME, OFFSETS_INFO, row, OFFSET_ROW_BYTES);
+			partition.storing = partition.written;
+		}
+	}
+
+	// The current batch has been written. Unless every row added so far is, the offsets of the rows stay
+	// batched until a later batch completes them.
+	void written(boolean complete) {
+		for (Partition partition : partitions.values()) {
+			partition.stored = Math.max(partition.stored, partition.storing);
+			partition.storing = -1;
+		}
+		if (!complete)
+			return;
+		for (Partition partition : batchPartitions) {
+			if (!frozen)
+				partition.written = Math.max(partition.written, partition.batched);
+			partition.batched = -1;
+		}
+		batchPartitions.clear();
+	}
+
+	// The current batch could not be written
+	void discard() {
+		frozen = true;
+		for (Partition partition : partitions.values())
+			partition.storing = -1;
+		for (Partition partition : batchPartitions)
+			partition.batched = -1;
+		batchPartitions.clear();
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.data.Struct;
+
+import java.util.Date;
+
+/**
+ * A decoded sensor reading waiting in the write-behind buffer, along with the Kafka
+ * coordinates of the record it came from. Instances are slots of the buffer and are reused.
+ * A reading is either one of the known sensor kinds (kind, first and second) or a Struct
+ * value with the compiled mapping of its schema (mapping, struct and type).
+ */
+final class PendingRow {
+	// Container (sensor-id) the row is written into
+	String container;
+	long timestamp;
+	SensorKind kind;
+	double first;
+	double second;
+	StructRowMapping mapping;
+	Struct struct;
+	String type;
+
+	// Originating record
+	String topic;
+	int partition;
+	long offset;
+
+	// Handed to Row.setTimestamp, which keeps the reference, so it is only reused once the slot is released
+	private final Date time = new Date(0);
+
+	// The timestamp as a Date, without allocating one per row
+	Date time() {
+		time.setTime(timestamp);
+		return time;
+	}
+
+	// Sensor type recorded in Sensor_Types
+	String typeName() {
+		return kind != null ? kind.typeName : type;
+	}
+
+	@Override public String toString() {
+		return topic + "-" + partition + "@" + offset;
+	}
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.common.config.ConfigException;
+
+import com.toshiba.mwcloud.gs.ColumnInfo;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowKeyPredicate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rollups keeps running aggregates of the rows a GridDBWriter writes: the row count and the sum, sum of
+ * squares, minimum and maximum of every numeric column, in buckets of each configured interval. They are
+ * written with the same multiPut as the rows, into companion TimeSeries named &lt;container&gt;_&lt;interval&gt;
+ * (e.g. sensor-1_1m) with one row per bucket, keyed by the start of the bucket and rewritten as it fills up.
+ * The latest bucket of every rollup container is kept in memory, and a bucket after it starts out empty.
+ * Any other bucket (after a restart, for late rows, or once it has been evicted) is read back from GridDB
+ * before it is rewritten. The changes of a batch only become part of the kept buckets once it has been written.
+ * Every bucket records the topic-partition and the highest offset of the records folded into it, so records
+ * that Connect delivers again (after a failed flush, a restart or a rebalance) are not counted twice. After a
+ * failed write no bucket is changed until the failure has been reported, the records since then are counted
+ * when they are delivered again. A bucket fed by several partitions only knows the offset of the last one.
+ * Only resume() may be called by other threads, the rest belongs to the writer thread.
+ */
+class Rollups {
+	// Name suffix of a rollup container and the length of its buckets, e.g. 1m or 1h
+	static final class Interval {
+		final String suffix;
+		final long millis;
+
+		Interval(String suffix, long millis) {
+			this.suffix = suffix;
+			this.millis = millis;
+		}
+	}
+
+	private static final Pattern INTERVAL = Pattern.compile("(\\d+)([smhd])");
+	// Columns of a rollup row besides the aggregates of each numeric column
+	static final String TIME_COLUMN = "time";
+	static final String COUNT_COLUMN = "count";
+	static final String[] AGGREGATE_SUFFIXES = {"_sum", "_sumsq", "_min", "_max"};
+	// Columns after the aggregates: the topic-partition and offset of the last record folded into a bucket
+	static final String TOPIC_COLUMN = "topic";
+	static final String PARTITION_COLUMN = "partition";
+	static final String OFFSET_COLUMN = "offset";
+
+	// Parse intervals given as a number and a unit of s, m, h or d
+	static Interval[] intervals(String name, List<String> values) {
+		Interval[] intervals = new Interval[values.size()];
+		for (int i = 0; i < intervals.length; i++) {
+			String value = values.get(i).trim();
+			Matcher matcher = INTERVAL.matcher(value);
+			if (!matcher.matches() || Long.parseLong(matcher.group(1)) == 0)
+				throw new ConfigException(name, value, "Rollup intervals must be given as a number and a unit of s, m, h or d, e.g. 1m");
+			long amount = Long.parseLong(matcher.group(1));
+			TimeUnit unit = matcher.group(2).equals("s") ? TimeUnit.SECONDS : matcher.group(2).equals("m")
+				? TimeUnit.MINUTES : matcher.group(2).equals("h") ? TimeUnit.HOURS : TimeUnit.DAYS;
+			intervals[i] = new Interval(value, unit.toMillis(amount));
+		}
+		return intervals;
+	}
+
+	// Rollup schema of a data-log column layout: which columns are aggregated and the rollup ContainerInfo
+	static final class Layout {
+		final ContainerInfo info;
+		final int[] columns;
+		final GSType[] types;
+
+		Layout(ContainerInfo source) {
+			List<ColumnInfo> columnInfos = new ArrayList<>();
+			columnInfos.add(new ColumnInfo(TIME_COLUMN, GSType.TIMESTAMP));
+			columnInfos.add(new ColumnInfo(COUNT_COLUMN, GSType.LONG));
+			List<Integer> numeric = new ArrayList<>();
+			// The RowKey (column 0) is the timestamp, every other numeric column is aggregated
+			for (int i = 1; i < source.getColumnCount(); i++) {
+				ColumnInfo column = source.getColumnInfo(i);
+				if (!isNumeric(column.getType()))
+					continue;
+				numeric.add(i);
+				for (String suffix : AGGREGATE_SUFFIXES)
+					columnInfos.add(new ColumnInfo(column.getName() + suffix, GSType.DOUBLE));
+			}
+			columnInfos.add(new ColumnInfo(TOPIC_COLUMN, GSType.STRING));
+			columnInfos.add(new ColumnInfo(PARTITION_COLUMN, GSType.INTEGER));
+			columnInfos.add(new ColumnInfo(OFFSET_COLUMN, GSType.LONG));
+			info = new ContainerInfo(null, ContainerType.TIME_SERIES, columnInfos, true);
+			columns = new int[numeric.size()];
+			types = new GSType[numeric.size()];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = numeric.get(i);
+				types[i] = source.getColumnInfo(columns[i]).getType();
+			}
+		}
+
+		private static boolean isNumeric(GSType type) {
+			return type == GSType.BYTE || type == GSType.SHORT || type == GSType.INTEGER || type == GSType.LONG
+				|| type == GSType.FLOAT || type == GSType.DOUBLE;
+		}
+
+		// Size of a rollup row, used for the batch byte limit
+		int rowBytes() {
+			return 64 + 32 * columns.length;
+		}
+	}
+
+	// The aggregates of one bucket of one rollup container
+	static final class Bucket {
+		final Layout layout;
+		final long start;
+		long count;
+		final double[] sum;
+		final double[] sumsq;
+		final double[] min;
+		final double[] max;
+		// Last record folded into this bucket (offset -1 for none)
+		String topic = "";
+		int partition;
+		long offset = -1;
+
+		Bucket(Layout layout, long start) {
+			this.layout = layout;
+			this.start = start;
+			int n = layout.columns.length;
+			sum = new double[n];
+			sumsq = new double[n];
+			min = new double[n];
+			max = new double[n];
+			for (int i = 0; i < n; i++) {
+				min[i] = Double.POSITIVE_INFINITY;
+				max[i] = Double.NEGATIVE_INFINITY;
+			}
+		}
+
+		// Whether the given record is folded into this bucket already
+		boolean contains(PendingRow record) {
+			return record.offset <= offset && record.partition == partition && record.topic.equals(topic);
+		}
+
+		// Add the values of a data-log row, starting at values[from]
+		void add(double[] values, int from, PendingRow record) {
+			count++;
+			for (int i = 0; i < sum.length; i++) {
+				double value = values[from + i];
+				sum[i] += value;
+				sumsq[i] += value * value;
+				min[i] = Math.min(min[i], value);
+				max[i] = Math.max(max[i], value);
+			}
+			if (record.partition != partition || !record.topic.equals(topic) || record.offset > offset) {
+				topic = record.topic;
+				partition = record.partition;
+				offset = record.offset;
+			}
+		}
+
+		// The aggregates of this bucket and another one of the same bucket, with the last record of the other
+		Bucket merge(Bucket other) {
+			Bucket merged = new Bucket(layout, start);
+			merged.count = count + other.count;
+			for (int i = 0; i < sum.length; i++) {
+				merged.sum[i] = sum[i] + other.sum[i];
+				merged.sumsq[i] = sumsq[i] + other.sumsq[i];
+				merged.min[i] = Math.min(min[i], other.min[i]);
+				merged.max[i] = Math.max(max[i], other.max[i]);
+			}
+			merged.topic = other.topic;
+			merged.partition = other.partition;
+			merged.offset = other.offset;
+			return merged;
+		}
+
+		// Read a bucket back from its rollup row
+		static Bucket of(Layout layout, Row row) throws GSException {
+			Bucket bucket = new Bucket(layout, row.getTimestamp(0).getTime());
+			bucket.count = row.getLong(1);
+			int column = 2;
+			for (int i = 0; i < bucket.sum.length; i++) {
+				bucket.sum[i] = row.getDouble(column++);
+				bucket.sumsq[i] = row.getDouble(column++);
+				bucket.min[i] = row.getDouble(column++);
+				bucket.max[i] = row.getDouble(column++);
+			}
+			bucket.topic = row.getString(column++);
+			bucket.partition = row.getInteger(column++);
+			bucket.offset = row.getLong(column);
+			return bucket;
+		}
+
+		void fill(Row row, Date time) throws GSException {
+			time.setTime(start);
+			row.setTimestamp(0, time);
+			row.setLong(1, count);
+			int column = 2;
+			for (int i = 0; i < sum.length; i++) {
+				row.setDouble(column++, sum[i]);
+				row.setDouble(column++, sumsq[i]);
+				row.setDouble(column++, min[i]);
+				row.setDouble(column++, max[i]);
+			}
+			row.setString(column++, topic);
+			row.setInteger(column++, partition);
+			row.setLong(column, offset);
+		}
+
+		static double value(Row row, int column, GSType type) throws GSException {
+			switch (type) {
+			case BYTE:
+				return row.getByte(column);
+			case SHORT:
+				return row.getShort(column);
+			case INTEGER:
+				return row.getInteger(column);
+			case LONG:
+				return row.getLong(column);
+			case FLOAT:
+				return row.getFloat(column);
+			default:
+				return row.getDouble(column);
+			}
+		}
+	}
+
+	// A rollup bucket: data-log container, interval index and bucket start (Long.MIN_VALUE for the latest bucket)
+	private static final class Key {
+		String container;
+		int interval;
+		long start;
+
+		Key set(String container, int interval, long start) {
+			this.container = container;
+			this.interval = interval;
+			this.start = start;
+			return this;
+		}
+
+		Key copy() {
+			return new Key().set(container, interval, start);
+		}
+
+		@Override public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return container.equals(other.container) && interval == other.interval && start == other.start;
+		}
+
+		@Override public int hashCode() {
+			return (container.hashCode() * 31 + interval) * 31 + Long.hashCode(start);
+		}
+	}
+
+	// A bucket changed by the current batch: the records of its rows and their values (layout.columns.length
+	// per row), the bucket they are folded into and the rollup row written for it
+	private static final class Change {
+		final Key key;
+		final String name;
+		final Layout layout;
+		final long start;
+		int size;
+		PendingRow[] records = new PendingRow[4];
+		double[] values;
+		Bucket base;
+		boolean resolved;
+		Bucket merged;
+
+		Change(Key key, String name, Layout layout, long start) {
+			this.key = key;
+			this.name = name;
+			this.layout = layout;
+			this.start = start;
+			values = new double[4 * layout.columns.length];
+		}
+
+		void add(Row row, PendingRow record) throws GSException {
+			int n = layout.columns.length;
+			if (size == records.length) {
+				records = Arrays.copyOf(records, size * 2);
+				values = Arrays.copyOf(values, size * 2 * n);
+			}
+			records[size] = record;
+			for (int i = 0; i < n; i++)
+				values[size * n + i] = Bucket.value(row, layout.columns[i], layout.types[i]);
+			size++;
+		}
+
+		// The base bucket (null for none) with the rows of records it does not contain yet
+		Bucket fold() {
+			Bucket delta = new Bucket(layout, start);
+			for (int i = 0; i < size; i++) {
+				if (base == null || !base.contains(records[i]))
+					delta.add(values, i * layout.columns.length, records[i]);
+			}
+			if (base == null)
+				return delta;
+			return delta.count == 0 ? base : base.merge(delta);
+		}
+	}
+
+	private final Interval[] intervals;
+	private final int maxBuckets;
+	private final IdentityHashMap<ContainerInfo, Layout> layouts = new IdentityHashMap<>();
+	// Latest bucket of each rollup container, least recently used first
+	private final LinkedHashMap<Key, Bucket> latest = new LinkedHashMap<>(16, 0.75f, true);
+	// Buckets changed by the rows of the current batch
+	private final Map<Key, Change> changes = new LinkedHashMap<>();
+	private final Key probe = new Key();
+	// Handed to Row.setTimestamp of the rollup rows of the current batch
+	private final List<Date> times = new ArrayList<>();
+	// Set after a failed write: the records since then will be delivered again, so no bucket may count them
+	private boolean frozen;
+	private volatile boolean resumeRequested;
+
+	Rollups(Interval[] intervals, int maxBuckets) {
+		this.intervals = intervals;
+		this.maxBuckets = maxBuckets;
+	}
+
+	Layout layout(ContainerInfo info) {
+		Layout layout = layouts.get(info);
+		if (layout == null) {
+			layout = new Layout(info);
+			layouts.put(info, layout);
+		}
+		return layout;
+	}
+
+	// Called by the writer before it takes the rows of a new run
+	void sync() {
+		if (resumeRequested) {
+			resumeRequested = false;
+			frozen = false;
+		}
+	}
+
+	// The failure has been reported by a flush and Connect delivers the records since its last commit again
+	void resume() {
+		resumeRequested = true;
+	}
+
+	// Add a data-log row of the current batch and its record to the buckets it falls into
+	void add(String container, ContainerInfo info, Row row, long timestamp, PendingRow record) throws GSException {
+		if (frozen)
+			return;
+		Layout layout = layout(info);
+		for (int i = 0; i < intervals.length; i++) {
+			long start = timestamp - Math.floorMod(timestamp, intervals[i].millis);
+			Change change = changes.get(probe.set(container, i, start));
+			if (change == null) {
+				Key key = probe.copy();
+				change = new Change(key, container + "_" + intervals[i].suffix, layout, start);
+				changes.put(key, change);
+			}
+			change.add(row, record);
+		}
+	}
+
+	boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	// Add the rollup rows of the current batch. Their containers are created first, and buckets that are not
+	// in memory are read back from GridDB with a single multiGet so that the rows already counted are kept.
+	void addTo(SinkBatch batch, RowPool rows, ContainerCache containers, GridStore store) throws GSException {
+		Map<String, RowKeyPredicate<?>> missing = new HashMap<>();
+		for (Change change : changes.values()) {
+			Layout layout = change.layout;
+			containers.timeSeries(change.name, layout.info);
+			Bucket kept = latest.get(probe.set(change.key.container, change.key.interval, Long.MIN_VALUE));
+			if (kept != null && kept.start == change.start && kept.layout == layout) {
+				change.base = kept;
+				change.resolved = true;
+			} else if (kept != null && kept.start < change.start) {
+				change.resolved = true;
+			} else {
+				@SuppressWarnings("unchecked")
+				RowKeyPredicate<Date> keys = (RowKeyPredicate<Date>) missing.get(change.name);
+				if (keys == null) {
+					keys = RowKeyPredicate.create(Date.class);
+					missing.put(change.name, keys);
+				}
+				keys.add(new Date(change.start));
+			}
+		}
+		if (!missing.isEmpty()) {
+			Map<String, List<Row>> found = store.multiGet(missing);
+			for (Change change : changes.values()) {
+				if (change.resolved)
+					continue;
+				List<Row> stored = found.get(change.name);
+				if (stored != null) {
+					for (Row row : stored) {
+						if (row.getTimestamp(0).getTime() == change.start)
+							change.base = Bucket.of(change.layout, row);
+					}
+				}
+			}
+		}
+		int i = 0;
+		for (Change change : changes.values()) {
+			change.merged = change.fold();
+			if (times.size() <= i)
+				times.add(new Date(0));
+			Layout layout = change.layout;
+			Row row = rows.take(layout.info);
+			change.merged.fill(row, times.get(i++));
+			batch.addRow(change.name, layout.info, row, layout.rowBytes());
+		}
+	}
+
+	// The current batch has been written, keep the latest bucket of each rollup container
+	void written() {
+		for (Change change : changes.values()) {
+			Key key = change.key.copy().set(change.key.container, change.key.interval, Long.MIN_VALUE);
+			Bucket kept = latest.get(key);
+			if (kept == null || change.merged.start >= kept.start)
+				latest.put(key, change.merged);
+		}
+		Iterator<Bucket> it = latest.values().iterator();
+		while (latest.size() > maxBuckets && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		changes.clear();
+	}
+
+	// The current batch failed, its rows and those of the batches after it will be delivered again
+	void discard() {
+		frozen = true;
+		changes.clear();
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * RowCoalescer puts the data-log rows of a container in timestamp order before they are written, and merges
+ * rows that share a timestamp (their RowKey) into one, so a multiPut appends strictly ascending rows instead of
+ * writing some of them over others. Rows with the same timestamp are merged by the given policy: the row of the
+ * last record wins (what GridDB would have kept), or the numeric columns are averaged. Rows that are already in
+ * order, the common case, are only scanned once. Not thread-safe.
+ */
+class RowCoalescer {
+	static final String LAST = "last";
+	static final String AVERAGE = "average";
+
+	private final boolean average;
+	private final RowPool pool;
+	// Row indexes in timestamp order, and the buffer the merge sort needs
+	private int[] order = new int[16];
+	private int[] buffer = new int[16];
+	// The rows, timestamps and records that are kept, in timestamp order
+	private Row[] sorted = new Row[16];
+	private long[] sortedTimes = new long[16];
+	private PendingRow[] sortedRecords = new PendingRow[16];
+	private double[] sums = new double[16];
+
+	RowCoalescer(String policy, RowPool pool) {
+		this.average = AVERAGE.equals(policy);
+		this.pool = pool;
+	}
+
+	// Sort the rows of a container, their timestamps and their records (times and records, in the same order)
+	// by timestamp and merge the rows that share one. A merged row keeps the record of the last row.
+	// Returns the number of rows left, the merged rows are handed back to the pool.
+	int coalesce(ContainerInfo info, List<Row> rows, long[] times, PendingRow[] records) throws GSException {
+		int count = rows.size();
+		int i = 1;
+		while (i < count && times[i] > times[i - 1])
+			i++;
+		if (i >= count)
+			return count;
+
+		if (order.length < count) {
+			order = new int[Math.max(count, order.length * 2)];
+			buffer = new int[order.length];
+			sorted = new Row[order.length];
+			sortedTimes = new long[order.length];
+			sortedRecords = new PendingRow[order.length];
+		}
+		for (i = 0; i < count; i++)
+			order[i] = i;
+		// Stable, so rows with the same timestamp stay in the order their records arrived in
+		sort(times, 0, count);
+
+		int kept = 0;
+		for (int start = 0; start < count; ) {
+			int end = start + 1;
+			while (end < count && times[order[end]] == times[order[start]])
+				end++;
+			Row last = rows.get(order[end - 1]);
+			if (end - start > 1) {
+				if (average)
+					average(info, rows, start, end, last);
+				for (int j = start; j < end - 1; j++)
+					pool.release(info, rows.get(order[j]));
+			}
+			sortedTimes[kept] = times[order[start]];
+			sortedRecords[kept] = records[order[end - 1]];
+			sorted[kept++] = last;
+			start = end;
+		}
+		for (i = 0; i < kept; i++) {
+			rows.set(i, sorted[i]);
+			times[i] = sortedTimes[i];
+			records[i] = sortedRecords[i];
+		}
+		rows.subList(kept, count).clear();
+		Arrays.fill(records, kept, count, null);
+		Arrays.fill(sorted, 0, kept, null);
+		Arrays.fill(sortedRecords, 0, kept, null);
+		return kept;
+	}
+
+	// Set the numeric columns of the given row to the average of the rows at order[start, end),
+	// other columns keep the value of the last row
+	private void average(ContainerInfo info, List<Row> rows, int start, int end, Row target) throws GSException {
+		int columns = info.getColumnCount();
+		if (sums.length < columns)
+			sums = new double[columns];
+		Arrays.fill(sums, 0, columns, 0);
+		for (int j = start; j < end; j++) {
+			Row row = rows.get(order[j]);
+			for (int c = 1; c < columns; c++) {
+				Object value = row.getValue(c);
+				if (value instanceof Number)
+					sums[c] += ((Number) value).doubleValue();
+			}
+		}
+		int n = end - start;
+		for (int c = 1; c < columns; c++) {
+			GSType type = info.getColumnInfo(c).getType();
+			double mean = sums[c] / n;
+			switch (type) {
+			case BYTE:
+				target.setByte(c, (byte) Math.round(mean));
+				break;
+			case SHORT:
+				target.setShort(c, (short) Math.round(mean));
+				break;
+			case INTEGER:
+				target.setInteger(c, (int) Math.round(mean));
+				break;
+			case LONG:
+				target.setLong(c, Math.round(mean));
+				break;
+			case FLOAT:
+				target.setFloat(c, (float) mean);
+				break;
+			case DOUBLE:
+				target.setDouble(c, mean);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	// Merge sort of order[from, to) by the times of the indexes
+	private void sort(long[] times, int from, int to) {
+		if (to - from < 2)
+			return;
+		int middle = (from + to) >>> 1;
+		sort(times, from, middle);
+		sort(times, middle, to);
+		if (times[order[middle - 1]] <= times[order[middle]])
+			return;
+		System.arraycopy(order, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || (left < middle && times[buffer[left]] <= times[buffer[right]]))
+				order[i] = buffer[left++];
+			else
+				order[i] = buffer[right++];
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * RowPool keeps the generic Rows of a writer for reuse. GridStore.multiPut serializes its rows
+ * before it returns, so once a batch has been written its Rows can be filled in again for the
+ * next batch instead of being created per record. Pools are keyed by ContainerInfo identity,
+ * callers use one ContainerInfo per column layout. It is not thread-safe.
+ */
+class RowPool {
+	private GridStore store;
+	private final int maxPerSchema;
+	private final IdentityHashMap<ContainerInfo, ArrayDeque<Row>> free = new IdentityHashMap<>();
+
+	RowPool(GridStore store, int maxPerSchema) {
+		this.store = store;
+		this.maxPerSchema = maxPerSchema;
+	}
+
+	// A Row with the given column layout, its columns still hold the values of its previous use
+	Row take(ContainerInfo info) throws GSException {
+		ArrayDeque<Row> rows = free.get(info);
+		Row row = rows == null ? null : rows.pollFirst();
+		return row != null ? row : store.createRow(info);
+	}
+
+	// Hand rows with the given column layout back for reuse
+	void release(ContainerInfo info, List<Row> rows) {
+		ArrayDeque<Row> pooled = free.get(info);
+		if (pooled == null) {
+			pooled = new ArrayDeque<>();
+			free.put(info, pooled);
+		}
+		for (int i = 0; i < rows.size() && pooled.size() < maxPerSchema; i++)
+			pooled.addFirst(rows.get(i));
+	}
+
+	// Hand a single row back for reuse
+	void release(ContainerInfo info, Row row) {
+		ArrayDeque<Row> pooled = free.get(info);
+		if (pooled == null) {
+			pooled = new ArrayDeque<>();
+			free.put(info, pooled);
+		}
+		if (pooled.size() < maxPerSchema)
+			pooled.addFirst(row);
+	}
+
+	// Create new rows through the given GridStore from now on, pooled rows are not bound to a connection
+	void reset(GridStore store) {
+		this.store = store;
+	}
+
+	void clear() {
+		free.clear();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.errors.DataException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SensorBinaryCodec reads and writes the compact binary encoding of a sensor message, which replaces the
+ * JSON "payload" string (see SensorMessageSerializer and SensorBinaryConverter). A message is laid out as
+ *   version (byte, 1), sensor kind code (byte, see SensorKind), timestamp (long, epoch millis or -1 when the
+ *   message has none), the two readings of the kind (doubles), sensor-id (unsigned short length + UTF-8)
+ * with all numbers big-endian, 28 bytes plus the id.
+ * Decoding fills a reusable SensorReading without allocating, apart from the id String of a sensor that is
+ * not in the codec's table of recent ids. A codec keeps that table, so each task thread uses its own instance.
+ */
+final class SensorBinaryCodec {
+	static final byte VERSION = 1;
+	static final int HEADER_BYTES = 28;
+	// The timestamp of a message without one, the record timestamp is used instead
+	static final long NO_TIMESTAMP = -1;
+
+	// Ids of recent messages, kept the same way as by SensorPayloadDecoder
+	private static final int ID_CACHE_BITS = 12;
+	private static final int ID_CACHE_SIZE = 1 << ID_CACHE_BITS;
+	private final String[] ids = new String[ID_CACHE_SIZE];
+
+	// Encode a message, throws DataException for an id that does not fit
+	static byte[] encode(String id, SensorKind kind, long timestamp, double first, double second) {
+		byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+		if (encoded.length > 0xFFFF)
+			throw new DataException("Sensor-id of " + encoded.length + " bytes is too long");
+		byte[] message = new byte[HEADER_BYTES + encoded.length];
+		message[0] = VERSION;
+		message[1] = (byte) kind.code;
+		putLong(message, 2, timestamp);
+		putLong(message, 10, Double.doubleToLongBits(first));
+		putLong(message, 18, Double.doubleToLongBits(second));
+		message[26] = (byte) (encoded.length >>> 8);
+		message[27] = (byte) encoded.length;
+		System.arraycopy(encoded, 0, message, HEADER_BYTES, encoded.length);
+		return message;
+	}
+
+	// Decode a message into the given reading, returns its timestamp (NO_TIMESTAMP if it has none).
+	// An unknown sensor kind leaves the reading's kind null, malformed input throws DataException.
+	long decode(byte[] message, SensorReading out) {
+		if (message.length < HEADER_BYTES)
+			throw new DataException("Binary sensor message of " + message.length + " bytes is too short");
+		if (message[0] != VERSION)
+			throw new DataException("Unknown binary sensor message version " + message[0]);
+		int length = (message[26] & 0xFF) << 8 | message[27] & 0xFF;
+		if (HEADER_BYTES + length != message.length)
+			throw new DataException("Binary sensor message of " + message.length + " bytes with an id of " + length
+				+ " bytes");
+		out.reset();
+		out.id = id(message, HEADER_BYTES, message.length);
+		SensorKind kind = SensorKind.ofCode(message[1]);
+		out.kind = kind;
+		if (kind != null) {
+			out.values[kind.firstField] = Double.longBitsToDouble(getLong(message, 10));
+			out.values[kind.secondField] = Double.longBitsToDouble(getLong(message, 18));
+			out.present = 1 << kind.firstField | 1 << kind.secondField;
+		}
+		return getLong(message, 2);
+	}
+
+	// The id in the given region of the message, taken from the table of recent ids when it is there
+	private String id(byte[] message, int start, int stop) {
+		// Same hash as String.hashCode for ASCII ids, other ids are compared after decoding them
+		int hash = 0;
+		boolean ascii = true;
+		for (int i = start; i < stop; i++) {
+			hash = 31 * hash + message[i];
+			ascii &= message[i] >= 0;
+		}
+		if (!ascii)
+			return new String(message, start, stop - start, StandardCharsets.UTF_8);
+		int slot = ((hash * 0x9E3779B9) >>> (32 - ID_CACHE_BITS)) & ~1;
+		String id = ids[slot];
+		if (id != null && asciiEquals(message, start, stop, id))
+			return id;
+		String other = ids[slot + 1];
+		if (other != null && asciiEquals(message, start, stop, other))
+			return other;
+		ids[slot + 1] = id;
+		ids[slot] = id = new String(message, start, stop - start, StandardCharsets.US_ASCII);
+		return id;
+	}
+
+	private static boolean asciiEquals(byte[] message, int start, int stop, String value) {
+		int length = stop - start;
+		if (length != value.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (message[start + i] != value.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static void putLong(byte[] bytes, int at, long value) {
+		for (int i = 7; i >= 0; i--) {
+			bytes[at + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	private static long getLong(byte[] bytes, int at) {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = value << 8 | bytes[at + i] & 0xFF;
+		return value;
+	}
+}
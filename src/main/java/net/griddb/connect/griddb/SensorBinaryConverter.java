@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaAndValue;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.storage.Converter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * SensorBinaryConverter stores sensor messages in Kafka in the binary encoding of SensorBinaryCodec instead of
+ * as JSON, on both ends of the topic:
+ * - a source connector such as the MQTT bridge hands it the JSON sensor message, as a String or as the bytes of
+ *   the MQTT message, and it writes the binary encoding (messages that are binary already are kept as they are);
+ * - the sink gets the binary messages as they are, as byte[] values, instead of having JsonConverter parse an
+ *   envelope whose payload the task then parses again. GridDBSinkTask reads the fields straight from the bytes;
+ *   a message it cannot decode is counted as a decode error like a malformed JSON payload.
+ * Set value.converter=net.griddb.connect.griddb.SensorBinaryConverter in the worker or connector configuration,
+ * producers outside Connect can use SensorMessageSerializer.
+ */
+public class SensorBinaryConverter implements Converter {
+	private final SensorMessageSerializer serializer = new SensorMessageSerializer();
+
+	@Override public void configure(Map<String, ?> configs, boolean isKey) {
+	}
+
+	@Override public byte[] fromConnectData(String topic, Schema schema, Object value) {
+		if (value == null)
+			return null;
+		if (value instanceof String)
+			return serializer.serialize(topic, (String) value);
+		if (!(value instanceof byte[]))
+			throw new DataException("SensorBinaryConverter only converts String and byte[] values, not "
+				+ value.getClass().getName());
+		byte[] bytes = (byte[]) value;
+		if (bytes.length > 0 && bytes[0] == SensorBinaryCodec.VERSION)
+			return bytes;
+		return serializer.serialize(topic, new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	@Override public SchemaAndValue toConnectData(String topic, byte[] value) {
+		return value == null ? SchemaAndValue.NULL : new SchemaAndValue(Schema.OPTIONAL_BYTES_SCHEMA, value);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.Container;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Query;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowKeyPredicate;
+import com.toshiba.mwcloud.gs.RowSet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SensorCatalog is an in-memory copy of the sensor-ids recorded in the sensor-type container.
+ * It is loaded once when the task starts so that the write path only has to ask GridDB about
+ * sensor-ids it has never seen, and then only once per batch.
+ */
+class SensorCatalog {
+	private final String containerName;
+	// Shared by the writers of a task, each of them only adds and removes the sensor-ids it owns
+	private final Set<String> known = ConcurrentHashMap.newKeySet();
+
+	SensorCatalog(String containerName) {
+		this.containerName = containerName;
+	}
+
+	// Read every sensor-id currently stored in the sensor-type container (if it exists yet)
+	void load(GridStore store) throws GSException {
+		Container<String, Row> typeContainer = store.getContainer(containerName);
+		if (typeContainer == null)
+			return;
+		try {
+			Query<Row> query = typeContainer.query("SELECT *");
+			try {
+				RowSet<Row> rowSet = query.fetch(false);
+				try {
+					while (rowSet.hasNext()) {
+						known.add(rowSet.next().getString(0));
+					}
+				} finally {
+					rowSet.close();
+				}
+			} finally {
+				query.close();
+			}
+		} finally {
+			typeContainer.close();
+		}
+	}
+
+	boolean isKnown(String id) {
+		return known.contains(id);
+	}
+
+	// Returns the given sensor-ids that are not recorded in the sensor-type container yet.
+	// Ids missing from memory are checked with a single multiGet, ids found there are remembered.
+	Set<String> findUnrecorded(GridStore store, Collection<String> ids) throws GSException {
+		RowKeyPredicate<String> keys = null;
+		Set<String> unrecorded = null;
+		for (String id : ids) {
+			if (known.contains(id))
+				continue;
+			if (keys == null) {
+				keys = RowKeyPredicate.create(String.class);
+				unrecorded = new LinkedHashSet<>();
+			}
+			keys.add(id);
+			unrecorded.add(id);
+		}
+		if (keys == null)
+			return Collections.emptySet();
+
+		Map<String, List<Row>> found = store.multiGet(Collections.singletonMap(containerName, keys));
+		List<Row> rows = found.get(containerName);
+		if (rows != null) {
+			for (Row row : rows) {
+				String id = row.getString(0);
+				unrecorded.remove(id);
+				known.add(id);
+			}
+		}
+		return unrecorded;
+	}
+
+	// Record sensor-ids whose sensor-type entry has been queued for writing
+	void addAll(Collection<String> ids) {
+		known.addAll(ids);
+	}
+
+	// Forget sensor-ids whose sensor-type entry failed to be written, so they are retried
+	void removeAll(Collection<String> ids) {
+		known.removeAll(ids);
+	}
+
+	int size() {
+		return known.size();
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.ColumnInfo;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.GSType;
+
+import java.util.Arrays;
+
+/**
+ * The kinds of sensor this connector knows about, identified by the "type" field of a message.
+ * Each kind is stored in a data-log TimeSeries with a timestamp RowKey and two double columns.
+ * In the binary encoding (SensorBinaryCodec) a kind is identified by its code, which must never change.
+ */
+enum SensorKind {
+	// Measures light and sound
+	LIGHT(1, "light", SensorReading.LIGHT, SensorReading.SOUND),
+	// Measures power (watts) and heat
+	WATTS(2, "watts", SensorReading.WATTS, SensorReading.HEAT),
+	// Measures volts and amps
+	VOLTS(3, "volts", SensorReading.VOLTS, SensorReading.AMPS);
+
+	private static final SensorKind[] KINDS = values();
+
+	final int code;
+	final String typeName;
+	final int firstField;
+	final int secondField;
+	// Row schema used to create the data-log containers and build the generic Rows handed to
+	// GridStore.multiPut, it matches the column layout of the sensor classes of the DataViewer
+	final ContainerInfo containerInfo;
+
+	SensorKind(int code, String typeName, int firstField, int secondField) {
+		this.code = code;
+		this.typeName = typeName;
+		this.firstField = firstField;
+		this.secondField = secondField;
+		this.containerInfo = new ContainerInfo(null, ContainerType.TIME_SERIES,
+			Arrays.asList(new ColumnInfo("time", GSType.TIMESTAMP),
+				new ColumnInfo(SensorReading.FIELDS[firstField], GSType.DOUBLE),
+				new ColumnInfo(SensorReading.FIELDS[secondField], GSType.DOUBLE)), true);
+	}
+
+	// Find the kind whose type name equals the given region of text, without allocating a String
+	static SensorKind of(CharSequence text, int start, int end) {
+		for (SensorKind kind : KINDS) {
+			if (SensorPayloadDecoder.regionEquals(text, start, end, kind.typeName))
+				return kind;
+		}
+		return null;
+	}
+
+	static SensorKind of(String typeName) {
+		return typeName == null ? null : of(typeName, 0, typeName.length());
+	}
+
+	static SensorKind ofCode(int code) {
+		for (SensorKind kind : KINDS) {
+			if (kind.code == code)
+				return kind;
+		}
+		return null;
+	}
+}
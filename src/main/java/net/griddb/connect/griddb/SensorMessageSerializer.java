@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.util.Map;
+
+/**
+ * SensorMessageSerializer lets a producer send sensor messages in the binary encoding of SensorBinaryCodec
+ * instead of as JSON strings (SensorBinaryConverter does the same for source connectors such as the MQTT
+ * bridge): it takes the JSON sensor message,
+ * e.g. {"id":"...","type":"light","light":..,"sound":..}, and serializes its id, type and the two readings of
+ * the type. The message has no timestamp, the sink uses the record timestamp as it does for JSON messages.
+ * Set value.serializer=net.griddb.connect.griddb.SensorMessageSerializer, and have the sink read the topic with
+ * value.converter=net.griddb.connect.griddb.SensorBinaryConverter.
+ * A producer can serialize from several threads, each gets a decoder of its own.
+ */
+public class SensorMessageSerializer implements Serializer<String> {
+	private static final class Decoding {
+		final SensorPayloadDecoder decoder = new SensorPayloadDecoder();
+		final SensorReading reading = new SensorReading();
+	}
+
+	private final ThreadLocal<Decoding> decodings = new ThreadLocal<Decoding>() {
+		@Override protected Decoding initialValue() {
+			return new Decoding();
+		}
+	};
+
+	@Override public void configure(Map<String, ?> configs, boolean isKey) {
+	}
+
+	// Throws DataException for a message that is not JSON or has no id or known type
+	@Override public byte[] serialize(String topic, String message) {
+		if (message == null)
+			return null;
+		Decoding decoding = decodings.get();
+		SensorReading reading = decoding.reading;
+		decoding.decoder.decode(message, reading);
+		SensorKind kind = reading.kind;
+		if (kind == null || reading.id == null)
+			throw new DataException("Sensor message without an id or with an unknown type: " + message);
+		return SensorBinaryCodec.encode(reading.id, kind, SensorBinaryCodec.NO_TIMESTAMP, reading.value(kind.firstField),
+			reading.value(kind.secondField));
+	}
+
+	@Override public void close() {
+	}
+}
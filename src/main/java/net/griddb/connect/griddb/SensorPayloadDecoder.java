@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.errors.DataException;
+
+/**
+ * SensorPayloadDecoder reads the JSON "payload" of a sensor message in a single pass.
+ * It fills the id, the sensor kind (from the "type" field) and the known numeric fields into a
+ * reusable SensorReading. Unknown fields are skipped. Decoding does not allocate, apart from the
+ * id String of a sensor that is not in the decoder's table of recent ids.
+ * A decoder keeps scratch state, so each task thread uses its own instance.
+ */
+final class SensorPayloadDecoder {
+	private static final int UNKNOWN = -1;
+	private static final int ID = -2;
+	private static final int TYPE = -3;
+
+	// Decimals with at most this many digits are converted exactly with a single division
+	private static final int MAX_EXACT_DIGITS = 15;
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	// Ids of recent messages, so that a message from a sensor seen before reuses its id String.
+	// Every hash maps to a pair of slots, a new id takes the first slot and moves the id there to the second.
+	private static final int ID_CACHE_BITS = 12;
+	private static final int ID_CACHE_SIZE = 1 << ID_CACHE_BITS;
+	private final String[] ids = new String[ID_CACHE_SIZE];
+
+	private CharSequence text;
+	private int pos;
+	private int end;
+	// Set by scanString when the last string contained escape sequences
+	private boolean escaped;
+	private final StringBuilder scratch = new StringBuilder();
+
+	// Decode a flat JSON object into the given reading, throws DataException on malformed input
+	void decode(CharSequence payload, SensorReading out) {
+		if (payload == null)
+			throw new DataException("Sensor payload is missing");
+		text = payload;
+		pos = 0;
+		end = payload.length();
+		out.reset();
+		try {
+			skipWhitespace();
+			expect('{');
+			skipWhitespace();
+			if (peek() == '}') {
+				pos++;
+				return;
+			}
+			while (true) {
+				skipWhitespace();
+				expect('"');
+				int keyStart = pos;
+				int keyEnd = scanString();
+				skipWhitespace();
+				expect(':');
+				skipWhitespace();
+
+				int field = escaped ? UNKNOWN : fieldOf(keyStart, keyEnd);
+				if (field == ID)
+					readId(out);
+				else if (field == TYPE)
+					readType(out);
+				else if (field >= 0)
+					readNumber(out, field);
+				else
+					skipValue();
+
+				skipWhitespace();
+				char c = next();
+				if (c == '}')
+					break;
+				if (c != ',')
+					throw error("Expected ',' or '}'");
+			}
+		} finally {
+			text = null;
+		}
+	}
+
+	private int fieldOf(int start, int end) {
+		if (regionEquals(text, start, end, "id"))
+			return ID;
+		if (regionEquals(text, start, end, "type"))
+			return TYPE;
+		for (int i = 0; i < SensorReading.FIELDS.length; i++) {
+			if (regionEquals(text, start, end, SensorReading.FIELDS[i]))
+				return i;
+		}
+		return UNKNOWN;
+	}
+
+	private void readId(SensorReading out) {
+		char c = peek();
+		int start;
+		int stop;
+		if (c == '"') {
+			pos++;
+			start = pos;
+			stop = scanString();
+			if (escaped) {
+				out.id = unescape(start, stop);
+				return;
+			}
+		} else {
+			// Numeric ids are kept as their text, the same way they name the container
+			start = pos;
+			stop = scanLiteral();
+			if (regionEquals(text, start, stop, "null")) {
+				out.id = null;
+				return;
+			}
+		}
+		out.id = id(start, stop);
+	}
+
+	// The id in the given region of text, taken from the table of recent ids when it is there
+	private String id(int start, int stop) {
+		// Same hash as String.hashCode, so the String does not have to compute it again
+		int hash = 0;
+		for (int i = start; i < stop; i++)
+			hash = 31 * hash + text.charAt(i);
+		// Ids often differ only in their last digits, so spread the hash before taking its top bits
+		int slot = ((hash * 0x9E3779B9) >>> (32 - ID_CACHE_BITS)) & ~1;
+		String id = ids[slot];
+		if (id != null && regionEquals(text, start, stop, id))
+			return id;
+		String other = ids[slot + 1];
+		if (other != null && regionEquals(text, start, stop, other))
+			return other;
+		ids[slot + 1] = id;
+		ids[slot] = id = text.subSequence(start, stop).toString();
+		return id;
+	}
+
+	private void readType(SensorReading out) {
+		if (peek() != '"') {
+			scanLiteral();
+			out.kind = null;
+			return;
+		}
+		pos++;
+		int start = pos;
+		int stop = scanString();
+		if (escaped) {
+			String type = unescape(start, stop);
+			out.kind = SensorKind.of(type);
+		} else {
+			out.kind = SensorKind.of(text, start, stop);
+		}
+	}
+
+	private void readNumber(SensorReading out, int field) {
+		int start;
+		int stop;
+		if (peek() == '"') {
+			// Quoted numbers are accepted as well
+			pos++;
+			start = pos;
+			stop = scanString();
+		} else {
+			start = pos;
+			stop = scanLiteral();
+		}
+		if (stop == start || regionEquals(text, start, stop, "null"))
+			return;
+		out.values[field] = parseDouble(start, stop);
+		out.present |= 1 << field;
+	}
+
+	// Parse a JSON number, plain decimals are converted without creating a String
+	private double parseDouble(int start, int stop) {
+		int i = start;
+		boolean negative = false;
+		char c = text.charAt(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		for (; i < stop; i++) {
+			c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (fraction)
+					fractionDigits++;
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				// Exponents and anything unusual take the slow path
+				digits = Integer.MAX_VALUE;
+				break;
+			}
+		}
+		if (digits == 0 || digits > MAX_EXACT_DIGITS) {
+			try {
+				return Double.parseDouble(text.subSequence(start, stop).toString());
+			} catch (NumberFormatException ex) {
+				throw error("Invalid number");
+			}
+		}
+		double value = fractionDigits == 0 ? mantissa : mantissa / POW10[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	// Scan to the closing quote of a string whose opening quote was consumed,
+	// returns the index of the closing quote and moves past it
+	private int scanString() {
+		escaped = false;
+		while (pos < end) {
+			char c = text.charAt(pos);
+			if (c == '"') {
+				return pos++;
+			}
+			if (c == '\\') {
+				escaped = true;
+				pos++;
+			}
+			pos++;
+		}
+		throw error("Unterminated string");
+	}
+
+	// Scan a number, true, false or null, returns the end index of the token
+	private int scanLiteral() {
+		while (pos < end) {
+			char c = text.charAt(pos);
+			if (c == ',' || c == '}' || c == ']' || isWhitespace(c))
+				break;
+			pos++;
+		}
+		return pos;
+	}
+
+	private void skipValue() {
+		char c = peek();
+		if (c == '"') {
+			pos++;
+			scanString();
+		} else if (c == '{' || c == '[') {
+			int depth = 0;
+			while (pos < end) {
+				c = text.charAt(pos++);
+				if (c == '"') {
+					scanString();
+				} else if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					if (--depth == 0)
+						return;
+				}
+			}
+			throw error("Unterminated value");
+		} else {
+			scanLiteral();
+		}
+	}
+
+	private String unescape(int start, int stop) {
+		scratch.setLength(0);
+		for (int i = start; i < stop; i++) {
+			char c = text.charAt(i);
+			if (c != '\\') {
+				scratch.append(c);
+				continue;
+			}
+			c = text.charAt(++i);
+			switch (c) {
+			case 'b': scratch.append('\b'); break;
+			case 'f': scratch.append('\f'); break;
+			case 'n': scratch.append('\n'); break;
+			case 'r': scratch.append('\r'); break;
+			case 't': scratch.append('\t'); break;
+			case 'u':
+				if (i + 4 >= stop)
+					throw error("Invalid unicode escape");
+				try {
+					scratch.append((char) Integer.parseInt(text.subSequence(i + 1, i + 5).toString(), 16));
+				} catch (NumberFormatException ex) {
+					throw error("Invalid unicode escape");
+				}
+				i += 4;
+				break;
+			default: scratch.append(c);
+			}
+		}
+		return scratch.toString();
+	}
+
+	private void skipWhitespace() {
+		while (pos < end && isWhitespace(text.charAt(pos)))
+			pos++;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private char peek() {
+		if (pos >= end)
+			throw error("Unexpected end of payload");
+		return text.charAt(pos);
+	}
+
+	private char next() {
+		char c = peek();
+		pos++;
+		return c;
+	}
+
+	private void expect(char expected) {
+		if (next() != expected)
+			throw error("Expected '" + expected + "'");
+	}
+
+	private DataException error(String message) {
+		return new DataException(message + " at position " + pos + " of sensor payload");
+	}
+
+	// Compare a region of text with a String without allocating
+	static boolean regionEquals(CharSequence text, int start, int end, String value) {
+		int length = end - start;
+		if (length != value.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (text.charAt(start + i) != value.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+/**
+ * SensorReading is a reusable holder for one decoded sensor message.
+ * The numeric fields are kept as primitives indexed by the constants below, so decoding
+ * a message into an existing SensorReading does not allocate.
+ */
+final class SensorReading {
+	// Numeric fields of the sensor messages, the index of a name is its field number
+	static final String[] FIELDS = {"light", "sound", "watts", "heat", "volts", "amps"};
+	static final int LIGHT = 0;
+	static final int SOUND = 1;
+	static final int WATTS = 2;
+	static final int HEAT = 3;
+	static final int VOLTS = 4;
+	static final int AMPS = 5;
+
+	String id;
+	SensorKind kind;
+	final double[] values = new double[FIELDS.length];
+	// Bit n is set when field n was present in the message
+	int present;
+
+	void reset() {
+		id = null;
+		kind = null;
+		present = 0;
+		for (int i = 0; i < values.length; i++)
+			values[i] = 0;
+	}
+
+	double value(int field) {
+		return values[field];
+	}
+
+	boolean has(int field) {
+		return (present & (1 << field)) != 0;
+	}
+
+	@Override public String toString() {
+		StringBuilder builder = new StringBuilder("Sensor-id: ").append(id)
+			.append(" Sensor-Type: ").append(kind == null ? null : kind.typeName);
+		for (int i = 0; i < FIELDS.length; i++) {
+			if (has(i))
+				builder.append(' ').append(FIELDS[i]).append(": ").append(values[i]);
+		}
+		return builder.toString();
+	}
+}
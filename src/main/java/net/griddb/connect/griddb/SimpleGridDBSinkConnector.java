@@ -59,15 +59,27 @@ public class SimpleGridDBSinkConnector extends SinkConnector {
     public static final String CLUSTERNAME_CONFIG = "clusterName";
     public static final String USER_CONFIG = "user";
     public static final String PASSWORD_CONFIG = "password";
-    private static final ConfigDef CONFIG_DEF = new ConfigDef()
+    // Per-record debug logging is off by default, set to n to log every n-th record at debug level
+    public static final String LOG_SAMPLE_INTERVAL_CONFIG = GridDBSinkConnector.LOG_SAMPLE_INTERVAL_CONFIG;
+    // Container handle cache: bounds the number of open TimeSeries handles kept by a task
+    public static final String CONTAINER_CACHE_SIZE_CONFIG = "container.cache.size";
+    public static final String CONTAINER_CACHE_IDLE_MS_CONFIG = "container.cache.idle.ms";
+    public static final String RETRY_BACKOFF_MS_CONFIG = GridDBSinkConnector.RETRY_BACKOFF_MS_CONFIG;
+    public static final String RETRY_BACKOFF_MAX_MS_CONFIG = GridDBSinkConnector.RETRY_BACKOFF_MAX_MS_CONFIG;
+    static final ConfigDef CONFIG_DEF = new ConfigDef()
 	.define(HOST_CONFIG, Type.STRING, Importance.HIGH, "GridDB Host") 
 	.define(PORT_CONFIG, Type.STRING, Importance.HIGH, "GridDB Port")
 	.define(CLUSTERNAME_CONFIG, Type.STRING, Importance.HIGH, "GridDB clusterName")
-	.define(DATABASE_CONFIG, Type.STRING, Importance.HIGH, "GridDB Database")
 	.define(USER_CONFIG, Type.STRING, Importance.HIGH, "GridDB Username")
-	.define(PASSWORD_CONFIG, Type.STRING, Importance.HIGH, "GridDB Password");
+	.define(PASSWORD_CONFIG, Type.STRING, Importance.HIGH, "GridDB Password")
+	.define(LOG_SAMPLE_INTERVAL_CONFIG, Type.INT, 0, ConfigDef.Range.atLeast(0), Importance.LOW, "Log every n-th record at debug level, 0 disables per-record logging")
+	.define(CONTAINER_CACHE_SIZE_CONFIG, Type.INT, 10000, ConfigDef.Range.atLeast(1), Importance.LOW, "Maximum number of open container handles cached by a task")
+	.define(CONTAINER_CACHE_IDLE_MS_CONFIG, Type.LONG, 600000L, ConfigDef.Range.atLeast(0), Importance.LOW, "Cached container handles unused for this long are closed, 0 disables idle eviction")
+	.define(RETRY_BACKOFF_MS_CONFIG, Type.LONG, 100L, ConfigDef.Range.atLeast(1), Importance.LOW, "Initial time to wait before retrying a GridDB connection, doubled per attempt")
+	.define(RETRY_BACKOFF_MAX_MS_CONFIG, Type.LONG, 5000L, ConfigDef.Range.atLeast(1), Importance.LOW, "Maximum time to wait before retrying a GridDB connection");
 
     String host, port, clusterName, database, user, password;
+    Map<String, String> configProps;
 
     @Override
     public String version() {
@@ -82,6 +94,7 @@ public class SimpleGridDBSinkConnector extends SinkConnector {
         clusterName = props.get(CLUSTERNAME_CONFIG);
         user = props.get(USER_CONFIG);
         password = props.get(PASSWORD_CONFIG);
+        configProps = props;
         System.out.println("Connector starting");
     }
 
@@ -105,6 +118,14 @@ public class SimpleGridDBSinkConnector extends SinkConnector {
                 config.put(USER_CONFIG, user);
             if (password != null)
                 config.put(PASSWORD_CONFIG, password);
+            // Pass the remaining (optional) settings through unchanged, the task falls back to their defaults
+            for (String name : CONFIG_DEF.names()) {
+                if (!config.containsKey(name) && configProps.containsKey(name))
+                    config.put(name, configProps.get(name));
+            }
+            if (configProps.containsKey(GridDBSinkConnector.NAME_CONFIG))
+                config.put(GridDBSinkConnector.NAME_CONFIG, configProps.get(GridDBSinkConnector.NAME_CONFIG));
+            config.put(GridDBSinkConnector.TASK_ID_CONFIG, Integer.toString(i));
             configs.add(config);
         }
 
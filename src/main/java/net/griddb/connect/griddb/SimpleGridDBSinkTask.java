@@ -27,8 +27,10 @@
 package net.griddb.connect.griddb;
 
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
 import org.slf4j.Logger;
@@ -41,14 +43,12 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import com.toshiba.mwcloud.gs.RowKey;
 import com.toshiba.mwcloud.gs.GridStore;
-import com.toshiba.mwcloud.gs.GridStoreFactory;
 import com.toshiba.mwcloud.gs.TimeSeries;
 import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Properties;
 import java.util.Date;
-import net.arnx.jsonic.JSON;
 
 /**
  * SimpleGridDBSinkTask writes records to a GridDB TimeSeries Container
@@ -56,11 +56,23 @@ import net.arnx.jsonic.JSON;
 public class SimpleGridDBSinkTask extends SinkTask {
 	private static final Logger log = LoggerFactory.getLogger(SimpleGridDBSinkTask.class);
 
-	private GridStore store;
+	private GridStoreConnection connection;
+	private ContainerCache containers;
+	private final GridStoreProvider stores;
 	private static final String CONTAINER_NAME = "sample";
+	// Decoder and reusable holders for the JSON payload and the row of each record, ts.put copies the row
+	private final SensorPayloadDecoder decoder = new SensorPayloadDecoder();
+	private final SensorReading reading = new SensorReading();
+	private final Sensor sensor = new Sensor();
+	private final SinkTaskMetrics metrics = new SinkTaskMetrics();
+	// Log every n-th record at debug level, 0 disables the per-record logging
+	private int logSampleInterval;
+	private long recordCount;
+	// How long Connect waits before delivering records again while GridDB cannot be reached
+	private long retryBackoffMs;
 
 	static class Sensor{
-		@RowKey Date time;
+		@RowKey Date time = new Date(0);
 		double light;
 		double sound;
 		public void setTime(Date time){
@@ -79,6 +91,11 @@ public class SimpleGridDBSinkTask extends SinkTask {
 
 
 	public SimpleGridDBSinkTask() {
+		this(GridStoreProvider.FACTORY);
+	}
+
+	SimpleGridDBSinkTask(GridStoreProvider stores) {
+		this.stores = stores;
 	}
 
 
@@ -87,7 +104,7 @@ public class SimpleGridDBSinkTask extends SinkTask {
 	}
 
 	@Override public void start(Map<String, String> props) {
-		System.out.println("Starting Task....");
+		log.info("Starting Task....");
 		Properties gsprops = new Properties();
 
 		gsprops.setProperty("notificationAddress", props.get(GridDBSinkConnector.HOST_CONFIG));
@@ -96,27 +113,82 @@ public class SimpleGridDBSinkTask extends SinkTask {
 		gsprops.setProperty("user", props.get(GridDBSinkConnector.USER_CONFIG));
 		gsprops.setProperty("password", props.get(GridDBSinkConnector.PASSWORD_CONFIG));
 
-		try {
-			store=GridStoreFactory.getInstance().getGridStore(gsprops);
-		} catch (Exception ex) {
-			System.out.println("Failed to get GS instance\n" + ex);
-		}
+		AbstractConfig config = new AbstractConfig(SimpleGridDBSinkConnector.CONFIG_DEF, props);
+		logSampleInterval = config.getInt(SimpleGridDBSinkConnector.LOG_SAMPLE_INTERVAL_CONFIG);
+		metrics.register(SimpleGridDBSinkTask.class.getSimpleName(), props.get(GridDBSinkConnector.NAME_CONFIG),
+			props.get(GridDBSinkConnector.TASK_ID_CONFIG));
+
+		retryBackoffMs = config.getLong(SimpleGridDBSinkConnector.RETRY_BACKOFF_MS_CONFIG);
+		connection = new GridStoreConnection(stores, gsprops, gsprops.getProperty("clusterName"), CONTAINER_NAME,
+			retryBackoffMs, config.getLong(SimpleGridDBSinkConnector.RETRY_BACKOFF_MAX_MS_CONFIG), metrics);
+		containers = new ContainerCache(null, config.getInt(SimpleGridDBSinkConnector.CONTAINER_CACHE_SIZE_CONFIG),
+			config.getLong(SimpleGridDBSinkConnector.CONTAINER_CACHE_IDLE_MS_CONFIG));
+		metrics.addContainerCache(containers);
+		// A cluster that cannot be reached yet is connected to on a later put()
+		connect();
+	}
 
+	// Connect unless already connected, attempts are spaced out by the connection's backoff
+	private boolean connect() {
+		if (connection.isConnected())
+			return true;
+		GridStore connected = connection.isDue() ? connection.connect() : null;
+		if (connected == null)
+			return false;
+		containers.reset(connected);
+		return true;
+	}
+
+	// Have Connect back off and deliver the records again, rewriting a record puts the same row again
+	private RetriableException retry(String message, Exception cause) {
+		if (context != null)
+			context.timeout(retryBackoffMs);
+		return new RetriableException(message, cause);
 	}
 
 	@Override public void put(Collection<SinkRecord> sinkRecords) {
+		if (!connect())
+			throw retry("Not connected to GridDB, the records are delivered again", null);
+		metrics.recordRecords(sinkRecords.size());
 		for (SinkRecord record : sinkRecords) {
-			System.out.println("Recieved a "+ record.value().getClass());
-			String payload = (String)((HashMap)record.value()).get("payload");
-			Sensor sensor = JSON.decode(payload, Sensor.class);
-			sensor.time = new Date(record.timestamp());
-			System.out.println("Putting "+ sensor + " into " + record.topic());
+			Object value = record.value();
+			boolean sampled = logSampleInterval > 0 && ++recordCount % logSampleInterval == 0 && log.isDebugEnabled();
+			if (sampled)
+				log.debug("Recieved a {}", value == null ? null : value.getClass());
+			// Fault tolerance: Do not parse any record message that does not have a HashMap value
+			if (value == null || value.getClass() != HashMap.class) {
+				log.warn("Skipping record {}-{}@{} without a HashMap value", record.topic(), record.kafkaPartition(),
+					record.kafkaOffset());
+				metrics.recordError("decode");
+				continue;
+			}
 
 			try {
-				TimeSeries<Sensor> ts = store.putTimeSeries(record.topic(), Sensor.class);
+				long start = System.nanoTime();
+				decoder.decode((String) ((Map<?, ?>) value).get("payload"), reading);
+				metrics.decode.record(System.nanoTime() - start);
+				sensor.light = reading.value(SensorReading.LIGHT);
+				sensor.sound = reading.value(SensorReading.SOUND);
+				sensor.time.setTime(record.timestamp());
+				if (sampled)
+					log.debug("Putting {} into {}", sensor, record.topic());
+
+				start = System.nanoTime();
+				TimeSeries<Sensor> ts = containers.timeSeries(record.topic(), Sensor.class);
+				metrics.containerLookup.record(System.nanoTime() - start);
+				start = System.nanoTime();
 				ts.put(sensor);
+				metrics.write.record(System.nanoTime() - start);
+				metrics.batchRows.record(1);
 			} catch (Exception ex) {
-				System.out.println("Failed to append TSRecord");
+				log.error("Failed to append TSRecord {}-{}@{}", record.topic(), record.kafkaPartition(),
+					record.kafkaOffset(), ex);
+				metrics.recordError(ex.getClass().getSimpleName());
+				// The cached handle may be stale, open it again on the next record
+				containers.invalidate(record.topic(), Sensor.class);
+				// The records of a broken connection would all fail, they are written again once it is back
+				if (!connection.check())
+					throw retry("Lost the connection to GridDB, the records are delivered again", ex);
 			}
 
 		}
@@ -128,8 +200,15 @@ public class SimpleGridDBSinkTask extends SinkTask {
 
 	@Override public void stop() {
 		try {
-			store.close();
-		} catch (Exception ex) {
+			if (containers != null) {
+				log.info("Closing {}", containers);
+				containers.clear();
+			}
+			if (connection != null)
+				connection.close();
+		} finally {
+			log.info("Task metrics: {}", metrics);
+			metrics.unregister();
 		}
 
 	}
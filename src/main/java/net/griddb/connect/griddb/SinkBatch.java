@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SinkBatch collects decoded rows grouped by their target container so that
+ * they can be written to GridDB with a single GridStore.multiPut call
+ */
+class SinkBatch {
+	// Adjusted between batches when the writer adapts its batch size
+	private int maxRows;
+	private final long maxBytes;
+
+	// Rows to be written, keyed by container name (the sensor-id or Sensor_Types)
+	private final Map<String, List<Row>> containerRows = new LinkedHashMap<>();
+	// Pending rows that contributed to this batch, used to name their records if the write fails
+	private final List<PendingRow> records = new ArrayList<>();
+	// Row lists of earlier batches, reused so that a batch does not allocate a list per container
+	private final ArrayDeque<ContainerRows> freeLists = new ArrayDeque<>();
+
+	// The rows of one container, along with their column layout (null for rows of Sensor_Types)
+	// and, for data-log rows, the timestamp and the record of every row
+	private static final class ContainerRows extends ArrayList<Row> {
+		// Never serialized, declared because ArrayList is Serializable
+		private static final long serialVersionUID = 1L;
+
+		ContainerInfo info;
+		long[] times;
+		PendingRow[] records;
+		boolean dataLog;
+	}
+
+	private int rowCount;
+	private long byteCount;
+
+	SinkBatch(int maxRows, long maxBytes) {
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+	}
+
+	// Queue a data-log row for the container with the given name
+	void add(String container, ContainerInfo info, Row row, PendingRow record, int bytes) {
+		ContainerRows rows = rowsOf(container);
+		rows.info = info;
+		rows.dataLog = true;
+		if (rows.times == null) {
+			rows.times = new long[16];
+			rows.records = new PendingRow[16];
+		} else if (rows.times.length == rows.size()) {
+			rows.times = Arrays.copyOf(rows.times, rows.size() * 2);
+			rows.records = Arrays.copyOf(rows.records, rows.size() * 2);
+		}
+		rows.times[rows.size()] = record.timestamp;
+		rows.records[rows.size()] = record;
+		addRow(container, row, bytes);
+		records.add(record);
+	}
+
+	// Count a record whose reading is written as part of a packed row (see WindowPacker)
+	void addRecord(PendingRow record, int bytes) {
+		records.add(record);
+		byteCount += bytes;
+	}
+
+	// Queue a row that has no originating record of its own into a container with the given layout
+	// (e.g. a rollup row or a Sink_Offsets entry)
+	void addRow(String container, ContainerInfo info, Row row, int bytes) {
+		rowsOf(container).info = info;
+		addRow(container, row, bytes);
+	}
+
+	// Queue a row that has no originating record of its own (e.g. a Sensor_Types catalog entry)
+	void addRow(String container, Row row, int bytes) {
+		rowsOf(container).add(row);
+		rowCount++;
+		byteCount += bytes;
+	}
+
+	private ContainerRows rowsOf(String container) {
+		ContainerRows rows = (ContainerRows) containerRows.get(container);
+		if (rows == null) {
+			rows = freeLists.isEmpty() ? new ContainerRows() : freeLists.pollFirst();
+			containerRows.put(container, rows);
+		}
+		return rows;
+	}
+
+	void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	boolean isFull() {
+		return Math.max(rowCount, records.size()) >= maxRows || byteCount >= maxBytes;
+	}
+
+	boolean isEmpty() {
+		return rowCount == 0 && records.isEmpty();
+	}
+
+	int rowCount() {
+		return rowCount;
+	}
+
+	// Records of this batch, including those written as part of a packed row
+	int recordCount() {
+		return records.size();
+	}
+
+	long byteCount() {
+		return byteCount;
+	}
+
+	// Put the data-log rows of every container in timestamp order and merge rows that share a timestamp,
+	// returns the number of rows merged away. Called before any other rows are added to the batch.
+	int coalesce(RowCoalescer coalescer) throws GSException {
+		int merged = 0;
+		for (List<Row> list : containerRows.values()) {
+			ContainerRows rows = (ContainerRows) list;
+			if (rows.dataLog)
+				merged += rows.size() - coalescer.coalesce(rows.info, rows, rows.times, rows.records);
+		}
+		rowCount -= merged;
+		return merged;
+	}
+
+	// Add the data-log rows of every container to the rollups, after coalesce()
+	void addTo(Rollups rollups) throws GSException {
+		for (Map.Entry<String, List<Row>> entry : containerRows.entrySet()) {
+			ContainerRows rows = (ContainerRows) entry.getValue();
+			if (!rows.dataLog)
+				continue;
+			for (int i = 0; i < rows.size(); i++)
+				rollups.add(entry.getKey(), rows.info, rows.get(i), rows.times[i], rows.records[i]);
+		}
+	}
+
+	Map<String, List<Row>> containerRows() {
+		return containerRows;
+	}
+
+	// Column layout of the data-log container with the given name in this batch, or null
+	ContainerInfo containerInfo(String container) {
+		ContainerRows rows = (ContainerRows) containerRows.get(container);
+		return rows == null ? null : rows.info;
+	}
+
+	// Column layout of a row list of containerRows(), null for Sensor_Types
+	static ContainerInfo containerInfo(List<Row> rows) {
+		return ((ContainerRows) rows).info;
+	}
+
+	List<PendingRow> records() {
+		return records;
+	}
+
+	// Describe the records in this batch as topic-partition@offset so failures can be traced back to Kafka
+	String describeRecords() {
+		StringBuilder builder = new StringBuilder();
+		for (PendingRow record : records) {
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append(record.topic).append('-').append(record.partition).append('@').append(record.offset);
+		}
+		return builder.toString();
+	}
+
+	void clear() {
+		for (List<Row> rows : containerRows.values()) {
+			// The records are handed back to the buffer once the batch is done
+			if (((ContainerRows) rows).dataLog)
+				Arrays.fill(((ContainerRows) rows).records, 0, rows.size(), null);
+			rows.clear();
+			((ContainerRows) rows).info = null;
+			((ContainerRows) rows).dataLog = false;
+			freeLists.addFirst((ContainerRows) rows);
+		}
+		containerRows.clear();
+		records.clear();
+		rowCount = 0;
+		byteCount = 0;
+	}
+}
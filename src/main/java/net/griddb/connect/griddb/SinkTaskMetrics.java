@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * SinkTaskMetrics collects the per-stage timings and counters of a sink task and publishes
+ * them as a JMX MBean named net.griddb.connect:type=&lt;task class&gt;,connector=&lt;name&gt;,task=&lt;id&gt;.
+ * Every method can be called from any thread.
+ */
+class SinkTaskMetrics implements SinkTaskMetricsMXBean {
+	private static final Logger log = LoggerFactory.getLogger(SinkTaskMetrics.class);
+
+	// records/sec is a one-minute exponentially weighted moving average, updated every 5 seconds
+	private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(5);
+	private static final double ALPHA = 1 - Math.exp(-5.0 / 60.0);
+	private static final double MICROS = 1000.0;
+
+	final Histogram decode = new Histogram();
+	final Histogram containerLookup = new Histogram();
+	final Histogram catalogCheck = new Histogram();
+	final Histogram write = new Histogram();
+	final Histogram batchRows = new Histogram();
+
+	private final LongAdder records = new LongAdder();
+	private final LongAdder uncounted = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder spilled = new LongAdder();
+	private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+	private volatile double rate = -1;
+
+	private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+	private final List<ContainerCache> containerCaches = new CopyOnWriteArrayList<>();
+	private final List<BatchController> batchControllers = new CopyOnWriteArrayList<>();
+	private volatile IntSupplier bufferDepth;
+	private volatile IntSupplier spillDepth;
+	private volatile Backpressure backpressure;
+	private ObjectName name;
+
+	void recordRecords(int count) {
+		records.add(count);
+		uncounted.add(count);
+		tickIfNecessary();
+	}
+
+	void recordSkipped(int count) {
+		skipped.add(count);
+	}
+
+	void recordCoalesced(int count) {
+		coalesced.add(count);
+	}
+
+	void recordSpilled(int count) {
+		spilled.add(count);
+	}
+
+	void recordError(String cause) {
+		LongAdder counter = errors.get(cause);
+		if (counter == null) {
+			counter = new LongAdder();
+			LongAdder existing = errors.putIfAbsent(cause, counter);
+			if (existing != null)
+				counter = existing;
+		}
+		counter.increment();
+	}
+
+	void addContainerCache(ContainerCache cache) {
+		containerCaches.add(cache);
+	}
+
+	void addBatchController(BatchController controller) {
+		batchControllers.add(controller);
+	}
+
+	void setBufferDepth(IntSupplier bufferDepth) {
+		this.bufferDepth = bufferDepth;
+	}
+
+	void setSpillDepth(IntSupplier spillDepth) {
+		this.spillDepth = spillDepth;
+	}
+
+	void setBackpressure(Backpressure backpressure) {
+		this.backpressure = backpressure;
+	}
+
+	private void tickIfNecessary() {
+		long oldTick = lastTick.get();
+		long now = System.nanoTime();
+		long age = now - oldTick;
+		if (age > TICK_NANOS && lastTick.compareAndSet(oldTick, now - age % TICK_NANOS)) {
+			for (long i = age / TICK_NANOS; i > 0; i--) {
+				double instantRate = uncounted.sumThenReset() / (double) TimeUnit.NANOSECONDS.toSeconds(TICK_NANOS);
+				rate = rate < 0 ? instantRate : rate + ALPHA * (instantRate - rate);
+			}
+		}
+	}
+
+	// Publish this object over JMX, a failure only costs the metrics
+	void register(String type, String connector, String task) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("net.griddb.connect:type=" + type + ",connector="
+				+ ObjectName.quote(connector == null ? "unknown" : connector) + ",task=" + (task == null ? "0" : task));
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (Exception ex) {
+			log.warn("Failed to register sink task metrics", ex);
+			name = null;
+		}
+	}
+
+	void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (Exception ex) {
+			log.debug("Failed to unregister sink task metrics", ex);
+		}
+		name = null;
+	}
+
+	@Override public long getRecordsTotal() {
+		return records.sum();
+	}
+
+	@Override public long getRecordsSkipped() {
+		return skipped.sum();
+	}
+
+	@Override public long getRecordsCoalesced() {
+		return coalesced.sum();
+	}
+
+	@Override public double getRecordsPerSecond() {
+		tickIfNecessary();
+		return Math.max(rate, 0);
+	}
+
+	@Override public long getErrorsTotal() {
+		long total = 0;
+		for (LongAdder counter : errors.values())
+			total += counter.sum();
+		return total;
+	}
+
+	@Override public Map<String, Long> getErrors() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : errors.entrySet())
+			counts.put(entry.getKey(), entry.getValue().sum());
+		return counts;
+	}
+
+	@Override public int getBufferDepth() {
+		IntSupplier depth = bufferDepth;
+		return depth == null ? 0 : depth.getAsInt();
+	}
+
+	@Override public long getRecordsSpilled() {
+		return spilled.sum();
+	}
+
+	@Override public int getSpillDepth() {
+		IntSupplier depth = spillDepth;
+		return depth == null ? 0 : depth.getAsInt();
+	}
+
+	@Override public boolean isBackpressurePaused() {
+		Backpressure current = backpressure;
+		return current != null && current.isPaused();
+	}
+
+	@Override public long getBackpressurePauses() {
+		Backpressure current = backpressure;
+		return current == null ? 0 : current.pauses();
+	}
+
+	@Override public long getBackpressurePausedMs() {
+		Backpressure current = backpressure;
+		return current == null ? 0 : current.pausedMillis();
+	}
+
+	@Override public HistogramSnapshot getDecodeLatency() {
+		return decode.snapshot(MICROS);
+	}
+
+	@Override public HistogramSnapshot getContainerLookupLatency() {
+		return containerLookup.snapshot(MICROS);
+	}
+
+	@Override public HistogramSnapshot getCatalogCheckLatency() {
+		return catalogCheck.snapshot(MICROS);
+	}
+
+	@Override public HistogramSnapshot getWriteLatency() {
+		return write.snapshot(MICROS);
+	}
+
+	@Override public HistogramSnapshot getBatchRows() {
+		return batchRows.snapshot(1);
+	}
+
+	@Override public long getContainerCacheHits() {
+		long hits = 0;
+		for (ContainerCache cache : containerCaches)
+			hits += cache.hits();
+		return hits;
+	}
+
+	@Override public long getContainerCacheMisses() {
+		long misses = 0;
+		for (ContainerCache cache : containerCaches)
+			misses += cache.misses();
+		return misses;
+	}
+
+	@Override public long getContainerCacheEvictions() {
+		long evictions = 0;
+		for (ContainerCache cache : containerCaches)
+			evictions += cache.evictions();
+		return evictions;
+	}
+
+	@Override public double getBatchRowLimit() {
+		long rows = 0;
+		for (BatchController controller : batchControllers)
+			rows += controller.rowLimit();
+		return batchControllers.isEmpty() ? 0 : rows / (double) batchControllers.size();
+	}
+
+	@Override public double getBatchLingerMs() {
+		long linger = 0;
+		for (BatchController controller : batchControllers)
+			linger += controller.lingerMs();
+		return batchControllers.isEmpty() ? 0 : linger / (double) batchControllers.size();
+	}
+
+	@Override public long getBatchLimitDecreases() {
+		long decreases = 0;
+		for (BatchController controller : batchControllers)
+			decreases += controller.decreases();
+		return decreases;
+	}
+
+	@Override public String toString() {
+		return "records=" + getRecordsTotal() + " records/sec=" + String.format("%.1f", getRecordsPerSecond())
+			+ " skipped=" + getRecordsSkipped() + " coalesced=" + getRecordsCoalesced() + " spilled=" + getRecordsSpilled() + " pauses=" + getBackpressurePauses() + " errors=" + getErrors() + " decode(us)=[" + getDecodeLatency() + "] write(us)=["
+			+ getWriteLatency() + "] batchRows=[" + getBatchRows() + "] batchLimits=" + batchControllers;
+	}
+}
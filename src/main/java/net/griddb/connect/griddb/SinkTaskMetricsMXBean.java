@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a sink task. Stage latencies are reported in microseconds.
+ */
+public interface SinkTaskMetricsMXBean {
+	long getRecordsTotal();
+
+	// Records skipped because they had been written before a restart or rebalance
+	long getRecordsSkipped();
+
+	// Records merged into another record of the same container and timestamp within a batch
+	long getRecordsCoalesced();
+
+	double getRecordsPerSecond();
+
+	long getErrorsTotal();
+
+	// Error counts keyed by cause
+	Map<String, Long> getErrors();
+
+	// Rows waiting in the write-behind buffers
+	int getBufferDepth();
+
+	// Records spilled into the journal because the writers were behind, and the rows waiting in it (see spill.dir)
+	long getRecordsSpilled();
+
+	int getSpillDepth();
+
+	// Whether the task's partitions are paused because the writers are behind, how often and how long they were
+	boolean isBackpressurePaused();
+
+	long getBackpressurePauses();
+
+	long getBackpressurePausedMs();
+
+	HistogramSnapshot getDecodeLatency();
+
+	HistogramSnapshot getContainerLookupLatency();
+
+	HistogramSnapshot getCatalogCheckLatency();
+
+	HistogramSnapshot getWriteLatency();
+
+	// Rows per GridDB write
+	HistogramSnapshot getBatchRows();
+
+	// Current batch row limit and linger time, averaged over the writers (see batch.latency.target.ms)
+	double getBatchRowLimit();
+
+	double getBatchLingerMs();
+
+	// Times a writer halved its batch limits because a write was too slow or failed
+	long getBatchLimitDecreases();
+
+	long getContainerCacheHits();
+
+	long getContainerCacheMisses();
+
+	long getContainerCacheEvictions();
+}
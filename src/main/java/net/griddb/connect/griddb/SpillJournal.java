@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * SpillJournal holds the decoded rows the writers cannot take yet, so that put() does not have to block while
+ * GridDB is slow or cannot be reached. Rows are appended to memory-mapped segment files in a directory of the
+ * task, off the heap, and a drainer thread hands them to the writers in the order they were appended. Once a
+ * row has been spilled, every following row is spilled as well until the journal has been drained, so the rows
+ * of a container keep their order.
+ * Every entry is its length, a CRC32 of its bytes and the bytes: the sensor-id, timestamp, sensor kind and
+ * readings of the row and the topic, partition and offset of its record. An entry that does not match its
+ * checksum fails the journal. Drained segments are reused, at most maxBytes of segments are kept.
+ * The journal is not a recovery log: the task only commits the offsets of records whose rows have been handed
+ * to the writers (see GridDBSinkTask.preCommit), so the files of an earlier run are deleted when it opens and
+ * Connect delivers their records again.
+ * Rows are appended by the task thread only.
+ */
+class SpillJournal implements Runnable {
+	private static final Logger log = LoggerFactory.getLogger(SpillJournal.class);
+
+	// How long the drainer waits for entries before checking whether it has been stopped
+	private static final long POLL_MS = 100;
+	// Length and checksum before the bytes of an entry
+	private static final int HEADER_BYTES = 8;
+	private static final String SUFFIX = ".spill";
+
+	// A memory-mapped segment file, written up to writePosition and read up to readPosition
+	private static final class Segment {
+		final Path file;
+		final MappedByteBuffer buffer;
+		int writePosition;
+		int readPosition;
+		// No more entries are appended once the next segment has been started
+		boolean sealed;
+
+		Segment(Path file, MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	private final Path dir;
+	private final int segmentBytes;
+	private final int maxSegments;
+	private final GridDBWriterPool writers;
+	private final SinkTaskMetrics metrics;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition drainedCondition = lock.newCondition();
+	// Segments with entries that have not been read, oldest first; the last one is appended to
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	private final ArrayDeque<Segment> free = new ArrayDeque<>();
+	private int segmentCount;
+	// Entries appended and entries handed to the writers (or discarded) so far
+	private long appended;
+	private long drained;
+	// Entries appended before this one are discarded instead of handed to the writers, see discard()
+	private long discardBefore;
+	// Per topic and partition, the entries not yet handed to the writers and the offset of the last one that was
+	private final Map<String, long[]> pending = new HashMap<>();
+	private final Map<String, long[]> drainedOffsets = new HashMap<>();
+	private volatile Exception failure;
+
+	// Encoding buffer of the task thread
+	private ByteBuffer entry = ByteBuffer.allocate(256);
+	private final CRC32 appendCrc = new CRC32();
+	// Decoding state of the drainer thread
+	private final CRC32 drainCrc = new CRC32();
+	private byte[] bytes = new byte[256];
+
+	private volatile boolean running = true;
+	private Thread thread;
+
+	SpillJournal(Path dir, int segmentBytes, long maxBytes, GridDBWriterPool writers, SinkTaskMetrics metrics)
+			throws IOException {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.maxSegments = (int) Math.max(1, maxBytes / segmentBytes);
+		this.writers = writers;
+		this.metrics = metrics;
+		Files.createDirectories(dir);
+		deleteSegments();
+	}
+
+	// Segment files of an earlier run hold records whose offsets were never committed, Connect delivers them again
+	private void deleteSegments() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+			for (Path file : files)
+				Files.delete(file);
+		}
+	}
+
+	void start() {
+		metrics.setSpillDepth(this::size);
+		thread = new Thread(this, "griddb-sink-spill-" + dir.getFileName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Append a row, waiting up to timeoutMs while the journal is full. Returns false if it is still full.
+	boolean append(String container, long timestamp, SensorKind kind, double first, double second, String topic,
+			int partition, long offset, long timeoutMs) throws IOException, InterruptedException {
+		entry.clear();
+		putString(container);
+		ensure(8 + 1 + 16 + 2 + 4 + 8);
+		entry.putLong(timestamp).put((byte) kind.ordinal()).putDouble(first).putDouble(second);
+		putString(topic);
+		ensure(12);
+		entry.putInt(partition).putLong(offset);
+		entry.flip();
+		int length = entry.remaining();
+		appendCrc.reset();
+		appendCrc.update(entry.array(), 0, length);
+		if (HEADER_BYTES + length > segmentBytes)
+			throw new IOException("Entry of " + length + " bytes does not fit into a spill segment");
+
+		lock.lock();
+		try {
+			Segment segment = segments.peekLast();
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			while (segment == null || segment.writePosition + HEADER_BYTES + length > segmentBytes) {
+				Segment next = nextSegment();
+				if (next != null) {
+					if (segment != null)
+						segment.sealed = true;
+					segments.addLast(next);
+					segment = next;
+				} else {
+					if (remaining <= 0)
+						return false;
+					remaining = notFull.awaitNanos(remaining);
+				}
+			}
+			ByteBuffer out = segment.buffer;
+			out.position(segment.writePosition);
+			out.putInt(length).putInt((int) appendCrc.getValue()).put(entry.array(), 0, length);
+			segment.writePosition = out.position();
+			appended++;
+			counts(pending, topic, partition)[partition]++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+		metrics.recordSpilled(1);
+		return true;
+	}
+
+	// A drained segment, or a new one while there are fewer than maxSegments, or null
+	private Segment nextSegment() throws IOException {
+		Segment segment = free.pollFirst();
+		if (segment != null) {
+			segment.writePosition = 0;
+			segment.readPosition = 0;
+			segment.sealed = false;
+			return segment;
+		}
+		if (segmentCount == maxSegments)
+			return null;
+		Path file = dir.resolve("segment-" + segmentCount + SUFFIX);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// The mapping stays valid after the channel has been closed
+			segment = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+		}
+		segmentCount++;
+		return segment;
+	}
+
+	private void putString(String value) {
+		byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+		ensure(2 + encoded.length);
+		entry.putShort((short) encoded.length).put(encoded);
+	}
+
+	private void ensure(int size) {
+		if (entry.remaining() < size) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(entry.capacity() * 2, entry.position() + size));
+			entry.flip();
+			grown.put(entry);
+			entry = grown;
+		}
+	}
+
+	private static long[] counts(Map<String, long[]> map, String topic, int partition) {
+		long[] counts = map.get(topic);
+		if (counts == null || counts.length <= partition) {
+			long[] grown = new long[partition + 1];
+			if (counts != null)
+				System.arraycopy(counts, 0, grown, 0, counts.length);
+			map.put(topic, grown);
+			counts = grown;
+		}
+		return counts;
+	}
+
+	@Override public void run() {
+		while (running) {
+			try {
+				drainNext();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (Exception ex) {
+				log.error("Failed to read the spill journal in {}, its records are delivered again", dir, ex);
+				metrics.recordError("spill");
+				failure = ex;
+				reset();
+			}
+		}
+	}
+
+	// Hand the oldest entry to its writer, waiting up to POLL_MS for one
+	private void drainNext() throws IOException, InterruptedException {
+		Segment segment;
+		int position;
+		boolean discarded;
+		lock.lock();
+		try {
+			if (appended == drained && !notEmpty.await(POLL_MS, TimeUnit.MILLISECONDS) && appended == drained)
+				return;
+			if (appended == drained)
+				return;
+			segment = segments.peekFirst();
+			while (segment.sealed && segment.readPosition == segment.writePosition) {
+				segments.pollFirst();
+				free.addLast(segment);
+				segment = segments.peekFirst();
+			}
+			position = segment.readPosition;
+			discarded = drained < discardBefore;
+		} finally {
+			lock.unlock();
+		}
+
+		// Entries up to the write position are complete and are not written again until they have been drained
+		ByteBuffer in = segment.buffer.duplicate();
+		in.position(position);
+		int length = in.getInt();
+		int crc = in.getInt();
+		if (length <= 0 || length > segmentBytes - HEADER_BYTES - position)
+			throw new IOException("Corrupt spill entry at " + position + " of " + segment.file);
+		if (bytes.length < length)
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		in.get(bytes, 0, length);
+		drainCrc.reset();
+		drainCrc.update(bytes, 0, length);
+		if ((int) drainCrc.getValue() != crc)
+			throw new IOException("Checksum mismatch of the spill entry at " + position + " of " + segment.file);
+
+		ByteBuffer data = ByteBuffer.wrap(bytes, 0, length);
+		String container = getString(data);
+		long timestamp = data.getLong();
+		SensorKind kind = SensorKind.values()[data.get()];
+		double first = data.getDouble();
+		double second = data.getDouble();
+		String topic = getString(data);
+		int partition = data.getInt();
+		long offset = data.getLong();
+
+		if (!discarded) {
+			// Blocks while the writer's buffer is full, which is what the journal is there for
+			WriteBehindBuffer buffer = writers.bufferFor(container);
+			PendingRow row = buffer.claim();
+			row.container = container;
+			row.timestamp = timestamp;
+			row.kind = kind;
+			row.first = first;
+			row.second = second;
+			row.mapping = null;
+			row.struct = null;
+			row.type = null;
+			row.topic = topic;
+			row.partition = partition;
+			row.offset = offset;
+			buffer.publish();
+		}
+
+		lock.lock();
+		try {
+			segment.readPosition = position + HEADER_BYTES + length;
+			if (segment.sealed && segment.readPosition == segment.writePosition) {
+				segments.remove(segment);
+				free.addLast(segment);
+			}
+			// A discard() while the row was handed over drops its offset as well
+			if (drained >= discardBefore)
+				counts(drainedOffsets, topic, partition)[partition] = offset + 1;
+			drained++;
+			counts(pending, topic, partition)[partition]--;
+			notFull.signalAll();
+			drainedCondition.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private String getString(ByteBuffer data) {
+		int length = data.getShort() & 0xFFFF;
+		String value = new String(data.array(), data.position(), length, StandardCharsets.UTF_8);
+		data.position(data.position() + length);
+		return value;
+	}
+
+	// Whether every appended row has been handed to the writers
+	boolean isEmpty() {
+		lock.lock();
+		try {
+			return appended == drained;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int size() {
+		lock.lock();
+		try {
+			return (int) (appended - drained);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Wait up to timeoutMs until every appended row has been handed to the writers, returns whether it has
+	boolean awaitDrained(long timeoutMs) throws InterruptedException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			while (appended != drained && remaining > 0)
+				remaining = drainedCondition.awaitNanos(remaining);
+			return appended == drained;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// The offset to commit for a partition given the offset Connect would commit: while rows of the partition
+	// are still in the journal, the offset after the last one handed to the writers (-1 if there is none yet)
+	long committable(String topic, int partition, long offset) {
+		lock.lock();
+		try {
+			long[] counts = pending.get(topic);
+			if (counts == null || partition >= counts.length || counts[partition] == 0)
+				return offset;
+			long[] offsets = drainedOffsets.get(topic);
+			return offsets == null || partition >= offsets.length || offsets[partition] == 0 ? -1 : offsets[partition];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Drop every row appended so far, e.g. because Connect delivers their records again after a failure.
+	// Nothing the journal handed over before may be committed either, the redelivered rows come before it.
+	void discard() {
+		lock.lock();
+		try {
+			discardBefore = appended;
+			drainedOffsets.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Drop every entry and reuse all segments, the drainer cannot read past a corrupt entry
+	private void reset() {
+		lock.lock();
+		try {
+			for (Segment segment : segments)
+				free.addLast(segment);
+			segments.clear();
+			drained = appended;
+			pending.clear();
+			drainedOffsets.clear();
+			notFull.signalAll();
+			drainedCondition.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Returns (and clears) the failure of the drainer since the last call, or null
+	Exception takeFailure() {
+		Exception taken = failure;
+		failure = null;
+		return taken;
+	}
+
+	// Stop draining and delete the segment files, the rows still in the journal are delivered again by Connect
+	void close() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+		}
+		lock.lock();
+		try {
+			List<Segment> all = new ArrayList<>(segments);
+			all.addAll(free);
+			segments.clear();
+			free.clear();
+			for (Segment segment : all) {
+				try {
+					Files.deleteIfExists(segment.file);
+				} catch (IOException ex) {
+					log.warn("Failed to delete {}", segment.file, ex);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
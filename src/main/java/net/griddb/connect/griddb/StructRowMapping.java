@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+
+import com.toshiba.mwcloud.gs.ColumnInfo;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StructRowMapping is the compiled mapping of one Kafka Connect Struct schema onto a GridDB TimeSeries.
+ * The id field names the container, the optional type field is recorded in Sensor_Types, and every
+ * other field becomes a column after the timestamp RowKey (taken from the timestamp field when one is
+ * configured, otherwise from the record). The ContainerInfo and the per-column setters are derived once
+ * per schema, so writing a record is a walk over the field list without reflection or parsing.
+ */
+final class StructRowMapping {
+	private static final String DEFAULT_TIME_COLUMN = "time";
+	// Written for missing optional timestamps, GridDB only reads it
+	private static final Date EPOCH = new Date(0);
+
+	// How each column is written into a Row
+	private static final int BYTE = 0;
+	private static final int SHORT = 1;
+	private static final int INTEGER = 2;
+	private static final int LONG = 3;
+	private static final int FLOAT = 4;
+	private static final int DOUBLE = 5;
+	private static final int DECIMAL = 6;
+	private static final int BOOL = 7;
+	private static final int STRING = 8;
+	private static final int TIMESTAMP = 9;
+	private static final int DOUBLE_ARRAY = 10;
+	private static final int LONG_ARRAY = 11;
+
+	final ContainerInfo containerInfo;
+	// Rough size of a row, used for the batch byte limit
+	final int rowBytes;
+	private final Field idField;
+	private final Field typeField;
+	private final Field timestampField;
+	private final String schemaType;
+	private final Field[] columns;
+	private final int[] setters;
+
+	StructRowMapping(Schema schema, String idFieldName, String typeFieldName, String timestampFieldName) {
+		if (schema.type() != Schema.Type.STRUCT)
+			throw new DataException("Expected a struct schema, got " + schema.type());
+		idField = schema.field(idFieldName);
+		if (idField == null || idField.schema().type() != Schema.Type.STRING)
+			throw new DataException("Schema " + schema.name() + " has no string field " + idFieldName);
+		typeField = typeFieldName.isEmpty() ? null : schema.field(typeFieldName);
+		if (typeField != null && typeField.schema().type() != Schema.Type.STRING)
+			throw new DataException("Type field " + typeFieldName + " of schema " + schema.name() + " is not a string");
+		timestampField = timestampFieldName.isEmpty() ? null : schema.field(timestampFieldName);
+		if (!timestampFieldName.isEmpty() && (timestampField == null || (timestampField.schema().type() != Schema.Type.INT64
+				&& !Timestamp.LOGICAL_NAME.equals(timestampField.schema().name()))))
+			throw new DataException("Schema " + schema.name() + " has no timestamp field " + timestampFieldName);
+		schemaType = schema.name() != null ? schema.name() : "struct";
+
+		String timeColumn = timestampField != null ? timestampField.name() : DEFAULT_TIME_COLUMN;
+		List<ColumnInfo> columnInfos = new ArrayList<>();
+		columnInfos.add(new ColumnInfo(timeColumn, GSType.TIMESTAMP));
+		List<Field> valueFields = new ArrayList<>();
+		List<Integer> valueSetters = new ArrayList<>();
+		int bytes = 8;
+		for (Field field : schema.fields()) {
+			if (field == idField || field == typeField || field == timestampField)
+				continue;
+			if (field.name().equals(timeColumn))
+				throw new DataException("Field " + field.name() + " of schema " + schema.name()
+					+ " clashes with the timestamp column");
+			int setter = setterOf(field.schema());
+			columnInfos.add(new ColumnInfo(field.name(), typeOf(setter)));
+			valueFields.add(field);
+			valueSetters.add(setter);
+			bytes += setter == STRING ? 16 : setter >= DOUBLE_ARRAY ? 64 : 8;
+		}
+		containerInfo = new ContainerInfo(null, ContainerType.TIME_SERIES, columnInfos, true);
+		rowBytes = bytes;
+		columns = valueFields.toArray(new Field[valueFields.size()]);
+		setters = new int[columns.length];
+		for (int i = 0; i < setters.length; i++)
+			setters[i] = valueSetters.get(i);
+	}
+
+	private static int setterOf(Schema schema) {
+		String logical = schema.name();
+		if (Timestamp.LOGICAL_NAME.equals(logical) || org.apache.kafka.connect.data.Date.LOGICAL_NAME.equals(logical)
+				|| Time.LOGICAL_NAME.equals(logical))
+			return TIMESTAMP;
+		if (Decimal.LOGICAL_NAME.equals(logical))
+			return DECIMAL;
+		switch (schema.type()) {
+		case INT8:
+			return BYTE;
+		case INT16:
+			return SHORT;
+		case INT32:
+			return INTEGER;
+		case INT64:
+			return LONG;
+		case FLOAT32:
+			return FLOAT;
+		case FLOAT64:
+			return DOUBLE;
+		case BOOLEAN:
+			return BOOL;
+		case STRING:
+			return STRING;
+		case ARRAY:
+			Schema.Type element = schema.valueSchema().type();
+			if (element == Schema.Type.FLOAT64 || element == Schema.Type.FLOAT32)
+				return DOUBLE_ARRAY;
+			if (element == Schema.Type.INT64 || element == Schema.Type.INT32)
+				return LONG_ARRAY;
+			throw new DataException("Arrays of " + element + " cannot be stored in GridDB columns");
+		default:
+			throw new DataException("Fields of type " + schema.type() + " cannot be stored in GridDB columns");
+		}
+	}
+
+	private static GSType typeOf(int setter) {
+		switch (setter) {
+		case BYTE:
+			return GSType.BYTE;
+		case SHORT:
+			return GSType.SHORT;
+		case INTEGER:
+			return GSType.INTEGER;
+		case LONG:
+			return GSType.LONG;
+		case FLOAT:
+			return GSType.FLOAT;
+		case BOOL:
+			return GSType.BOOL;
+		case STRING:
+			return GSType.STRING;
+		case TIMESTAMP:
+			return GSType.TIMESTAMP;
+		case DOUBLE_ARRAY:
+			return GSType.DOUBLE_ARRAY;
+		case LONG_ARRAY:
+			return GSType.LONG_ARRAY;
+		default:
+			return GSType.DOUBLE;
+		}
+	}
+
+	// Container (sensor-id) of the struct, or null if it has none
+	String id(Struct struct) {
+		return (String) struct.get(idField);
+	}
+
+	// Sensor type recorded in Sensor_Types: the type field, or the schema name when there is none
+	String type(Struct struct) {
+		String type = typeField == null ? null : (String) struct.get(typeField);
+		return type != null ? type : schemaType;
+	}
+
+	// RowKey of the struct, the record timestamp unless a timestamp field is configured
+	long timestamp(Struct struct, Long recordTimestamp) {
+		Object value = timestampField == null ? recordTimestamp : struct.get(timestampField);
+		if (value instanceof Date)
+			return ((Date) value).getTime();
+		if (value instanceof Long)
+			return (Long) value;
+		throw new DataException("Record has no timestamp");
+	}
+
+	// Fill in every column of a Row with this mapping's ContainerInfo. GridDB columns are not nullable,
+	// so missing optional values are written as zero, false or the empty string.
+	// The RowKey is given as a Date that is reused once the row has been written.
+	void fill(Row row, Struct struct, Date time) throws GSException {
+		row.setTimestamp(0, time);
+		for (int i = 0; i < columns.length; i++) {
+			Object value = struct.get(columns[i]);
+			int column = i + 1;
+			switch (setters[i]) {
+			case BYTE:
+				row.setByte(column, value == null ? 0 : (Byte) value);
+				break;
+			case SHORT:
+				row.setShort(column, value == null ? 0 : (Short) value);
+				break;
+			case INTEGER:
+				row.setInteger(column, value == null ? 0 : (Integer) value);
+				break;
+			case LONG:
+				row.setLong(column, value == null ? 0 : (Long) value);
+				break;
+			case FLOAT:
+				row.setFloat(column, value == null ? 0 : (Float) value);
+				break;
+			case DOUBLE:
+				row.setDouble(column, value == null ? 0 : (Double) value);
+				break;
+			case DECIMAL:
+				row.setDouble(column, value == null ? 0 : ((BigDecimal) value).doubleValue());
+				break;
+			case BOOL:
+				row.setBool(column, value != null && (Boolean) value);
+				break;
+			case STRING:
+				row.setString(column, value == null ? "" : (String) value);
+				break;
+			case TIMESTAMP:
+				row.setTimestamp(column, value == null ? EPOCH : (Date) value);
+				break;
+			case DOUBLE_ARRAY:
+				row.setDoubleArray(column, doubles((List<?>) value));
+				break;
+			case LONG_ARRAY:
+				row.setLongArray(column, longs((List<?>) value));
+				break;
+			default:
+				throw new IllegalStateException("Unknown setter " + setters[i]);
+			}
+		}
+	}
+
+	private static double[] doubles(List<?> values) {
+		double[] array = new double[values == null ? 0 : values.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = values.get(i) == null ? 0 : ((Number) values.get(i)).doubleValue();
+		return array;
+	}
+
+	private static long[] longs(List<?> values) {
+		long[] array = new long[values == null ? 0 : values.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = values.get(i) == null ? 0 : ((Number) values.get(i)).longValue();
+		return array;
+	}
+
+	/**
+	 * Compiled mappings by schema. Converters hand out the same Schema instance for every record of a
+	 * schema version, so lookups are by identity first and only fall back to Schema.equals for new
+	 * instances. Only used by the task thread.
+	 */
+	static final class Cache {
+		// Bounds the cache if a converter creates a new Schema instance per record
+		private static final int MAX_SCHEMAS = 1024;
+
+		private final String idField;
+		private final String typeField;
+		private final String timestampField;
+		private final IdentityHashMap<Schema, StructRowMapping> byInstance = new IdentityHashMap<>();
+		private final Map<Schema, StructRowMapping> bySchema = new HashMap<>();
+
+		Cache(String idField, String typeField, String timestampField) {
+			this.idField = idField;
+			this.typeField = typeField;
+			this.timestampField = timestampField;
+		}
+
+		StructRowMapping get(Schema schema) {
+			StructRowMapping mapping = byInstance.get(schema);
+			if (mapping != null)
+				return mapping;
+			mapping = bySchema.get(schema);
+			if (mapping == null) {
+				if (bySchema.size() >= MAX_SCHEMAS)
+					bySchema.clear();
+				mapping = new StructRowMapping(schema, idField, typeField, timestampField);
+				bySchema.put(schema, mapping);
+			}
+			if (byInstance.size() >= MAX_SCHEMAS)
+				byInstance.clear();
+			byInstance.put(schema, mapping);
+			return mapping;
+		}
+
+		int size() {
+			return bySchema.size();
+		}
+	}
+}
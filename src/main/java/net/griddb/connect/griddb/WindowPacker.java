@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.ColumnInfo;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowKeyPredicate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WindowPacker packs the readings of every sensor into one row per time window, written into a companion
+ * TimeSeries named &lt;container&gt;_packed instead of one row per reading into the data-log container.
+ * A packed row is keyed by the start of its window and holds the window length, the offset in milliseconds
+ * of every reading from the window start (LONG_ARRAY) and one array per numeric column with the readings'
+ * values (LONG_ARRAY for integer columns, DOUBLE_ARRAY otherwise), ordered by time. Readings that share a
+ * millisecond are all kept; a reading equal to one already in its window (a record delivered again) is not.
+ * Readings are appended to the windows kept in memory, and a window row is only written once the window has
+ * closed (a reading of a later window of its container arrived) or once its readings have waited pack.linger.ms,
+ * or when the writer flushes. The writer holds back the buffered rows of the readings until then. A window that
+ * is not in memory is read back from GridDB before it is written, so the readings already written are kept.
+ * A failed write drops the windows with unwritten readings, their records are delivered again. Not thread-safe.
+ */
+class WindowPacker {
+	static final String SUFFIX = "_packed";
+	static final String TIME_COLUMN = "time";
+	static final String WINDOW_COLUMN = "window";
+	static final String OFFSETS_COLUMN = "offsets";
+	// Columns of a packed row before the value arrays
+	private static final int VALUE_COLUMN = 3;
+
+	// Packed schema of a data-log column layout. Layouts with columns that cannot be packed into an array
+	// (e.g. strings or arrays) are not packed, their rows are written into the data-log container as usual.
+	static final class Layout {
+		final ContainerInfo source;
+		final ContainerInfo info;
+		final boolean packable;
+		final GSType[] types;
+		final boolean[] integral;
+
+		Layout(ContainerInfo source) {
+			this.source = source;
+			int columns = source.getColumnCount() - 1;
+			types = new GSType[columns];
+			integral = new boolean[columns];
+			List<ColumnInfo> columnInfos = new ArrayList<>();
+			columnInfos.add(new ColumnInfo(TIME_COLUMN, GSType.TIMESTAMP));
+			columnInfos.add(new ColumnInfo(WINDOW_COLUMN, GSType.LONG));
+			columnInfos.add(new ColumnInfo(OFFSETS_COLUMN, GSType.LONG_ARRAY));
+			boolean numeric = true;
+			// The RowKey (column 0) is the timestamp, every other column becomes an array
+			for (int i = 0; i < columns; i++) {
+				ColumnInfo column = source.getColumnInfo(i + 1);
+				types[i] = column.getType();
+				switch (types[i]) {
+				case BYTE:
+				case SHORT:
+				case INTEGER:
+				case LONG:
+					integral[i] = true;
+					columnInfos.add(new ColumnInfo(column.getName(), GSType.LONG_ARRAY));
+					break;
+				case FLOAT:
+				case DOUBLE:
+					columnInfos.add(new ColumnInfo(column.getName(), GSType.DOUBLE_ARRAY));
+					break;
+				default:
+					numeric = false;
+				}
+			}
+			packable = numeric;
+			info = numeric ? new ContainerInfo(null, ContainerType.TIME_SERIES, columnInfos, true) : null;
+		}
+
+		// Size of a packed row of the given number of readings, used for the batch byte limit
+		int rowBytes(int count) {
+			return 16 + 8 * count * (1 + types.length);
+		}
+	}
+
+	// The readings of one window of one container, ordered by their offset. Values are kept as longs,
+	// the raw bits of a double for columns that are not integral.
+	static final class Window {
+		final Layout layout;
+		final long start;
+		final long length;
+		int count;
+		long[] offsets = new long[4];
+		final long[][] values;
+		// Whether readings written before may be missing, the stored row is read back before the window is written
+		boolean unread;
+
+		Window(Layout layout, long start, long length) {
+			this.layout = layout;
+			this.start = start;
+			this.length = length;
+			values = new long[layout.types.length][4];
+		}
+
+		// Add a reading of a data-log row, returns false if the window already holds the same reading
+		boolean add(long timestamp, Row row) throws GSException {
+			long offset = timestamp - start;
+			int at = count;
+			// Readings mostly arrive in order, so the place of a reading is searched from the end
+			while (at > 0 && offsets[at - 1] > offset)
+				at--;
+			for (int i = at - 1; i >= 0 && offsets[i] == offset; i--) {
+				if (sameValues(i, row))
+					return false;
+			}
+			if (count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count * 2);
+				for (int c = 0; c < values.length; c++)
+					values[c] = Arrays.copyOf(values[c], count * 2);
+			}
+			System.arraycopy(offsets, at, offsets, at + 1, count - at);
+			offsets[at] = offset;
+			for (int c = 0; c < values.length; c++) {
+				System.arraycopy(values[c], at, values[c], at + 1, count - at);
+				values[c][at] = value(row, c);
+			}
+			count++;
+			return true;
+		}
+
+		private boolean sameValues(int index, Row row) throws GSException {
+			for (int c = 0; c < values.length; c++) {
+				if (values[c][index] != value(row, c))
+					return false;
+			}
+			return true;
+		}
+
+		private long value(Row row, int c) throws GSException {
+			int column = c + 1;
+			switch (layout.types[c]) {
+			case BYTE:
+				return row.getByte(column);
+			case SHORT:
+				return row.getShort(column);
+			case INTEGER:
+				return row.getInteger(column);
+			case LONG:
+				return row.getLong(column);
+			case FLOAT:
+				return Double.doubleToLongBits(row.getFloat(column));
+			default:
+				return Double.doubleToLongBits(row.getDouble(column));
+			}
+		}
+
+		// The readings of this window and of another one of the same window
+		Window merge(Window other) throws GSException {
+			Window merged = new Window(layout, start, length);
+			merged.count = count;
+			merged.offsets = Arrays.copyOf(offsets, Math.max(4, count + other.count));
+			for (int c = 0; c < values.length; c++)
+				merged.values[c] = Arrays.copyOf(values[c], merged.offsets.length);
+			other.addTo(merged);
+			return merged;
+		}
+
+		private void addTo(Window target) {
+			for (int i = 0; i < count; i++) {
+				int at = target.count;
+				while (at > 0 && target.offsets[at - 1] > offsets[i])
+					at--;
+				boolean repeated = false;
+				for (int j = at - 1; j >= 0 && target.offsets[j] == offsets[i] && !repeated; j--) {
+					repeated = true;
+					for (int c = 0; c < values.length && repeated; c++)
+						repeated = target.values[c][j] == values[c][i];
+				}
+				if (repeated)
+					continue;
+				System.arraycopy(target.offsets, at, target.offsets, at + 1, target.count - at);
+				target.offsets[at] = offsets[i];
+				for (int c = 0; c < values.length; c++) {
+					System.arraycopy(target.values[c], at, target.values[c], at + 1, target.count - at);
+					target.values[c][at] = values[c][i];
+				}
+				target.count++;
+			}
+		}
+
+		// Read a window back from its packed row
+		static Window of(Layout layout, Row row) throws GSException {
+			Window window = new Window(layout, row.getTimestamp(0).getTime(), row.getLong(1));
+			long[] offsets = row.getLongArray(2);
+			window.count = offsets.length;
+			window.offsets = Arrays.copyOf(offsets, Math.max(4, offsets.length));
+			for (int c = 0; c < window.values.length; c++) {
+				long[] values = new long[window.offsets.length];
+				if (layout.integral[c]) {
+					System.arraycopy(row.getLongArray(VALUE_COLUMN + c), 0, values, 0, window.count);
+				} else {
+					double[] doubles = row.getDoubleArray(VALUE_COLUMN + c);
+					for (int i = 0; i < window.count; i++)
+						values[i] = Double.doubleToLongBits(doubles[i]);
+				}
+				window.values[c] = values;
+			}
+			return window;
+		}
+
+		// The arrays are copied, a Row keeps the arrays it is given
+		void fill(Row row, Date time) throws GSException {
+			time.setTime(start);
+			row.setTimestamp(0, time);
+			row.setLong(1, length);
+			row.setLongArray(2, Arrays.copyOf(offsets, count));
+			for (int c = 0; c < values.length; c++) {
+				if (layout.integral[c]) {
+					row.setLongArray(VALUE_COLUMN + c, Arrays.copyOf(values[c], count));
+				} else {
+					double[] doubles = new double[count];
+					for (int i = 0; i < count; i++)
+						doubles[i] = Double.longBitsToDouble(values[c][i]);
+					row.setDoubleArray(VALUE_COLUMN + c, doubles);
+				}
+			}
+		}
+	}
+
+	// A window: data-log container and window start (Long.MIN_VALUE for the latest window)
+	private static final class Key {
+		String container;
+		long start;
+
+		Key set(String container, long start) {
+			this.container = container;
+			this.start = start;
+			return this;
+		}
+
+		Key copy() {
+			return new Key().set(container, start);
+		}
+
+		@Override public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return container.equals(other.container) && start == other.start;
+		}
+
+		@Override public int hashCode() {
+			return container.hashCode() * 31 + Long.hashCode(start);
+		}
+	}
+
+	private final long windowMillis;
+	private final long lingerMillis;
+	private final int maxWindows;
+	private final IdentityHashMap<ContainerInfo, Layout> layouts = new IdentityHashMap<>();
+	// Latest window of each packed container, least recently used first
+	private final LinkedHashMap<Key, Window> latest = new LinkedHashMap<>(16, 0.75f, true);
+	// Windows with readings that have not been written yet, in the order they were first changed
+	private final LinkedHashMap<Key, Window> unwritten = new LinkedHashMap<>();
+	// Column layout of the unwritten readings of each container
+	private final Map<String, ContainerInfo> unwrittenLayouts = new HashMap<>();
+	// Windows whose packed rows are part of the current batch
+	private final List<Map.Entry<Key, Window>> writing = new ArrayList<>();
+	// When the oldest unwritten reading was added, -1 if there is none
+	private long unwrittenSince = -1;
+	// Whether the current batch writes the open windows as well as the closed ones
+	private boolean writeOpen;
+	private final Key probe = new Key();
+	// Handed to Row.setTimestamp of the packed rows of the current batch
+	private final List<Date> times = new ArrayList<>();
+
+	WindowPacker(long windowMillis, long lingerMillis, int maxWindows) {
+		this.windowMillis = windowMillis;
+		this.lingerMillis = lingerMillis;
+		this.maxWindows = maxWindows;
+	}
+
+	Layout layout(ContainerInfo info) {
+		Layout layout = layouts.get(info);
+		if (layout == null) {
+			layout = new Layout(info);
+			layouts.put(info, layout);
+		}
+		return layout;
+	}
+
+	// Column layout of the unwritten readings of the given data-log container, or null
+	ContainerInfo containerInfo(String container) {
+		return unwrittenLayouts.get(container);
+	}
+
+	// Append a reading of a data-log row to its window, its layout has to be packable. The unwritten readings
+	// of a container have to share a layout, see containerInfo(). Returns false if the window already holds
+	// the same reading.
+	boolean add(String container, ContainerInfo info, Row row, long timestamp) throws GSException {
+		ContainerInfo batched = unwrittenLayouts.putIfAbsent(container, info);
+		if (batched != null && batched != info)
+			throw new GSException("The columns of " + container + " changed while it had unwritten readings");
+		Layout layout = layout(info);
+		long start = timestamp - Math.floorMod(timestamp, windowMillis);
+		Window window = unwritten.get(probe.set(container, start));
+		if (window == null) {
+			Key key = probe.copy();
+			Key latestKey = key.copy().set(container, Long.MIN_VALUE);
+			Window kept = latest.get(latestKey);
+			if (kept != null && kept.start == start && kept.layout == layout) {
+				window = kept;
+			} else {
+				window = new Window(layout, start, windowMillis);
+				// Only a window after the latest one in memory is known to be new
+				window.unread = kept == null || kept.start >= start;
+				if (kept == null || kept.start <= start)
+					latest.put(latestKey, window);
+			}
+			unwritten.put(key, window);
+			if (unwrittenSince < 0)
+				unwrittenSince = System.currentTimeMillis();
+		}
+		return window.add(timestamp, row);
+	}
+
+	// Whether there are readings that have not been written yet
+	boolean hasUnwritten() {
+		return !unwritten.isEmpty();
+	}
+
+	// Whether the oldest unwritten reading has waited pack.linger.ms
+	boolean isDue(long nowMillis) {
+		return unwrittenSince >= 0 && nowMillis - unwrittenSince >= lingerMillis;
+	}
+
+	// Have the next batch write the open windows as well
+	void writeOpenWindows() {
+		writeOpen = true;
+	}
+
+	// Whether the next batch has packed rows to write
+	boolean isEmpty() {
+		if (writeOpen)
+			return unwritten.isEmpty();
+		for (Map.Entry<Key, Window> entry : unwritten.entrySet()) {
+			if (isClosed(entry.getKey().container, entry.getValue()))
+				return false;
+		}
+		return true;
+	}
+
+	// A window is closed once a later window of its container has readings
+	private boolean isClosed(String container, Window window) {
+		return latest.get(probe.set(container, Long.MIN_VALUE)) != window;
+	}
+
+	// Add the packed rows of the windows the current batch writes: the closed ones, and the open ones as well
+	// after writeOpenWindows(). Their containers are created first, and windows that may miss readings written
+	// before are read back from GridDB with a single multiGet so that those readings are kept.
+	void addTo(SinkBatch batch, RowPool rows, ContainerCache containers, GridStore store) throws GSException {
+		Map<String, RowKeyPredicate<?>> missing = new HashMap<>();
+		for (Map.Entry<Key, Window> entry : unwritten.entrySet()) {
+			Window window = entry.getValue();
+			String container = entry.getKey().container;
+			if (!writeOpen && !isClosed(container, window))
+				continue;
+			writing.add(entry);
+			containers.timeSeries(container + SUFFIX, window.layout.info);
+			if (window.unread) {
+				@SuppressWarnings("unchecked")
+				RowKeyPredicate<Date> keys = (RowKeyPredicate<Date>) missing.get(container + SUFFIX);
+				if (keys == null) {
+					keys = RowKeyPredicate.create(Date.class);
+					missing.put(container + SUFFIX, keys);
+				}
+				keys.add(new Date(window.start));
+			}
+		}
+		if (!missing.isEmpty()) {
+			Map<String, List<Row>> found = store.multiGet(missing);
+			for (Map.Entry<Key, Window> entry : writing) {
+				Window window = entry.getValue();
+				if (!window.unread)
+					continue;
+				String container = entry.getKey().container;
+				List<Row> stored = found.get(container + SUFFIX);
+				Window merged = window;
+				if (stored != null) {
+					for (Row row : stored) {
+						// A window written with other columns is replaced
+						if (row.getTimestamp(0).getTime() == window.start
+								&& row.getSchema().getColumnCount() == window.layout.info.getColumnCount())
+							merged = Window.of(window.layout, row).merge(window);
+					}
+				}
+				// The stored readings are only read back once, later readings are appended to the merged window
+				merged.unread = false;
+				if (merged != window) {
+					entry.setValue(merged);
+					Key latestKey = probe.set(container, Long.MIN_VALUE);
+					if (latest.get(latestKey) == window)
+						latest.put(latestKey.copy(), merged);
+				}
+			}
+		}
+		int i = 0;
+		for (Map.Entry<Key, Window> entry : writing) {
+			if (times.size() <= i)
+				times.add(new Date(0));
+			Window window = entry.getValue();
+			Row row = rows.take(window.layout.info);
+			window.fill(row, times.get(i++));
+			batch.addRow(entry.getKey().container + SUFFIX, window.layout.info, row, window.layout.rowBytes(window.count));
+		}
+	}
+
+	// The current batch has been written, its windows have no unwritten readings left
+	void written() {
+		for (Map.Entry<Key, Window> entry : writing)
+			unwritten.remove(entry.getKey());
+		writing.clear();
+		writeOpen = false;
+		unwrittenLayouts.clear();
+		for (Map.Entry<Key, Window> entry : unwritten.entrySet())
+			unwrittenLayouts.put(entry.getKey().container, entry.getValue().layout.source);
+		if (unwritten.isEmpty())
+			unwrittenSince = -1;
+		// Windows with unwritten readings are kept until they have been written
+		Iterator<Map.Entry<Key, Window>> it = latest.entrySet().iterator();
+		while (latest.size() > maxWindows && it.hasNext()) {
+			Map.Entry<Key, Window> entry = it.next();
+			if (!unwritten.containsKey(probe.set(entry.getKey().container, entry.getValue().start)))
+				it.remove();
+		}
+	}
+
+	// The current batch failed, the records of every unwritten reading are delivered again. The windows that
+	// hold them are dropped and read back from GridDB when their readings arrive again.
+	void discard() {
+		for (Map.Entry<Key, Window> entry : unwritten.entrySet()) {
+			Key latestKey = probe.set(entry.getKey().container, Long.MIN_VALUE);
+			if (latest.get(latestKey) == entry.getValue())
+				latest.remove(latestKey);
+		}
+		unwritten.clear();
+		unwrittenLayouts.clear();
+		writing.clear();
+		writeOpen = false;
+		unwrittenSince = -1;
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WriteBehindBuffer is a bounded ring of reusable PendingRow slots between the task thread
+ * (the single producer) and a GridDBWriter (the single consumer).
+ * The producer claims the next free slot, fills it and publishes it; it blocks while the buffer is full.
+ * The consumer takes published rows and releases them once they have been written to GridDB.
+ * Every published row gets a sequence number, so the producer can wait until everything it
+ * handed over up to a point has been released.
+ */
+class WriteBehindBuffer {
+	private final PendingRow[] slots;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition released = lock.newCondition();
+
+	// Index of the oldest unreleased slot
+	private int head;
+	// Number of published, unreleased slots
+	private int count;
+	// Number of those slots currently taken by the consumer
+	private int taken;
+	private long publishedSeq;
+	private long releasedSeq;
+
+	WriteBehindBuffer(int capacity) {
+		slots = new PendingRow[capacity];
+		for (int i = 0; i < capacity; i++)
+			slots[i] = new PendingRow();
+	}
+
+	// Get the next free slot, waiting while the buffer is full. The slot is invisible to the consumer until publish()
+	PendingRow claim() throws InterruptedException {
+		lock.lock();
+		try {
+			while (count == slots.length)
+				notFull.await();
+			return slots[(head + count) % slots.length];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Get the next free slot, or null if the buffer is full
+	PendingRow tryClaim() {
+		lock.lock();
+		try {
+			return count == slots.length ? null : slots[(head + count) % slots.length];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Hand the slot returned by the last claim() over to the consumer
+	void publish() {
+		lock.lock();
+		try {
+			count++;
+			publishedSeq++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Take up to max published rows. Waits up to pollMs for the first row, then up to lingerMs
+	// for the batch to fill up. Returns the number of rows added to out, which must be released later.
+	int take(List<PendingRow> out, int max, long lingerMs, long pollMs) throws InterruptedException {
+		lock.lock();
+		try {
+			if (count == taken) {
+				notEmpty.await(pollMs, TimeUnit.MILLISECONDS);
+				if (count == taken)
+					return 0;
+			}
+			long remaining = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+			while (count - taken < max && remaining > 0)
+				remaining = notEmpty.awaitNanos(remaining);
+
+			int n = Math.min(max, count - taken);
+			for (int i = 0; i < n; i++)
+				out.add(slots[(head + taken + i) % slots.length]);
+			taken += n;
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Give the oldest n taken rows back to the producer
+	void release(int n) {
+		lock.lock();
+		try {
+			head = (head + n) % slots.length;
+			count -= n;
+			taken -= n;
+			releasedSeq += n;
+			notFull.signalAll();
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Sequence number of the last published row
+	long publishedSeq() {
+		lock.lock();
+		try {
+			return publishedSeq;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Whether every row up to the given sequence number has been released
+	boolean isReleased(long seq) {
+		lock.lock();
+		try {
+			return releasedSeq >= seq;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Wait up to timeoutMs until every row up to the given sequence number has been released, returns whether it has
+	boolean awaitReleased(long seq, long timeoutMs) throws InterruptedException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			while (releasedSeq < seq && remaining > 0)
+				remaining = released.awaitNanos(remaining);
+			return releasedSeq >= seq;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int capacity() {
+		return slots.length;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+public class GridDBSinkTaskTest {
+	private final InMemoryGridStore store = new InMemoryGridStore();
+	private final GridDBSinkTask task = new GridDBSinkTask(store.provider());
+
+	@Before public void setUp() {
+		task.start(props());
+	}
+
+	private static Map<String, String> props() {
+		Map<String, String> props = new HashMap<>();
+		props.put(GridDBSinkConnector.HOST_CONFIG, "localhost");
+		props.put(GridDBSinkConnector.PORT_CONFIG, "31999");
+		props.put(GridDBSinkConnector.CLUSTERNAME_CONFIG, "test");
+		props.put(GridDBSinkConnector.USER_CONFIG, "user");
+		props.put(GridDBSinkConnector.PASSWORD_CONFIG, "password");
+		props.put(GridDBSinkConnector.NAME_CONFIG, "griddb-sink-test");
+		return props;
+	}
+
+	@After public void tearDown() {
+		task.stop();
+	}
+
+	private static SinkRecord record(Object value, long offset) {
+		return new SinkRecord("topic", 0, null, null, null, value, offset, 1000L + offset, TimestampType.CREATE_TIME);
+	}
+
+	private static Map<String, Object> payload(Object payload) {
+		Map<String, Object> value = new HashMap<>();
+		value.put("payload", payload);
+		return value;
+	}
+
+	@Test public void writesDecodedReadings() {
+		task.put(Arrays.asList(record(payload("{\"id\":\"s1\",\"type\":\"light\",\"light\":1,\"sound\":2}"), 0),
+			record(SensorBinaryCodec.encode("s2", SensorKind.VOLTS, 1001, 230, 1.5), 1)));
+		task.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+		assertEquals(1, store.rowsWritten("s1"));
+		assertEquals(1, store.rowsWritten("s2"));
+		assertEquals(0, task.metrics().getErrorsTotal());
+	}
+
+	@Test public void skipsRecordsThatCannotBeDecoded() {
+		task.put(Arrays.asList(record(payload("{\"id\":\"s1\",\"type\":\"light\",\"light\":1.2.3}"), 0),
+			record(new byte[3], 1),
+			record(payload("{\"id\":\"s1\",\"type\":\"pressure\"}"), 2),
+			record(payload(42), 3),
+			record(payload("{\"id\":\"s1\",\"type\":\"light\",\"light\":1,\"sound\":2}"), 4)));
+		task.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+		assertEquals(1, store.rowsWritten("s1"));
+		assertEquals(Long.valueOf(3), task.metrics().getErrors().get("decode"));
+		assertEquals(Long.valueOf(1), task.metrics().getErrors().get("unknown-type"));
+	}
+
+	@Test public void failsOnceAWriterHasStopped() {
+		// The writer thread dies on the Error thrown by the first multiPut
+		GridDBSinkTask failing = new GridDBSinkTask(new GridStoreProvider() {
+			@Override public GridStore getGridStore(Properties props) throws GSException {
+				final GridStore delegate = store.provider().getGridStore(props);
+				return (GridStore) Proxy.newProxyInstance(GridStore.class.getClassLoader(),
+					new Class<?>[] { GridStore.class }, new InvocationHandler() {
+						@Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getName().equals("multiPut"))
+								throw new StackOverflowError("multiPut");
+							try {
+								return method.invoke(delegate, args);
+							} catch (InvocationTargetException ex) {
+								throw ex.getCause();
+							}
+						}
+					});
+			}
+		});
+		failing.start(props());
+		try {
+			failing.put(Arrays.asList(record(payload("{\"id\":\"s1\",\"type\":\"light\",\"light\":1,\"sound\":2}"), 0)));
+			try {
+				failing.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+				fail("flush() waited for a writer that has stopped");
+			} catch (ConnectException ex) {
+				assertTrue(ex.getMessage().contains("has stopped"));
+			}
+			try {
+				failing.put(Arrays.asList(record(payload("{\"id\":\"s1\",\"type\":\"light\",\"light\":1,\"sound\":2}"), 1)));
+				fail("put() handed a row to a writer that has stopped");
+			} catch (ConnectException ex) {
+				assertTrue(ex.getMessage().contains("has stopped"));
+			}
+		} finally {
+			failing.stop();
+		}
+	}
+
+	@Test(expected = ConfigException.class) public void rejectsMinRowsAboveMaxRows() {
+		Map<String, String> props = props();
+		props.put(GridDBSinkConnector.BATCH_LATENCY_TARGET_MS_CONFIG, "50");
+		props.put(GridDBSinkConnector.BATCH_MIN_ROWS_CONFIG, "500");
+		props.put(GridDBSinkConnector.BATCH_MAX_ROWS_CONFIG, "100");
+		new GridDBSinkTask(store.provider()).start(props);
+	}
+
+	@Test(expected = ConfigException.class) public void rejectsResumeRatioAbovePauseRatio() {
+		Map<String, String> props = props();
+		props.put(GridDBSinkConnector.BACKPRESSURE_PAUSE_RATIO_CONFIG, "0.5");
+		props.put(GridDBSinkConnector.BACKPRESSURE_RESUME_RATIO_CONFIG, "0.8");
+		new GridDBSinkTask(store.provider()).start(props);
+	}
+
+	@Test public void writesAnOpenPackedWindowOncePerFlush() throws GSException {
+		Map<String, String> props = props();
+		props.put(GridDBSinkConnector.PACK_WINDOW_MS_CONFIG, "60000");
+		props.put(GridDBSinkConnector.PACK_LINGER_MS_CONFIG, "600000");
+		GridDBSinkTask packing = new GridDBSinkTask(store.provider());
+		packing.start(props);
+		try {
+			for (int i = 0; i < 10; i++)
+				packing.put(Arrays.asList(record(SensorBinaryCodec.encode("s1", SensorKind.VOLTS, 1000 + i, i, 1.5), i)));
+			packing.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+			assertEquals(0, store.rowsWritten("s1"));
+			assertEquals(1, store.rowsWritten("s1" + WindowPacker.SUFFIX));
+
+			// The window is appended to in memory and written again by the next flush
+			packing.put(Arrays.asList(record(SensorBinaryCodec.encode("s1", SensorKind.VOLTS, 1010, 10, 1.5), 10)));
+			packing.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+			assertEquals(2, store.rowsWritten("s1" + WindowPacker.SUFFIX));
+			Row row = store.connect().getTimeSeries("s1" + WindowPacker.SUFFIX).get(new Date(0));
+			assertEquals(11, row.getLongArray(2).length);
+		} finally {
+			packing.stop();
+		}
+	}
+
+	@Test public void skipsStructsWhoseSchemaDoesNotMatchTheContainer() {
+		Schema v1 = SchemaBuilder.struct().name("reading").field("id", Schema.STRING_SCHEMA)
+			.field("temperature", Schema.FLOAT64_SCHEMA).build();
+		Schema v2 = SchemaBuilder.struct().name("reading").field("id", Schema.STRING_SCHEMA)
+			.field("temperature", Schema.FLOAT64_SCHEMA).field("humidity", Schema.FLOAT64_SCHEMA).build();
+		task.put(Arrays.asList(record(new Struct(v1).put("id", "d1").put("temperature", 20.5), 0)));
+		task.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+
+		// The container keeps its columns, so the rows of the new schema could never be written
+		task.put(Arrays.asList(record(new Struct(v2).put("id", "d1").put("temperature", 21.0).put("humidity", 40.0), 1),
+			record(new Struct(v1).put("id", "d1").put("temperature", 21.5), 2)));
+		task.flush(Collections.<TopicPartition, OffsetAndMetadata>emptyMap());
+		assertEquals(2, store.rowsWritten("d1"));
+		assertEquals(Long.valueOf(1), task.metrics().getErrors().get("schema"));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.List;
+
+public class OffsetTrackerTest {
+	private final GridStore store = new StubGridStore().store;
+	private final RowPool rows = new RowPool(store, 16);
+	private final ContainerCache containers = new ContainerCache(store, 16, 60000);
+	private final SinkBatch batch = new SinkBatch(1000, 1 << 20);
+	private final OffsetTracker tracker = new OffsetTracker("sink", 1, 2);
+
+	private static PendingRow record(String topic, int partition, long offset) {
+		PendingRow row = new PendingRow();
+		row.topic = topic;
+		row.partition = partition;
+		row.offset = offset;
+		return row;
+	}
+
+	private boolean isWritten(long offset) {
+		return tracker.isWritten(record("topic", 0, offset));
+	}
+
+	// Write a batch with the records of the given offsets of topic-0
+	private void write(long... offsets) throws GSException {
+		tracker.sync();
+		for (long offset : offsets)
+			tracker.add(record("topic", 0, offset));
+		tracker.addTo(batch, rows, containers);
+		tracker.written(true);
+	}
+
+	@Test public void keysOffsetsByConnectorPartitionAndWriter() {
+		assertEquals("sink/topic/3/1of2", tracker.key("topic", 3));
+	}
+
+	@Test public void skipsRecordsUpToTheLoadedOffset() {
+		assertFalse(isWritten(0));
+		tracker.load(new TopicPartition("topic", 0), 5);
+		tracker.sync();
+		assertTrue(isWritten(5));
+		assertFalse(isWritten(6));
+		assertFalse(tracker.isWritten(record("topic", 1, 0)));
+		// Rows without a topic are never skipped
+		assertFalse(tracker.isWritten(record(null, 0, 0)));
+
+		tracker.revoke(new TopicPartition("topic", 0));
+		tracker.sync();
+		assertFalse(isWritten(5));
+	}
+
+	@Test public void storesTheOffsetsOfWrittenBatchesWithTheNextBatch() throws GSException {
+		write(0, 1, 2);
+		assertTrue(isWritten(2));
+		assertTrue(tracker.isDirty());
+		assertNull(batch.containerRows().get(OffsetTracker.OFFSETS_NAME));
+
+		write(3);
+		List<Row> stored = batch.containerRows().get(OffsetTracker.OFFSETS_NAME);
+		assertEquals(1, stored.size());
+		assertEquals("sink/topic/0/1of2", stored.get(0).getString(0));
+		assertEquals(2, stored.get(0).getLong(1));
+		assertTrue(isWritten(3));
+
+		batch.clear();
+		write(4);
+		assertEquals(3, batch.containerRows().get(OffsetTracker.OFFSETS_NAME).get(0).getLong(1));
+		batch.clear();
+		write();
+		assertEquals(4, batch.containerRows().get(OffsetTracker.OFFSETS_NAME).get(0).getLong(1));
+		assertFalse(tracker.isDirty());
+		batch.clear();
+		write();
+		assertTrue(batch.isEmpty());
+	}
+
+	@Test public void doesNotPassAFailedBatchUntilResumed() throws GSException {
+		write(0, 1);
+		tracker.sync();
+		tracker.add(record("topic", 0, 2));
+		tracker.discard();
+		assertFalse(isWritten(2));
+
+		// The batches after the failed one are written, but their records are delivered again as well
+		write(3);
+		assertFalse(isWritten(2));
+		assertFalse(isWritten(3));
+
+		tracker.resume();
+		write(2, 3);
+		assertTrue(isWritten(3));
+	}
+
+	@Test public void keepsTheOffsetsOfRowsHeldBackUntilTheyAreWritten() throws GSException {
+		// A batch that leaves readings in an open packed window does not complete the rows added so far
+		tracker.sync();
+		tracker.add(record("topic", 0, 0));
+		tracker.addTo(batch, rows, containers);
+		tracker.written(false);
+		assertFalse(isWritten(0));
+
+		write(1);
+		assertTrue(isWritten(1));
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.Row;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class RowCoalescerTest {
+	private static final ContainerInfo INFO = SensorKind.LIGHT.containerInfo;
+
+	private final RowPool pool = new RowPool(new StubGridStore().store, 16);
+	private final List<Row> rows = new ArrayList<>();
+	private long[] times = new long[0];
+	private PendingRow[] records = new PendingRow[0];
+
+	// Queue a row of the given timestamp and light reading, its record has the next offset
+	private void add(long timestamp, double light) throws GSException {
+		Row row = pool.take(INFO);
+		row.setTimestamp(0, new Date(timestamp));
+		row.setDouble(1, light);
+		row.setDouble(2, 0);
+		PendingRow record = new PendingRow();
+		record.offset = rows.size();
+		times = Arrays.copyOf(times, rows.size() + 1);
+		records = Arrays.copyOf(records, rows.size() + 1);
+		times[rows.size()] = timestamp;
+		records[rows.size()] = record;
+		rows.add(row);
+	}
+
+	private double[] lights() throws GSException {
+		double[] lights = new double[rows.size()];
+		for (int i = 0; i < lights.length; i++)
+			lights[i] = rows.get(i).getDouble(1);
+		return lights;
+	}
+
+	private long[] offsets() {
+		long[] offsets = new long[rows.size()];
+		for (int i = 0; i < offsets.length; i++)
+			offsets[i] = records[i].offset;
+		return offsets;
+	}
+
+	@Test public void leavesOrderedRowsAlone() throws GSException {
+		for (int i = 0; i < 5; i++)
+			add(i * 1000, i);
+		List<Row> before = new ArrayList<>(rows);
+		assertEquals(5, new RowCoalescer(RowCoalescer.LAST, pool).coalesce(INFO, rows, times, records));
+		assertEquals(before, rows);
+		assertArrayEquals(new long[] {0, 1, 2, 3, 4}, offsets());
+	}
+
+	@Test public void sortsRowsTimesAndRecordsTogether() throws GSException {
+		add(3000, 3);
+		add(1000, 1);
+		add(4000, 4);
+		add(2000, 2);
+		assertEquals(4, new RowCoalescer(RowCoalescer.LAST, pool).coalesce(INFO, rows, times, records));
+		assertArrayEquals(new double[] {1, 2, 3, 4}, lights(), 0);
+		assertArrayEquals(new long[] {1000, 2000, 3000, 4000}, Arrays.copyOf(times, 4));
+		assertArrayEquals(new long[] {1, 3, 0, 2}, offsets());
+	}
+
+	@Test public void keepsTheLastRowOfATimestamp() throws GSException {
+		add(2000, 1);
+		add(1000, 5);
+		add(2000, 2);
+		add(2000, 3);
+		Row last = rows.get(3);
+		assertEquals(2, new RowCoalescer(RowCoalescer.LAST, pool).coalesce(INFO, rows, times, records));
+		assertArrayEquals(new double[] {5, 3}, lights(), 0);
+		assertSame(last, rows.get(1));
+		assertArrayEquals(new long[] {1, 3}, offsets());
+		// The record slots of the merged rows are cleared
+		assertEquals(null, records[2]);
+		// The rows merged away are handed back to the pool
+		Row reused = pool.take(INFO);
+		assertEquals(2, reused.getDouble(1), 0);
+	}
+
+	@Test public void averagesTheRowsOfATimestamp() throws GSException {
+		add(1000, 1);
+		add(1000, 5);
+		add(2000, 7);
+		assertEquals(2, new RowCoalescer(RowCoalescer.AVERAGE, pool).coalesce(INFO, rows, times, records));
+		assertArrayEquals(new double[] {3, 7}, lights(), 0);
+		assertArrayEquals(new long[] {1, 2}, offsets());
+	}
+}
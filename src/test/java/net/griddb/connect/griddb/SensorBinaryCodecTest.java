@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.kafka.connect.errors.DataException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class SensorBinaryCodecTest {
+	private final SensorBinaryCodec codec = new SensorBinaryCodec();
+	private final SensorReading reading = new SensorReading();
+
+	@Test public void roundTripsEveryKind() {
+		for (SensorKind kind : SensorKind.values()) {
+			byte[] message = SensorBinaryCodec.encode("sensor-" + kind.code, kind, 1234567890123L, 1.25, -7);
+			assertEquals(SensorBinaryCodec.HEADER_BYTES + 8, message.length);
+			assertEquals(1234567890123L, codec.decode(message, reading));
+			assertEquals("sensor-" + kind.code, reading.id);
+			assertSame(kind, reading.kind);
+			assertEquals(1.25, reading.value(kind.firstField), 0);
+			assertEquals(-7, reading.value(kind.secondField), 0);
+			assertTrue(reading.has(kind.firstField));
+			assertTrue(reading.has(kind.secondField));
+		}
+	}
+
+	@Test public void roundTripsSpecialValuesAndIds() {
+		String id = "s\u00e9nsor-\u2603";
+		byte[] message = SensorBinaryCodec.encode(id, SensorKind.WATTS, SensorBinaryCodec.NO_TIMESTAMP, Double.NaN,
+			Double.NEGATIVE_INFINITY);
+		assertEquals(SensorBinaryCodec.NO_TIMESTAMP, codec.decode(message, reading));
+		assertEquals(id, reading.id);
+		assertTrue(Double.isNaN(reading.value(SensorReading.WATTS)));
+		assertEquals(Double.NEGATIVE_INFINITY, reading.value(SensorReading.HEAT), 0);
+
+		codec.decode(SensorBinaryCodec.encode("", SensorKind.LIGHT, 0, 0, 0), reading);
+		assertEquals("", reading.id);
+	}
+
+	@Test public void reusesTheIdsOfRecentSensors() {
+		byte[] message = SensorBinaryCodec.encode("sensor-1", SensorKind.LIGHT, 0, 1, 2);
+		codec.decode(message, reading);
+		String id = reading.id;
+		codec.decode(message.clone(), reading);
+		assertSame(id, reading.id);
+	}
+
+	@Test public void leavesAnUnknownKindUnset() {
+		byte[] message = SensorBinaryCodec.encode("sensor-1", SensorKind.LIGHT, 0, 1, 2);
+		message[1] = 99;
+		codec.decode(message, reading);
+		assertEquals("sensor-1", reading.id);
+		assertNull(reading.kind);
+		assertFalse(reading.has(SensorReading.LIGHT));
+	}
+
+	@Test public void rejectsMalformedMessages() {
+		byte[] message = SensorBinaryCodec.encode("sensor-1", SensorKind.LIGHT, 0, 1, 2);
+		byte[] version = message.clone();
+		version[0] = 2;
+		byte[] length = message.clone();
+		length[27]++;
+		byte[][] malformed = {new byte[0], Arrays.copyOf(message, SensorBinaryCodec.HEADER_BYTES - 1), version, length,
+			Arrays.copyOf(message, message.length - 1), Arrays.copyOf(message, message.length + 1)};
+		for (byte[] bytes : malformed) {
+			try {
+				codec.decode(bytes, reading);
+				throw new AssertionError("Decoded " + Arrays.toString(bytes));
+			} catch (DataException expected) {
+			}
+		}
+	}
+
+	@Test(expected = DataException.class)
+	public void rejectsIdsThatDoNotFit() {
+		char[] id = new char[0x10000];
+		Arrays.fill(id, 'a');
+		SensorBinaryCodec.encode(new String(id), SensorKind.LIGHT, 0, 1, 2);
+	}
+
+	@Test public void serializesJsonMessages() {
+		byte[] message = new SensorMessageSerializer().serialize("topic",
+			"{\"id\":\"sensor-1\",\"type\":\"volts\",\"volts\":230,\"amps\":1.5}");
+		assertEquals(SensorBinaryCodec.NO_TIMESTAMP, codec.decode(message, reading));
+		assertEquals("sensor-1", reading.id);
+		assertSame(SensorKind.VOLTS, reading.kind);
+		assertEquals(230, reading.value(SensorReading.VOLTS), 0);
+		assertEquals(1.5, reading.value(SensorReading.AMPS), 0);
+	}
+
+	@Test(expected = DataException.class)
+	public void doesNotSerializeMessagesOfAnUnknownType() {
+		new SensorMessageSerializer().serialize("topic", "{\"id\":\"sensor-1\",\"type\":\"pressure\"}");
+	}
+
+	@Test public void convertsJsonAndKeepsBinaryMessages() {
+		SensorBinaryConverter converter = new SensorBinaryConverter();
+		String json = "{\"id\":\"sensor-1\",\"type\":\"light\",\"light\":1,\"sound\":2}";
+		byte[] fromString = converter.fromConnectData("topic", null, json);
+		byte[] fromBytes = converter.fromConnectData("topic", null, json.getBytes(StandardCharsets.UTF_8));
+		assertArrayEquals(fromString, fromBytes);
+		assertArrayEquals(fromString, converter.fromConnectData("topic", null, fromString));
+		assertSame(fromString, converter.toConnectData("topic", fromString).value());
+		assertNull(converter.fromConnectData("topic", null, null));
+	}
+}
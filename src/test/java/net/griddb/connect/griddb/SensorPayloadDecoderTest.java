@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.kafka.connect.errors.DataException;
+import org.junit.Test;
+
+public class SensorPayloadDecoderTest {
+	private final SensorPayloadDecoder decoder = new SensorPayloadDecoder();
+	private final SensorReading reading = new SensorReading();
+
+	@Test public void decodesIdTypeAndReadings() {
+		decoder.decode("{\"id\":\"sensor-1\",\"type\":\"light\",\"light\":12.5,\"sound\":-3}", reading);
+		assertEquals("sensor-1", reading.id);
+		assertSame(SensorKind.LIGHT, reading.kind);
+		assertEquals(12.5, reading.value(SensorReading.LIGHT), 0);
+		assertEquals(-3, reading.value(SensorReading.SOUND), 0);
+		assertTrue(reading.has(SensorReading.LIGHT));
+		assertFalse(reading.has(SensorReading.WATTS));
+	}
+
+	@Test public void skipsUnknownFieldsAndWhitespace() {
+		decoder.decode(" { \"extra\" : {\"a\":[1,\"}\"]} , \"type\":\"volts\", \"id\":7, \"volts\":\"230\", \"amps\":null } ",
+			reading);
+		assertEquals("7", reading.id);
+		assertSame(SensorKind.VOLTS, reading.kind);
+		assertEquals(230, reading.value(SensorReading.VOLTS), 0);
+		assertFalse(reading.has(SensorReading.AMPS));
+	}
+
+	@Test public void readsEscapedStringsAndExponents() {
+		decoder.decode("{\"id\":\"a\\\"b\",\"type\":\"w\\u0061tts\",\"watts\":1.5e3,\"heat\":0.1234567890123456789}", reading);
+		assertEquals("a\"b", reading.id);
+		assertSame(SensorKind.WATTS, reading.kind);
+		assertEquals(1500, reading.value(SensorReading.WATTS), 0);
+		assertEquals(0.1234567890123456789, reading.value(SensorReading.HEAT), 0);
+	}
+
+	@Test public void leavesUnknownTypesUnset() {
+		decoder.decode("{\"id\":\"s\",\"type\":\"pressure\"}", reading);
+		assertNull(reading.kind);
+		decoder.decode("{\"id\":null,\"type\":3}", reading);
+		assertNull(reading.id);
+		assertNull(reading.kind);
+	}
+
+	@Test public void reusesTheReading() {
+		decoder.decode("{\"id\":\"s\",\"type\":\"light\",\"light\":1}", reading);
+		String id = reading.id;
+		decoder.decode("{\"id\":\"s\",\"type\":\"light\"}", reading);
+		assertSame(id, reading.id);
+		assertFalse(reading.has(SensorReading.LIGHT));
+		assertEquals(0, reading.value(SensorReading.LIGHT), 0);
+	}
+
+	@Test public void rejectsMalformedPayloads() {
+		String[] payloads = {"", "[]", "{\"id\":\"s\"", "{\"id\" \"s\"}", "{\"id\":\"s\" \"type\":\"light\"}",
+			"{\"light\":1.2.3}", "{\"id\":\"s}", "{\"id\":\"\\uZZZZ\"}"};
+		for (String payload : payloads) {
+			try {
+				decoder.decode(payload, reading);
+				throw new AssertionError("Decoded " + payload);
+			} catch (DataException expected) {
+			}
+		}
+	}
+
+	@Test(expected = DataException.class)
+	public void rejectsAMissingPayload() {
+		decoder.decode(null, reading);
+	}
+}
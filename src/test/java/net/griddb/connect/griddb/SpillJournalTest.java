@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.kafka.common.config.AbstractConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class SpillJournalTest {
+	private static final int SEGMENT_BYTES = 4096;
+	private static final String SENSOR = "sensor-1";
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final SinkTaskMetrics metrics = new SinkTaskMetrics();
+	// The writers are not started, so the rows the journal hands over stay in the buffer of the sensor's writer
+	private GridDBWriterPool writers;
+	private Path dir;
+	private SpillJournal journal;
+
+	@Before public void setUp() {
+		writers = writers(10000);
+		dir = folder.getRoot().toPath().resolve("spill");
+	}
+
+	// A pool of one writer whose buffer holds the given number of rows
+	private GridDBWriterPool writers(int bufferRows) {
+		Map<String, String> props = new HashMap<>();
+		props.put(GridDBSinkConnector.USER_CONFIG, "user");
+		props.put(GridDBSinkConnector.PASSWORD_CONFIG, "password");
+		props.put(GridDBSinkConnector.BUFFER_MAX_ROWS_CONFIG, Integer.toString(bufferRows));
+		Properties gsprops = new Properties();
+		gsprops.setProperty("clusterName", "test");
+		return new GridDBWriterPool(new AbstractConfig(GridDBSinkConnector.CONFIG_DEF, props), gsprops,
+			new StubGridStore().provider(), metrics, "test");
+	}
+
+	@After public void tearDown() throws InterruptedException {
+		if (journal != null)
+			journal.close();
+		writers.close();
+	}
+
+	private boolean append(long offset, long timeoutMs) throws IOException, InterruptedException {
+		return journal.append(SENSOR, 1000 + offset, SensorKind.WATTS, offset, -offset, "topic", 0, offset, timeoutMs);
+	}
+
+	private int segmentFiles() {
+		File[] files = dir.toFile().listFiles();
+		return files == null ? 0 : files.length;
+	}
+
+	// The rows the journal has handed to the writer of the sensor
+	private List<PendingRow> handedOver() throws InterruptedException {
+		List<PendingRow> rows = new ArrayList<>();
+		writers.bufferFor(SENSOR).take(rows, Integer.MAX_VALUE, 0, 0);
+		return rows;
+	}
+
+	@Test public void rollsOverSegmentsAndHandsOverRowsInOrder() throws Exception {
+		journal = new SpillJournal(dir, SEGMENT_BYTES, 1 << 20, writers, metrics);
+		int count = 500;
+		for (int i = 0; i < count; i++)
+			assertTrue(append(i, 0));
+		assertTrue("Expected the rows to span several segments", segmentFiles() > 1);
+		assertEquals(count, journal.size());
+		// Nothing of the partition has been handed over, so none of its offsets may be committed yet
+		assertEquals(-1, journal.committable("topic", 0, count));
+
+		journal.start();
+		assertTrue(journal.awaitDrained(10000));
+		assertTrue(journal.isEmpty());
+		List<PendingRow> rows = handedOver();
+		assertEquals(count, rows.size());
+		for (int i = 0; i < count; i++) {
+			PendingRow row = rows.get(i);
+			assertEquals(SENSOR, row.container);
+			assertEquals(1000 + i, row.timestamp);
+			assertSame(SensorKind.WATTS, row.kind);
+			assertEquals(i, row.first, 0);
+			assertEquals(-i, row.second, 0);
+			assertEquals("topic", row.topic);
+			assertEquals(0, row.partition);
+			assertEquals(i, row.offset);
+		}
+		assertEquals(count, journal.committable("topic", 0, count));
+	}
+
+	@Test public void reusesDrainedSegmentsOnceFull() throws Exception {
+		journal = new SpillJournal(dir, SEGMENT_BYTES, 2 * SEGMENT_BYTES, writers, metrics);
+		int appended = 0;
+		while (append(appended, 0))
+			appended++;
+		assertEquals(2, segmentFiles());
+		assertFalse(append(appended, 10));
+
+		journal.start();
+		assertTrue(append(appended++, 10000));
+		assertTrue(journal.awaitDrained(10000));
+		for (int i = 0; i < appended; i++)
+			assertTrue(append(appended + i, 10000));
+		assertTrue(journal.awaitDrained(10000));
+		assertEquals(2, segmentFiles());
+		List<PendingRow> rows = handedOver();
+		assertEquals(2 * appended, rows.size());
+		for (int i = 0; i < rows.size(); i++)
+			assertEquals(i, rows.get(i).offset);
+	}
+
+	@Test public void dropsDiscardedRows() throws Exception {
+		journal = new SpillJournal(dir, SEGMENT_BYTES, 1 << 20, writers, metrics);
+		for (int i = 0; i < 10; i++)
+			append(i, 0);
+		journal.discard();
+		append(10, 0);
+		journal.start();
+		assertTrue(journal.awaitDrained(10000));
+		List<PendingRow> rows = handedOver();
+		assertEquals(1, rows.size());
+		assertEquals(10, rows.get(0).offset);
+	}
+
+	@Test public void commitsNothingHandedOverBeforeADiscard() throws Exception {
+		writers.close();
+		writers = writers(5);
+		journal = new SpillJournal(dir, SEGMENT_BYTES, 1 << 20, writers, metrics);
+		journal.start();
+		// The buffer of the writer takes the first five rows, the others stay in the journal
+		for (int i = 0; i < 10; i++)
+			append(i, 0);
+		assertFalse(journal.awaitDrained(200));
+		assertEquals(5, journal.committable("topic", 0, 10));
+
+		// A write failed: Connect delivers the records since its last commit again
+		journal.discard();
+		for (int i = 0; i < 10; i++)
+			append(i, 0);
+		assertEquals(-1, journal.committable("topic", 0, 10));
+
+		// Once the writer takes rows again the redelivered ones are handed over, and then committed.
+		// The buffer reuses its slots, so the offsets are copied before the rows are released.
+		List<Long> offsets = new ArrayList<>();
+		List<PendingRow> rows = new ArrayList<>();
+		WriteBehindBuffer buffer = writers.bufferFor(SENSOR);
+		while (!journal.awaitDrained(10)) {
+			buffer.take(rows, Integer.MAX_VALUE, 0, 10);
+			for (PendingRow row : rows)
+				offsets.add(row.offset);
+			buffer.release(rows.size());
+			rows.clear();
+		}
+		for (PendingRow row : handedOver())
+			offsets.add(row.offset);
+		// The row the drainer was handing over when the journal was discarded is handed over still
+		assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), offsets);
+		assertEquals(10, journal.committable("topic", 0, 10));
+	}
+
+	@Test public void deletesTheSegmentsOfAnEarlierRun() throws Exception {
+		Files.createDirectories(dir);
+		Files.write(dir.resolve("0.spill"), new byte[16]);
+		journal = new SpillJournal(dir, SEGMENT_BYTES, 1 << 20, writers, metrics);
+		assertEquals(0, segmentFiles());
+		assertTrue(journal.isEmpty());
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.Geometry;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.sql.Blob;
+import java.util.Date;
+
+/**
+ * FlatRow is the Row that StubGridStore hands out. Primitive columns are kept unboxed in a long[]
+ * and everything else in an Object[], so filling a row in does not allocate and the allocation
+ * rate of a benchmark is that of the connector rather than of the stub.
+ */
+final class FlatRow implements Row {
+	private final ContainerInfo info;
+	private final long[] bits;
+	private final Object[] refs;
+
+	FlatRow(ContainerInfo info) {
+		this.info = info;
+		this.bits = new long[info.getColumnCount()];
+		this.refs = new Object[info.getColumnCount()];
+	}
+
+	public ContainerInfo getSchema() {
+		return info;
+	}
+
+	public void setValue(int column, Object value) throws GSException {
+		switch (info.getColumnInfo(column).getType()) {
+		case BOOL:
+			setBool(column, (Boolean) value);
+			break;
+		case BYTE:
+		case SHORT:
+		case INTEGER:
+		case LONG:
+			bits[column] = ((Number) value).longValue();
+			break;
+		case FLOAT:
+		case DOUBLE:
+			setDouble(column, ((Number) value).doubleValue());
+			break;
+		default:
+			refs[column] = value;
+		}
+	}
+
+	public Object getValue(int column) throws GSException {
+		GSType type = info.getColumnInfo(column).getType();
+		switch (type) {
+		case BOOL:
+			return getBool(column);
+		case BYTE:
+			return getByte(column);
+		case SHORT:
+			return getShort(column);
+		case INTEGER:
+			return getInteger(column);
+		case LONG:
+			return getLong(column);
+		case FLOAT:
+			return getFloat(column);
+		case DOUBLE:
+			return getDouble(column);
+		default:
+			return refs[column];
+		}
+	}
+
+	public void setString(int column, String value) {
+		refs[column] = value;
+	}
+
+	public String getString(int column) {
+		return (String) refs[column];
+	}
+
+	public void setBool(int column, boolean value) {
+		bits[column] = value ? 1 : 0;
+	}
+
+	public boolean getBool(int column) {
+		return bits[column] != 0;
+	}
+
+	public void setByte(int column, byte value) {
+		bits[column] = value;
+	}
+
+	public byte getByte(int column) {
+		return (byte) bits[column];
+	}
+
+	public void setShort(int column, short value) {
+		bits[column] = value;
+	}
+
+	public short getShort(int column) {
+		return (short) bits[column];
+	}
+
+	public void setInteger(int column, int value) {
+		bits[column] = value;
+	}
+
+	public int getInteger(int column) {
+		return (int) bits[column];
+	}
+
+	public void setLong(int column, long value) {
+		bits[column] = value;
+	}
+
+	public long getLong(int column) {
+		return bits[column];
+	}
+
+	public void setFloat(int column, float value) {
+		setDouble(column, value);
+	}
+
+	public float getFloat(int column) {
+		return (float) getDouble(column);
+	}
+
+	public void setDouble(int column, double value) {
+		bits[column] = Double.doubleToRawLongBits(value);
+	}
+
+	public double getDouble(int column) {
+		return Double.longBitsToDouble(bits[column]);
+	}
+
+	public void setTimestamp(int column, Date value) {
+		refs[column] = value;
+	}
+
+	public Date getTimestamp(int column) {
+		return (Date) refs[column];
+	}
+
+	public void setGeometry(int column, Geometry value) {
+		refs[column] = value;
+	}
+
+	public Geometry getGeometry(int column) {
+		return (Geometry) refs[column];
+	}
+
+	public void setBlob(int column, Blob value) {
+		refs[column] = value;
+	}
+
+	public Blob getBlob(int column) {
+		return (Blob) refs[column];
+	}
+
+	public void setStringArray(int column, String[] value) {
+		refs[column] = value;
+	}
+
+	public String[] getStringArray(int column) {
+		return (String[]) refs[column];
+	}
+
+	public void setBoolArray(int column, boolean[] value) {
+		refs[column] = value;
+	}
+
+	public boolean[] getBoolArray(int column) {
+		return (boolean[]) refs[column];
+	}
+
+	public void setByteArray(int column, byte[] value) {
+		refs[column] = value;
+	}
+
+	public byte[] getByteArray(int column) {
+		return (byte[]) refs[column];
+	}
+
+	public void setShortArray(int column, short[] value) {
+		refs[column] = value;
+	}
+
+	public short[] getShortArray(int column) {
+		return (short[]) refs[column];
+	}
+
+	public void setIntegerArray(int column, int[] value) {
+		refs[column] = value;
+	}
+
+	public int[] getIntegerArray(int column) {
+		return (int[]) refs[column];
+	}
+
+	public void setLongArray(int column, long[] value) {
+		refs[column] = value;
+	}
+
+	public long[] getLongArray(int column) {
+		return (long[]) refs[column];
+	}
+
+	public void setFloatArray(int column, float[] value) {
+		refs[column] = value;
+	}
+
+	public float[] getFloatArray(int column) {
+		return (float[]) refs[column];
+	}
+
+	public void setDoubleArray(int column, double[] value) {
+		refs[column] = value;
+	}
+
+	public double[] getDoubleArray(int column) {
+		return (double[]) refs[column];
+	}
+
+	public void setTimestampArray(int column, Date[] value) {
+		refs[column] = value;
+	}
+
+	public Date[] getTimestampArray(int column) {
+		return (Date[]) refs[column];
+	}
+
+	// Not annotated with @Override, GridDB 3.0 has no null columns
+	public void setNull(int column) {
+		bits[column] = 0;
+		refs[column] = null;
+	}
+
+	public boolean isNull(int column) {
+		return false;
+	}
+}
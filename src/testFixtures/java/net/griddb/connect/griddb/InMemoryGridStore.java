@@ -0,0 +1,741 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.Aggregation;
+import com.toshiba.mwcloud.gs.AggregationResult;
+import com.toshiba.mwcloud.gs.ColumnInfo;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.ContainerType;
+import com.toshiba.mwcloud.gs.FetchOption;
+import com.toshiba.mwcloud.gs.GSException;
+import com.toshiba.mwcloud.gs.GSType;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.QueryOrder;
+import com.toshiba.mwcloud.gs.Row;
+import com.toshiba.mwcloud.gs.RowKey;
+import com.toshiba.mwcloud.gs.RowKeyPredicate;
+import com.toshiba.mwcloud.gs.TimeSeries;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * InMemoryGridStore keeps containers in memory and serves the part of the GridStore API the connector
+ * and the DataViewer use: putTimeSeries/putCollection/putContainer, get*, createRow, multiPut, multiGet,
+ * and on containers put/append/get/remove, "SELECT *" queries (with the LIMIT fetch option),
+ * time range queries and aggregate. Other methods throw UnsupportedOperationException.
+ *
+ * Every round trip to the "server" (container creation, put, get, multiPut, multiGet, fetch, aggregate)
+ * can be slowed down with setLatency and made to fail with setFailureRate or failNext, and setUnavailable
+ * takes the whole "cluster" down (e.g. during a failover), so the connector
+ * can be measured under realistic conditions without a GridDB cluster. All the GridStores returned by
+ * provider() share the same data, like connections to the same cluster.
+ */
+final class InMemoryGridStore {
+	private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Class<?>, Mapping> mappings = new ConcurrentHashMap<>();
+
+	private volatile long latencyNanos;
+	private volatile long jitterNanos;
+	private volatile double failureRate;
+	private final AtomicInteger failNext = new AtomicInteger();
+	private volatile boolean retainTimeSeriesRows = true;
+	private volatile boolean unavailable;
+
+	private final LongAdder roundTrips = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder connections = new LongAdder();
+
+	// Every round trip takes latency plus a uniformly distributed share of jitter
+	InMemoryGridStore setLatency(long latency, long jitter, TimeUnit unit) {
+		latencyNanos = unit.toNanos(latency);
+		jitterNanos = unit.toNanos(jitter);
+		return this;
+	}
+
+	// Probability (0 to 1) that a round trip throws a GSException
+	InMemoryGridStore setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+		return this;
+	}
+
+	// The next n round trips throw a GSException
+	InMemoryGridStore failNext(int n) {
+		failNext.set(n);
+		return this;
+	}
+
+	// While set, new connections and every request fail, as if the cluster could not be reached
+	InMemoryGridStore setUnavailable(boolean unavailable) {
+		this.unavailable = unavailable;
+		return this;
+	}
+
+	// When false, rows written into TimeSeries containers are counted but not kept, so long soak runs
+	// measure the connector's heap rather than the store's. Collections always keep their rows.
+	InMemoryGridStore setRetainTimeSeriesRows(boolean retain) {
+		retainTimeSeriesRows = retain;
+		return this;
+	}
+
+	// A new connection to this store
+	GridStore connect() {
+		connections.increment();
+		return (GridStore) Proxy.newProxyInstance(GridStore.class.getClassLoader(),
+			new Class<?>[] { GridStore.class }, new StoreHandler());
+	}
+
+	GridStoreProvider provider() {
+		return new GridStoreProvider() {
+			@Override public GridStore getGridStore(Properties props) throws GSException {
+				checkAvailable("connect");
+				return connect();
+			}
+		};
+	}
+
+	int containerCount() {
+		return tables.size();
+	}
+
+	// Rows written into the given container, or into all containers when name is null
+	long rowsWritten(String name) {
+		if (name != null) {
+			Table table = tables.get(name);
+			return table == null ? 0 : table.written.sum();
+		}
+		long rows = 0;
+		for (Table table : tables.values())
+			rows += table.written.sum();
+		return rows;
+	}
+
+	long roundTrips() {
+		return roundTrips.sum();
+	}
+
+	long failures() {
+		return failures.sum();
+	}
+
+	long connections() {
+		return connections.sum();
+	}
+
+	@Override public String toString() {
+		return "InMemoryGridStore containers=" + containerCount() + " rows=" + rowsWritten(null)
+			+ " roundTrips=" + roundTrips() + " failures=" + failures() + " connections=" + connections();
+	}
+
+	private void checkAvailable(String operation) throws GSException {
+		if (unavailable) {
+			failures.increment();
+			throw new GSException("Cluster unavailable during " + operation);
+		}
+	}
+
+	// Simulate a round trip to the server: wait for the configured latency, then maybe fail
+	private void roundTrip(String operation) throws GSException {
+		checkAvailable(operation);
+		roundTrips.increment();
+		long latency = latencyNanos;
+		long jitter = jitterNanos;
+		if (jitter > 0)
+			latency += ThreadLocalRandom.current().nextLong(jitter);
+		if (latency > 0)
+			LockSupport.parkNanos(latency);
+		int remaining = failNext.get();
+		boolean fail = remaining > 0 && failNext.compareAndSet(remaining, remaining - 1);
+		if (!fail && failureRate > 0)
+			fail = ThreadLocalRandom.current().nextDouble() < failureRate;
+		if (fail) {
+			failures.increment();
+			throw new GSException("Injected failure of " + operation);
+		}
+	}
+
+	// A container: rows by key (or by insertion order when it has no row key), as column values
+	private final class Table {
+		final String name;
+		final ContainerInfo info;
+		final boolean timeSeries;
+		final ConcurrentSkipListMap<Object, Object[]> rows = new ConcurrentSkipListMap<>();
+		final AtomicLong nextId = new AtomicLong();
+		final LongAdder written = new LongAdder();
+
+		Table(String name, ContainerInfo info) {
+			this.name = name;
+			this.info = new ContainerInfo(info);
+			this.info.setName(name);
+			this.timeSeries = info.getType() == ContainerType.TIME_SERIES;
+		}
+
+		boolean put(Object key, Object[] values) {
+			written.increment();
+			if (timeSeries && !retainTimeSeriesRows)
+				return false;
+			if (!info.isRowKeyAssigned())
+				key = nextId.getAndIncrement();
+			else if (key == null)
+				key = values[0];
+			else
+				values[0] = key;
+			return rows.put(key, values) != null;
+		}
+	}
+
+	private Table table(String name, ContainerInfo info, boolean modifiable) throws GSException {
+		roundTrip("put container " + name);
+		Table table = tables.get(name);
+		if (table == null) {
+			Table created = new Table(name, info);
+			table = tables.putIfAbsent(name, created);
+			if (table == null)
+				return created;
+		}
+		if (table.info.getType() != info.getType())
+			throw new GSException("Container " + name + " already exists as a " + table.info.getType());
+		if (!modifiable && table.info.getColumnCount() != info.getColumnCount())
+			throw new GSException("Container " + name + " already exists with a different schema");
+		return table;
+	}
+
+	private Table existing(String name, ContainerType type) throws GSException {
+		roundTrip("get container " + name);
+		Table table = tables.get(name);
+		return table == null || (type != null && table.info.getType() != type) ? null : table;
+	}
+
+	// Column layout of a row class, the @RowKey field comes first as GridDB requires
+	private final class Mapping {
+		final ContainerInfo info;
+		final Field[] fields;
+		final Constructor<?> constructor;
+
+		Mapping(Class<?> rowClass, ContainerType type) {
+			List<Field> columns = new ArrayList<>();
+			for (Field field : rowClass.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+						|| field.isSynthetic())
+					continue;
+				field.setAccessible(true);
+				if (field.isAnnotationPresent(RowKey.class))
+					columns.add(0, field);
+				else
+					columns.add(field);
+			}
+			fields = columns.toArray(new Field[columns.size()]);
+			List<ColumnInfo> infos = new ArrayList<>();
+			for (Field field : fields)
+				infos.add(new ColumnInfo(field.getName(), typeOf(field.getType())));
+			boolean keyed = fields.length > 0 && fields[0].isAnnotationPresent(RowKey.class);
+			info = new ContainerInfo(null, type, infos, keyed);
+			try {
+				constructor = rowClass.getDeclaredConstructor();
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException ex) {
+				throw new IllegalArgumentException(rowClass + " has no default constructor", ex);
+			}
+		}
+
+		Object[] toValues(Object row) throws GSException {
+			Object[] values = new Object[fields.length];
+			try {
+				for (int i = 0; i < fields.length; i++)
+					values[i] = fields[i].get(row);
+			} catch (IllegalAccessException ex) {
+				throw new GSException(ex);
+			}
+			return values;
+		}
+
+		Object fromValues(Object[] values) throws GSException {
+			try {
+				Object row = constructor.newInstance();
+				for (int i = 0; i < fields.length && i < values.length; i++) {
+					if (values[i] != null)
+						fields[i].set(row, values[i]);
+				}
+				return row;
+			} catch (InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+				throw new GSException(ex);
+			}
+		}
+	}
+
+	private Mapping mapping(Class<?> rowClass, ContainerType type) {
+		Mapping mapping = mappings.get(rowClass);
+		if (mapping == null) {
+			mapping = new Mapping(rowClass, type);
+			mappings.putIfAbsent(rowClass, mapping);
+		}
+		return mapping;
+	}
+
+	static GSType typeOf(Class<?> type) {
+		if (type == String.class)
+			return GSType.STRING;
+		if (type == Date.class)
+			return GSType.TIMESTAMP;
+		if (type == double.class || type == Double.class)
+			return GSType.DOUBLE;
+		if (type == float.class || type == Float.class)
+			return GSType.FLOAT;
+		if (type == long.class || type == Long.class)
+			return GSType.LONG;
+		if (type == int.class || type == Integer.class)
+			return GSType.INTEGER;
+		if (type == short.class || type == Short.class)
+			return GSType.SHORT;
+		if (type == byte.class || type == Byte.class)
+			return GSType.BYTE;
+		if (type == boolean.class || type == Boolean.class)
+			return GSType.BOOL;
+		if (type == double[].class)
+			return GSType.DOUBLE_ARRAY;
+		if (type == long[].class)
+			return GSType.LONG_ARRAY;
+		throw new IllegalArgumentException("Unsupported column type " + type);
+	}
+
+	// Column values of a Row, copied (Dates included, the way GridDB serializes them) so that later
+	// changes to the row or to the Dates handed to it do not change the stored one
+	private static Object[] rowValues(Row row) throws GSException {
+		Object[] values = StubGridStore.StubRow.values(row);
+		if (values != null)
+			return copy(values);
+		values = new Object[row.getSchema().getColumnCount()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = row.getValue(i);
+		return copy(values);
+	}
+
+	private static Object[] copy(Object[] values) {
+		Object[] copy = values.clone();
+		for (int i = 0; i < copy.length; i++) {
+			if (copy[i] instanceof Date)
+				copy[i] = new Date(((Date) copy[i]).getTime());
+		}
+		return copy;
+	}
+
+	private static Object unsupported(Method method) {
+		throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "."
+			+ method.getName() + " is not supported by InMemoryGridStore");
+	}
+
+	private final class StoreHandler implements InvocationHandler {
+		@Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			Class<?>[] params = method.getParameterTypes();
+			switch (name) {
+			case "putTimeSeries":
+			case "putCollection":
+			case "putContainer": {
+				ContainerType type = name.equals("putTimeSeries") ? ContainerType.TIME_SERIES : ContainerType.COLLECTION;
+				Class<?> rowClass = Row.class;
+				ContainerInfo info = null;
+				boolean modifiable = false;
+				for (int i = 1; i < args.length; i++) {
+					if (args[i] instanceof Class)
+						rowClass = (Class<?>) args[i];
+					else if (args[i] instanceof ContainerInfo)
+						info = (ContainerInfo) args[i];
+					else if (args[i] instanceof Boolean)
+						modifiable = (Boolean) args[i];
+				}
+				if (info != null && info.getType() != null)
+					type = info.getType();
+				if (info == null || info.getColumnCount() == 0)
+					info = mapping(rowClass, type).info;
+				Table table = table((String) args[0], info, modifiable);
+				return handle(table, rowClass);
+			}
+			case "getContainer":
+			case "getCollection":
+			case "getTimeSeries": {
+				ContainerType type = name.equals("getTimeSeries") ? ContainerType.TIME_SERIES
+					: name.equals("getCollection") ? ContainerType.COLLECTION : null;
+				Table table = existing((String) args[0], type);
+				return table == null ? null : handle(table, params.length > 1 ? (Class<?>) args[1] : Row.class);
+			}
+			case "getContainerInfo": {
+				checkAvailable(name);
+				Table table = existing((String) args[0], null);
+				return table == null ? null : new ContainerInfo(table.info);
+			}
+			case "dropContainer":
+			case "dropCollection":
+			case "dropTimeSeries":
+				roundTrip(name);
+				tables.remove(args[0]);
+				return null;
+			case "createRow":
+				return StubGridStore.StubRow.create((ContainerInfo) args[0]);
+			case "multiPut":
+				multiPut((Map<?, ?>) args[0]);
+				return null;
+			case "multiGet":
+				return multiGet((Map<?, ?>) args[0]);
+			case "fetchAll":
+				// Queries fetch their rows when fetch() is called
+				return null;
+			case "close":
+				return null;
+			default:
+				if (method.getDeclaringClass() == Object.class)
+					return StubGridStore.objectMethod(proxy, method, args);
+				return unsupported(method);
+			}
+		}
+	}
+
+	// The arguments of the proxied call are only known as Objects, so the map is taken apart with checked casts
+	private void multiPut(Map<?, ?> containerRows) throws GSException {
+		roundTrip("multiPut");
+		// Check every container first, so a failed multiPut does not write anything
+		List<Table> targets = new ArrayList<>();
+		for (Object name : containerRows.keySet()) {
+			Table table = tables.get(name);
+			if (table == null)
+				throw new GSException("Container " + name + " does not exist");
+			targets.add(table);
+		}
+		int i = 0;
+		for (Object rows : containerRows.values()) {
+			Table table = targets.get(i++);
+			for (Object row : (List<?>) rows)
+				table.put(null, rowValues((Row) row));
+		}
+	}
+
+	private Map<String, List<Row>> multiGet(Map<?, ?> predicates) throws GSException {
+		roundTrip("multiGet");
+		Map<String, List<Row>> found = new HashMap<>();
+		for (Map.Entry<?, ?> entry : predicates.entrySet()) {
+			String name = (String) entry.getKey();
+			Table table = tables.get(name);
+			if (table == null)
+				throw new GSException("Container " + name + " does not exist");
+			RowKeyPredicate<?> predicate = (RowKeyPredicate<?>) entry.getValue();
+			List<Row> rows = new ArrayList<>();
+			if (predicate.getDistinctKeys() != null) {
+				for (Object key : predicate.getDistinctKeys()) {
+					Object[] values = table.rows.get(key);
+					if (values != null)
+						rows.add(StubGridStore.StubRow.create(table.info, copy(values)));
+				}
+			} else {
+				for (Object[] values : range(table.rows, predicate.getStart(), predicate.getFinish()).values())
+					rows.add(StubGridStore.StubRow.create(table.info, copy(values)));
+			}
+			found.put(name, rows);
+		}
+		return found;
+	}
+
+	private static NavigableMap<Object, Object[]> range(ConcurrentSkipListMap<Object, Object[]> rows,
+			Object start, Object finish) {
+		if (start != null && finish != null)
+			return rows.subMap(start, true, finish, true);
+		if (start != null)
+			return rows.tailMap(start, true);
+		if (finish != null)
+			return rows.headMap(finish, true);
+		return rows;
+	}
+
+	private Object handle(Table table, Class<?> rowClass) {
+		Class<?> type = table.timeSeries ? TimeSeries.class : com.toshiba.mwcloud.gs.Collection.class;
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+			new ContainerHandler(table, rowClass));
+	}
+
+	// A container handle, reading and writing rows of one row class
+	private final class ContainerHandler implements InvocationHandler {
+		final Table table;
+		final Class<?> rowClass;
+		final Mapping mapping;
+
+		ContainerHandler(Table table, Class<?> rowClass) {
+			this.table = table;
+			this.rowClass = rowClass;
+			this.mapping = rowClass == Row.class ? null : mapping(rowClass, table.info.getType());
+		}
+
+		Object[] toValues(Object row) throws GSException {
+			return mapping == null ? rowValues((Row) row) : mapping.toValues(row);
+		}
+
+		Object toRow(Object[] values) throws GSException {
+			return mapping == null ? StubGridStore.StubRow.create(table.info, copy(values))
+				: mapping.fromValues(copy(values));
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			int arity = args == null ? 0 : args.length;
+			switch (name) {
+			case "put":
+			case "append":
+				roundTrip(name + " " + table.name);
+				if (arity == 2)
+					return table.put(args[0], toValues(args[1]));
+				if (args[0] instanceof Collection) {
+					for (Object row : (Collection<?>) args[0])
+						table.put(null, toValues(row));
+					return true;
+				}
+				return table.put(null, toValues(args[0]));
+			case "get":
+				if (arity == 2 && !(args[1] instanceof Boolean))
+					return unsupported(method);
+				roundTrip("get " + table.name);
+				Object[] values = table.rows.get(args[0]);
+				return values == null ? null : toRow(values);
+			case "remove":
+				roundTrip("remove " + table.name);
+				return table.rows.remove(args[0]) != null;
+			case "query":
+				if (arity >= 1 && args[0] instanceof String)
+					return query(tqlRows((String) args[0]), arity == 2 ? (Class<?>) args[1] : rowClass);
+				if (arity == 2 || (arity == 3 && args[2] instanceof QueryOrder)) {
+					NavigableMap<Object, Object[]> rows = range(table.rows, args[0], args[1]);
+					if (arity == 3 && args[2] == QueryOrder.DESCENDING)
+						rows = rows.descendingMap();
+					return query(rows.values(), rowClass);
+				}
+				return unsupported(method);
+			case "aggregate":
+				roundTrip("aggregate " + table.name);
+				return aggregate(range(table.rows, args[0], args[1]).values(), (String) args[2],
+					(Aggregation) args[3]);
+			case "createRow":
+				return StubGridStore.StubRow.create(table.info);
+			case "getType":
+				return table.info.getType();
+			case "commit":
+			case "abort":
+			case "setAutoCommit":
+			case "flush":
+			case "close":
+			case "createIndex":
+			case "dropIndex":
+				return null;
+			default:
+				if (method.getDeclaringClass() == Object.class)
+					return StubGridStore.objectMethod(proxy, method, args);
+				return unsupported(method);
+			}
+		}
+
+		// Only "SELECT *" is understood, everything else needs a real cluster
+		Collection<Object[]> tqlRows(String tql) throws GSException {
+			if (!tql.trim().replaceAll("\\s+", " ").equalsIgnoreCase("select *"))
+				throw new GSException("InMemoryGridStore only supports SELECT * queries: " + tql);
+			return table.rows.values();
+		}
+
+		Object query(Collection<Object[]> rows, Class<?> resultClass) {
+			return Proxy.newProxyInstance(com.toshiba.mwcloud.gs.Query.class.getClassLoader(),
+				new Class<?>[] { com.toshiba.mwcloud.gs.Query.class },
+				new QueryHandler(this, rows, resultClass));
+		}
+
+		Object aggregate(Collection<Object[]> rows, String column, Aggregation aggregation) throws GSException {
+			int index = -1;
+			for (int i = 0; i < table.info.getColumnCount(); i++) {
+				if (table.info.getColumnInfo(i).getName().equalsIgnoreCase(column))
+					index = i;
+			}
+			if (index < 0)
+				throw new GSException("Unknown column " + column + " in " + table.name);
+			long count = 0;
+			double sum = 0;
+			double sumOfSquares = 0;
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			// Time-weighted sum, every value is weighted by half the time between its neighbours
+			double weightedSum = 0;
+			double totalWeight = 0;
+			long previousTime = 0;
+			long time = 0;
+			double value = 0;
+			for (Object[] values : rows) {
+				if (!(values[index] instanceof Number))
+					continue;
+				long nextTime = values[0] instanceof Date ? ((Date) values[0]).getTime() : 0;
+				if (count > 0) {
+					double weight = (nextTime - (count > 1 ? previousTime : time)) / 2.0;
+					weightedSum += weight * value;
+					totalWeight += weight;
+				}
+				previousTime = time;
+				time = nextTime;
+				value = ((Number) values[index]).doubleValue();
+				count++;
+				sum += value;
+				sumOfSquares += value * value;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if (count > 1) {
+				weightedSum += (time - previousTime) / 2.0 * value;
+				totalWeight += (time - previousTime) / 2.0;
+			}
+			if (aggregation == Aggregation.COUNT)
+				return aggregationResult(count);
+			if (count == 0)
+				return null;
+			double mean = sum / count;
+			switch (aggregation) {
+			case MINIMUM:
+				return aggregationResult(min);
+			case MAXIMUM:
+				return aggregationResult(max);
+			case TOTAL:
+				return aggregationResult(sum);
+			case AVERAGE:
+				return aggregationResult(mean);
+			case WEIGHTED_AVERAGE:
+				return aggregationResult(totalWeight > 0 ? weightedSum / totalWeight : mean);
+			case VARIANCE:
+				return aggregationResult(Math.max(0, sumOfSquares / count - mean * mean));
+			case STANDARD_DEVIATION:
+				return aggregationResult(Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean)));
+			default:
+				throw new GSException(aggregation + " is not supported by InMemoryGridStore");
+			}
+		}
+	}
+
+	private static AggregationResult aggregationResult(final Number value) {
+		return new AggregationResult() {
+			@Override public Double getDouble() {
+				return value.doubleValue();
+			}
+
+			@Override public Long getLong() {
+				return value.longValue();
+			}
+
+			@Override public Date getTimestamp() {
+				return null;
+			}
+
+			@Override public String toString() {
+				return String.valueOf(value);
+			}
+		};
+	}
+
+	// A query over a snapshot of rows, taken when it is fetched
+	private final class QueryHandler implements InvocationHandler {
+		final ContainerHandler container;
+		final Collection<Object[]> rows;
+		final Class<?> resultClass;
+		long limit = Long.MAX_VALUE;
+		Object rowSet;
+
+		QueryHandler(ContainerHandler container, Collection<Object[]> rows, Class<?> resultClass) {
+			this.container = container;
+			this.rows = rows;
+			this.resultClass = resultClass;
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "setFetchOption":
+				if (args[0] == FetchOption.LIMIT)
+					limit = ((Number) args[1]).longValue();
+				return null;
+			case "fetch":
+				roundTrip("fetch " + container.table.name);
+				List<Object> results = new ArrayList<>();
+				for (Object[] values : rows) {
+					if (results.size() >= limit)
+						break;
+					results.add(resultClass == container.rowClass ? container.toRow(values)
+						: resultClass == Row.class ? StubGridStore.StubRow.create(container.table.info, copy(values))
+						: mapping(resultClass, container.table.info.getType()).fromValues(copy(values)));
+				}
+				rowSet = rowSet(results);
+				return rowSet;
+			case "getRowSet":
+				return rowSet;
+			case "close":
+				return null;
+			default:
+				if (method.getDeclaringClass() == Object.class)
+					return StubGridStore.objectMethod(proxy, method, args);
+				return unsupported(method);
+			}
+		}
+	}
+
+	private static Object rowSet(final List<Object> results) {
+		return Proxy.newProxyInstance(com.toshiba.mwcloud.gs.RowSet.class.getClassLoader(),
+			new Class<?>[] { com.toshiba.mwcloud.gs.RowSet.class }, new InvocationHandler() {
+				int next;
+
+				@Override public Object invoke(Object proxy, Method method, Object[] args) {
+					switch (method.getName()) {
+					case "hasNext":
+						return next < results.size();
+					case "next":
+						if (next >= results.size())
+							throw new NoSuchElementException();
+						return results.get(next++);
+					case "size":
+						return results.size();
+					case "close":
+						return null;
+					default:
+						if (method.getDeclaringClass() == Object.class)
+							return StubGridStore.objectMethod(proxy, method, args);
+						return unsupported(method);
+					}
+				}
+			});
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017 TOSHIBA Digital Solutions Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.griddb.connect.griddb;
+
+import com.toshiba.mwcloud.gs.Container;
+import com.toshiba.mwcloud.gs.ContainerInfo;
+import com.toshiba.mwcloud.gs.GridStore;
+import com.toshiba.mwcloud.gs.Row;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StubGridStore is a GridStore that does no I/O, so benchmarks measure the connector rather than GridDB.
+ * Containers accept every put, multiPut only counts the rows and multiGet finds nothing.
+ * Rows are FlatRows, which do not allocate when they are filled in, so the allocation rate of a
+ * benchmark is that of the connector.
+ */
+final class StubGridStore implements InvocationHandler {
+	final LongAdder rows = new LongAdder();
+	final GridStore store = (GridStore) Proxy.newProxyInstance(GridStore.class.getClassLoader(),
+		new Class<?>[] { GridStore.class }, this);
+
+	// Provider that hands out this store for every connection a task opens
+	GridStoreProvider provider() {
+		return new GridStoreProvider() {
+			@Override public GridStore getGridStore(Properties props) {
+				return store;
+			}
+		};
+	}
+
+	@Override public Object invoke(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "createRow":
+			return new FlatRow((ContainerInfo) args[0]);
+		case "putTimeSeries":
+		case "putCollection":
+		case "putContainer":
+			return StubContainer.create(method.getReturnType());
+		case "getContainer":
+			// Nothing has been written yet, so there is no Sensor_Types container to load
+			return null;
+		case "multiPut":
+			for (Object containerRows : ((Map<?, ?>) args[0]).values())
+				rows.add(((List<?>) containerRows).size());
+			return null;
+		case "multiGet":
+			return Collections.emptyMap();
+		default:
+			return objectMethod(proxy, method, args);
+		}
+	}
+
+	// equals/hashCode/toString of a proxy, and the zero value for everything else
+	static Object objectMethod(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "toString":
+			return "Stub" + method.getDeclaringClass().getSimpleName();
+		default:
+			return zero(method.getReturnType());
+		}
+	}
+
+	static Object zero(Class<?> type) {
+		if (type == boolean.class)
+			return false;
+		if (type == int.class || type == short.class || type == byte.class || type == char.class)
+			return type == char.class ? (Object) (char) 0 : (Object) 0;
+		if (type == long.class)
+			return 0L;
+		if (type == float.class || type == double.class)
+			return type == float.class ? (Object) 0f : (Object) 0d;
+		return null;
+	}
+
+	// Container (or TimeSeries/Collection) whose puts always succeed
+	static final class StubContainer implements InvocationHandler {
+		static Container<?, ?> create(Class<?> type) {
+			return (Container<?, ?>) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				new StubContainer());
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("put"))
+				return true;
+			return objectMethod(proxy, method, args);
+		}
+	}
+
+	// Row that keeps its column values in an array
+	static final class StubRow implements InvocationHandler {
+		private final ContainerInfo info;
+		private final Object[] values;
+
+		private StubRow(ContainerInfo info, Object[] values) {
+			this.info = info;
+			this.values = values;
+		}
+
+		static Row create(ContainerInfo info) {
+			return create(info, new Object[info.getColumnCount()]);
+		}
+
+		// Row backed by the given column values (not copied)
+		static Row create(ContainerInfo info, Object[] values) {
+			return (Row) Proxy.newProxyInstance(Row.class.getClassLoader(), new Class<?>[] { Row.class },
+				new StubRow(info, values));
+		}
+
+		// Column values of a row created by create(), or null for any other Row
+		static Object[] values(Object row) {
+			if (!Proxy.isProxyClass(row.getClass()))
+				return null;
+			InvocationHandler handler = Proxy.getInvocationHandler(row);
+			return handler instanceof StubRow ? ((StubRow) handler).values : null;
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("getSchema"))
+				return info;
+			if (name.equals("isNull"))
+				return values[(Integer) args[0]] == null;
+			if (name.equals("setNull")) {
+				values[(Integer) args[0]] = null;
+				return null;
+			}
+			if (name.startsWith("set") && args != null && args.length == 2) {
+				values[(Integer) args[0]] = args[1];
+				return null;
+			}
+			if (name.startsWith("get") && args != null && args.length == 1) {
+				Object value = values[(Integer) args[0]];
+				return value != null ? value : zero(method.getReturnType());
+			}
+			return objectMethod(proxy, method, args);
+		}
+	}
+}